@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+package com.welty.nboard.thor;
+
+import com.welty.othello.thor.DatabaseData;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Game files for the benchmarks.
+ * <p/>
+ * The "fixtures" database is test.WTB and test.ggf from the unit tests. A database named by a number is that many
+ * synthetic games, written to a GGF file: random legal games between a pool of players, with years, places and
+ * results, so that filters and the opening tree behave roughly as on a real archive. The same seed always
+ * produces the same games.
+ */
+final class BenchmarkDatabases {
+    static final String FIXTURES = "fixtures";
+
+    private static final int N_PLAYERS = 500;
+    private static final int N_PLACES = 50;
+    private static final long SEED = 1337;
+
+    private BenchmarkDatabases() {
+    }
+
+    /**
+     * @param database "fixtures", or a number of synthetic games
+     * @return the game files of the database, in a new temporary directory
+     */
+    static List<String> files(String database) throws IOException {
+        final File directory = Files.createTempDirectory("nboard-benchmark").toFile();
+        directory.deleteOnExit();
+        if (database.equals(FIXTURES)) {
+            return Arrays.asList(copyResource("test.WTB", directory), copyResource("test.ggf", directory));
+        }
+        final File file = new File(directory, "synthetic.ggf");
+        file.deleteOnExit();
+        writeSyntheticGgf(file, Integer.parseInt(database), SEED);
+        return Arrays.asList(file.getPath());
+    }
+
+    /**
+     * Load game files the way DatabaseLoader.reloadGames does: parse them in parallel, remove duplicates,
+     * replace the games of a DatabaseData, and index it.
+     */
+    static DatabaseIndex reload(List<String> fns) {
+        final List<DatabaseLoader.LoadedFile> loadedFiles = DatabaseLoader.removeDuplicates(
+                DatabaseLoader.loadFiles(fns, DatabaseWatcher.NO_PROGRESS, true), new GameSources());
+        final DatabaseData databaseData = new DatabaseData();
+        DatabaseLoader.replaceGames(databaseData, loadedFiles, new ErrorDisplayer() {
+            @Override public void notify(String operation, String error) {
+                throw new IllegalStateException("Error " + operation + ": " + error);
+            }
+        });
+        return DatabaseIndex.of(databaseData);
+    }
+
+    private static String copyResource(String name, File directory) throws IOException {
+        final File file = new File(directory, name);
+        file.deleteOnExit();
+        try (InputStream in = BenchmarkDatabases.class.getResourceAsStream(name)) {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file.getPath();
+    }
+
+    /**
+     * Write nGames random games to a GGF file
+     */
+    static void writeSyntheticGgf(File file, int nGames, long seed) throws IOException {
+        final Random random = new Random(seed);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+            for (int g = 0; g < nGames; g++) {
+                out.write(randomGgfGame(random));
+                out.write('\n');
+            }
+        }
+    }
+
+    private static String randomGgfGame(Random random) {
+        final StringBuilder moves = new StringBuilder();
+        final BitPosition position = BitPosition.start();
+        boolean passed = false;
+        while (true) {
+            final List<Integer> legal = legalMoves(position);
+            if (legal.isEmpty()) {
+                if (passed) {
+                    break;
+                }
+                moves.append(position.isBlackToMove() ? "B" : "W").append("[PA]");
+                position.pass();
+                passed = true;
+                continue;
+            }
+            passed = false;
+            final int sq = legal.get(random.nextInt(legal.size()));
+            moves.append(position.isBlackToMove() ? "B" : "W")
+                    .append('[').append((char) ('a' + (sq & 7))).append((char) ('1' + (sq >> 3))).append(']');
+            position.play(sq);
+        }
+        final int result = Long.bitCount(position.black()) - Long.bitCount(position.white());
+        final int year = 1980 + random.nextInt(35);
+        return "(;GM[Othello]PC[place" + random.nextInt(N_PLACES) + "]DT[" + year + ".01.01_00:00:00.GMT]"
+                + "PB[player" + random.nextInt(N_PLAYERS) + "]PW[player" + random.nextInt(N_PLAYERS) + "]"
+                + "TI[05:00//02:00]TY[8]RE[" + (result >= 0 ? "+" : "") + result + ".000]"
+                + "BO[8 -------- -------- -------- ---O*--- ---*O--- -------- -------- -------- *]"
+                + moves + ";)";
+    }
+
+    private static List<Integer> legalMoves(BitPosition position) {
+        final List<Integer> legal = new ArrayList<>();
+        for (long empty = ~(position.black() | position.white()); empty != 0; empty &= empty - 1) {
+            final int sq = Long.numberOfTrailingZeros(empty);
+            final long mover = position.isBlackToMove() ? position.black() : position.white();
+            final long enemy = position.isBlackToMove() ? position.white() : position.black();
+            if (BitBoards.flips(mover, enemy, sq) != 0) {
+                legal.add(sq);
+            }
+        }
+        return legal;
+    }
+}
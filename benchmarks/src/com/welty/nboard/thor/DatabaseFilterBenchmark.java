@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+package com.welty.nboard.thor;
+
+import gnu.trove.list.array.TIntArrayList;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of filtered lookups, by both strategies the database window chooses between: look up the position
+ * and filter its games, or list the games that pass the filters and keep those that reach the position.
+ * Comparing the two shows whether the planner's choice is still right.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DatabaseFilterBenchmark {
+    @Param({BenchmarkDatabases.FIXTURES, "10000", "100000"})
+    public String database;
+
+    @Param({"1", "8", "16", "30"})
+    public int depth;
+
+    /**
+     * "black": games of one player (the synthetic players are named player0 ... player499).
+     * "years": games from a five-year range.
+     */
+    @Param({"black", "years"})
+    public String filter;
+
+    private DatabaseIndex index;
+    private BitPosition[] positions;
+    private String[] filters;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        index = BenchmarkDatabases.reload(BenchmarkDatabases.files(database));
+        positions = DatabaseLookupBenchmark.positionsAt(index, depth);
+        filters = new String[DatabaseIndex.N_FIELDS];
+        Arrays.fill(filters, "");
+        if (filter.equals("black")) {
+            filters[DatabaseIndex.BLACK] = index.text(0, DatabaseIndex.BLACK);
+        } else {
+            filters[DatabaseIndex.YEAR] = "1995..1999";
+        }
+    }
+
+    private int next() {
+        next = (next + 1) % positions.length;
+        return next;
+    }
+
+    @Benchmark
+    public TIntArrayList positionFirst() {
+        final BitPosition position = positions[next()];
+        final PrefixFilter prefixFilter = index.filter(filters);
+        final PositionMatches found = index.positions.find(position);
+        final TIntArrayList games = new TIntArrayList();
+        for (int i = 0; i < found.size(); i++) {
+            if (prefixFilter.matches(found.index.get(i))) {
+                games.add(found.index.get(i));
+            }
+        }
+        return games;
+    }
+
+    @Benchmark
+    public TIntArrayList filtersFirst() {
+        final BitPosition position = positions[next()];
+        final int[] candidates = index.filter(filters).matchingGames();
+        final TIntArrayList games = new TIntArrayList();
+        for (int game : candidates) {
+            if (index.positions.reflection(position, game) >= 0) {
+                games.add(game);
+            }
+        }
+        return games;
+    }
+}
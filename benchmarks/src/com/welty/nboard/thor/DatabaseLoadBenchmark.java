@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+package com.welty.nboard.thor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to load a database: parsing and indexing game files as reloadGames does, and reading a database directory
+ * whose cache is up to date.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DatabaseLoadBenchmark {
+    @Param({BenchmarkDatabases.FIXTURES, "10000", "100000"})
+    public String database;
+
+    private List<String> files;
+    private File directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        files = BenchmarkDatabases.files(database);
+        directory = new File(files.get(0)).getParentFile();
+        // write the cache for loadFromCache
+        loadFromCache();
+    }
+
+    @Benchmark
+    public DatabaseIndex reloadGames() {
+        return BenchmarkDatabases.reload(files);
+    }
+
+    @Benchmark
+    public DatabaseIndex loadFromCache() throws IOException {
+        return DatabaseCache.load(directory, new ErrorDisplayer() {
+            @Override public void notify(String operation, String error) {
+                throw new IllegalStateException("Error " + operation + ": " + error);
+            }
+        }, DatabaseWatcher.NO_PROGRESS);
+    }
+}
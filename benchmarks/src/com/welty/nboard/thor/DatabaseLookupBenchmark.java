@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+package com.welty.nboard.thor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of looking up a position and summarizing the moves played from it, for positions at a given depth
+ * (number of discs played) taken from games in the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DatabaseLookupBenchmark {
+    private static final int N_POSITIONS = 256;
+
+    @Param({BenchmarkDatabases.FIXTURES, "10000", "100000"})
+    public String database;
+
+    @Param({"1", "8", "16", "30"})
+    public int depth;
+
+    private DatabaseIndex index;
+    private BitPosition[] positions;
+    private PositionMatches[] matches;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        index = BenchmarkDatabases.reload(BenchmarkDatabases.files(database));
+        positions = positionsAt(index, depth);
+        matches = new PositionMatches[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            matches[i] = index.positions.find(positions[i]);
+        }
+    }
+
+    /**
+     * @return positions reached after depth moves in randomly chosen games of the database
+     */
+    static BitPosition[] positionsAt(DatabaseIndex index, int depth) {
+        final GameStore games = index.games;
+        final Random random = new Random(depth);
+        final BitPosition[] positions = new BitPosition[N_POSITIONS];
+        for (int i = 0; i < positions.length; ) {
+            final int game = random.nextInt(games.nGames());
+            if (games.isRegular(game) && games.nMoves(game) >= depth) {
+                final BitPosition position = BitPosition.start();
+                for (int m = 0; m < depth; m++) {
+                    position.play(games.move(game, m));
+                }
+                positions[i++] = position;
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * @return index of the position to use in this invocation; the benchmark cycles through all of them
+     */
+    private int next() {
+        next = (next + 1) % positions.length;
+        return next;
+    }
+
+    @Benchmark
+    public PositionMatches findMatchingPositions() {
+        return index.positions.find(positions[next()]);
+    }
+
+    @Benchmark
+    public MoveSummary summarize() {
+        final int i = next();
+        return index.summarize(positions[i], matches[i].index, matches[i].iReflections);
+    }
+
+    @Benchmark
+    public MoveSummary lookUpPosition() {
+        final BitPosition position = positions[next()];
+        final MoveSummary summary = index.openings.summarize(position);
+        if (summary != null) {
+            return summary;
+        }
+        final PositionMatches found = index.positions.find(position);
+        return index.summarize(position, found.index, found.iReflections);
+    }
+}
@@ -18,13 +18,12 @@ package com.welty.nboard.nboard;
 import com.welty.nboard.gui.Grid;
 import com.welty.nboard.gui.GridColumn;
 import com.welty.nboard.gui.GridTableModel;
-import com.welty.othello.thor.GgfGameText;
+import com.welty.nboard.thor.GgfIndex;
 import com.welty.othello.thor.GuiProgressTracker;
-import com.welty.othello.thor.IndeterminateProgressTracker;
 
 import javax.swing.*;
 import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
 
 /**
  * Allows the user to select a game from a file.
@@ -57,14 +56,19 @@ class GameSelectionGrid extends Grid {
         return ((GameSelectionTableModel) super.getTableModel());
     }
 
-    void Load(final File file) {
-        getTableModel().Load(file, new GuiProgressTracker(" games loaded"));
+    /**
+     * Index the games in a file for display in the grid
+     */
+    static GgfIndex index(File file) throws IOException {
+        return GgfIndex.of(file, new GuiProgressTracker(" games loaded"));
     }
 
-    private static final int[] gameTextFieldFromColumn = {0, 1, 2, 4, 6};
+    void Load(GgfIndex index) {
+        getTableModel().Load(index);
+    }
 
     static class GameSelectionTableModel extends GridTableModel {
-        private ArrayList<GgfGameText> m_gts = new ArrayList<>();
+        private GgfIndex index;
         private final ReversiWindow reversiWindow;
 
         public GameSelectionTableModel(ReversiWindow reversiWindow) {
@@ -73,11 +77,11 @@ class GameSelectionGrid extends Grid {
         }
 
         public int getRowCount() {
-            return m_gts.size();
+            return index == null ? 0 : index.nGames();
         }
 
         public Object getValueAt(int item, int field) {
-            return m_gts.get(item).GetText(gameTextFieldFromColumn[field]);
+            return index.field(item, field);
         }
 
         /**
@@ -91,18 +95,23 @@ class GameSelectionGrid extends Grid {
          */
         public void selectGame(int modelRow) {
             if (modelRow < getRowCount() && modelRow >= 0) {
-                reversiWindow.reversiData.setGameText(m_gts.get(modelRow).m_text);
-                reversiWindow.BringToTop();
+                try {
+                    reversiWindow.reversiData.setGameText(index.text(modelRow));
+                    reversiWindow.BringToTop();
+                } catch (IOException e) {
+                    JOptionPane.showMessageDialog(null, "Can't read game from " + index.getFile() + ": " + e
+                            , "Error reading file", JOptionPane.ERROR_MESSAGE);
+                }
             }
         }
 
         /**
-         * Load a file into the grid. The filename is given by fn.
+         * Display the games in an index.
          * <p/>
-         * \post Pops up a message box if some games appear invalid.
+         * Only the summary fields are held in memory; a game's text is read from the file when it is selected.
          */
-        void Load(final File fn, IndeterminateProgressTracker tracker) {
-            m_gts = GgfGameText.Load(fn, tracker);
+        void Load(GgfIndex index) {
+            this.index = index;
             fireTableDataChanged();
             reversiWindow.repaint();
         }
@@ -15,8 +15,9 @@
 
 package com.welty.nboard.nboard;
 
+import com.welty.nboard.thor.GgfIndex;
+
 import javax.swing.*;
-import java.io.File;
 
 /**
  * Window that displays a bunch of games for the user to choose from.
@@ -40,11 +41,11 @@ class GameSelectionWindow extends JFrame {
     }
 
     /**
-     * Load all games from a file and display them in the grid
+     * Display the games of an indexed file in the grid
      */
-    void LoadAndShow(final File file) {
-        m_pgsg.Load(file);
-        setTitle(file.getName() + " (" + m_pgsg.getTableModel().getRowCount() + " games)");
+    void LoadAndShow(final GgfIndex index) {
+        m_pgsg.Load(index);
+        setTitle(index.getFile().getName() + " (" + m_pgsg.getTableModel().getRowCount() + " games)");
         // the unusual pack/repaint/pack combo seems to get it right even if we change from no scrollbars to scrollbars.
         pack();
         repaint();
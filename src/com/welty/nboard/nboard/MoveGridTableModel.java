@@ -18,9 +18,9 @@ package com.welty.nboard.nboard;
 import com.orbanova.common.misc.Require;
 import com.welty.nboard.gui.GridTableModel;
 import com.welty.nboard.thor.DatabaseTableModel;
+import com.welty.nboard.thor.MoveSummary;
 import com.welty.othello.core.CMove;
 import com.welty.othello.gdk.OsMove;
-import com.welty.othello.thor.ThorSummaryData;
 import gnu.trove.list.array.TIntArrayList;
 
 import javax.swing.event.TableModelEvent;
@@ -126,7 +126,7 @@ class MoveGridTableModel extends GridTableModel implements TableModelListener {
      * @param field, from 0 to 1.
      */
     String OutputSummaryText(int sq, int field) {
-        ThorSummaryData it = pdd.summary.get(sq);
+        MoveSummary.Data it = pdd.summary.get(sq);
         if (it == null) {
             return "";
         }
@@ -32,10 +32,10 @@ import com.welty.nboard.nboard.transcript.EnterTranscriptWindow;
 import com.welty.nboard.thor.DatabaseLoader;
 import com.welty.nboard.thor.DatabaseTableModel;
 import com.welty.nboard.thor.DatabaseUiPack;
+import com.welty.nboard.thor.GgfIndex;
 import com.welty.novello.core.Board;
 import com.welty.novello.external.api.NBoardState;
 import com.welty.novello.external.api.PingPong;
-import com.welty.othello.c.CReader;
 import com.welty.othello.c.CWriter;
 import com.welty.othello.core.CMove;
 import com.orbanova.common.misc.OperatingSystem;
@@ -69,6 +69,7 @@ import static com.welty.nboard.gui.MenuItemBuilder.menuItem;
 public class ReversiWindow implements OptionSource, EngineTalker, ReversiWindowEngine.Listener {
     private final JFrame frame;
     private final DatabaseLoader databaseLoader;
+    private final DatabaseTableModel databaseTableModel;
     private final NodeCountPanel nodeCountPanel;
     // Pointer to application data. Needs to be listed early because constructors for some members make use of it.
     public final ReversiData reversiData;
@@ -129,7 +130,7 @@ public class ReversiWindow implements OptionSource, EngineTalker, ReversiWindowE
 
         gameSelectionWindow = new GameSelectionWindow(this);
         final DatabaseUiPack dbPack = new DatabaseUiPack(this, reversiData);
-        DatabaseTableModel databaseTableModel = dbPack.tableModel;
+        databaseTableModel = dbPack.tableModel;
         databaseLoader = dbPack.loader;
 
         reversiData.addListener(new SignalListener<OsMoveListItem>() {
@@ -266,6 +267,26 @@ public class ReversiWindow implements OptionSource, EngineTalker, ReversiWindowE
                 databaseLoader.loadDirectory();
             }
         }));
+        thorMenu.add(menuItem("&Open game store...").build(new ActionListener() {
+            @Override public void actionPerformed(ActionEvent e) {
+                databaseLoader.openGameStore();
+            }
+        }));
+        thorMenu.add(menuItem("&Save game store...").build(new ActionListener() {
+            @Override public void actionPerformed(ActionEvent e) {
+                databaseLoader.saveGameStore();
+            }
+        }));
+        thorMenu.add(menuItem("Save opening &report...").build(new ActionListener() {
+            @Override public void actionPerformed(ActionEvent e) {
+                databaseLoader.saveOpeningReport(databaseTableModel);
+            }
+        }));
+        thorMenu.add(menuItem("&Export displayed games...").build(new ActionListener() {
+            @Override public void actionPerformed(ActionEvent e) {
+                databaseLoader.exportDisplayedGames(databaseTableModel);
+            }
+        }));
         return thorMenu;
     }
 
@@ -700,15 +721,16 @@ public class ReversiWindow implements OptionSource, EngineTalker, ReversiWindowE
      */
     void OpenFile(final File file) {
         try {
-            CReader is = new CReader(file);
-            COsGame game = new COsGame(is);
-            // check if this file has multiple games
-            if (is.ignoreTo('(')) {
-                gameSelectionWindow.LoadAndShow(file);
+            // a single scan finds the games; only the one that is displayed is parsed in full.
+            final GgfIndex index = GameSelectionGrid.index(file);
+            if (index.nGames() > 1) {
+                gameSelectionWindow.LoadAndShow(index);
+            } else if (index.nGames() == 1) {
+                reversiData.setGameText(index.text(0));
             } else {
-                reversiData.setGame(game, true);
+                warn("Unable to load game from file '" + file + "'", "The file contains no games");
             }
-        } catch (FileNotFoundException e) {
+        } catch (IOException | IllegalArgumentException e) {
             warn("Unable to load game from file '" + file + "'", e.toString());
         }
     }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+/**
+ * Static helpers for 8x8 boards stored as one bit per square.
+ * <p/>
+ * Square numbers are row*8 + col, with row 0 being the row containing A1 and col 0 being the A column,
+ * so that square sq is stored in bit (1L << sq).
+ */
+final class BitBoards {
+    /**
+     * Value used in move arrays for a square that is not on the board, e.g. a pass
+     */
+    static final int NO_SQUARE = 64;
+
+    static final long START_BLACK = bit(3, 4) | bit(4, 3);
+    static final long START_WHITE = bit(3, 3) | bit(4, 4);
+
+    private static final int[] dRows = {-1, -1, -1, 0, 0, 1, 1, 1};
+    private static final int[] dCols = {-1, 0, 1, -1, 1, -1, 0, 1};
+
+    private BitBoards() {
+    }
+
+    static long bit(int row, int col) {
+        return 1L << square(row, col);
+    }
+
+    static int square(int row, int col) {
+        return row * 8 + col;
+    }
+
+    /**
+     * @return the name of the square, for example "f5"
+     */
+    static String squareName(int sq) {
+        return "" + (char) ('a' + (sq & 7)) + (char) ('1' + (sq >> 3));
+    }
+
+    /**
+     * Calculate the discs flipped by a move
+     *
+     * @param mover discs belonging to the player making the move
+     * @param enemy discs belonging to the opponent
+     * @param sq    square of the move
+     * @return the discs that would be flipped by the move; 0 if the move is not legal.
+     */
+    static long flips(long mover, long enemy, int sq) {
+        if (((mover | enemy) & (1L << sq)) != 0) {
+            return 0;
+        }
+        final int row = sq >> 3;
+        final int col = sq & 7;
+        long flips = 0;
+        for (int d = 0; d < 8; d++) {
+            long line = 0;
+            int r = row + dRows[d];
+            int c = col + dCols[d];
+            while (r >= 0 && r < 8 && c >= 0 && c < 8) {
+                final long bit = bit(r, c);
+                if ((enemy & bit) != 0) {
+                    line |= bit;
+                } else {
+                    if ((mover & bit) != 0) {
+                        flips |= line;
+                    }
+                    break;
+                }
+                r += dRows[d];
+                c += dCols[d];
+            }
+        }
+        return flips;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.welty.othello.gdk.COsBoard;
+
+/**
+ * A mutable 8x8 position (discs and side to move) that keeps its Zobrist hash up to date for all 8 reflections.
+ * <p/>
+ * The canonical hash is the smallest of the 8 hashes, so all reflections of a position have the same canonical hash.
+ * The canonical reflection is the reflection that produced it: reflecting the position by its canonical
+ * reflection gives the canonical board.
+ */
+final class BitPosition {
+    private long black;
+    private long white;
+    private boolean blackToMove;
+    private final long[] hashes = new long[Symmetry.N_REFLECTIONS];
+
+    BitPosition(long black, long white, boolean blackToMove) {
+        this.black = black;
+        this.white = white;
+        this.blackToMove = blackToMove;
+        for (int r = 0; r < Symmetry.N_REFLECTIONS; r++) {
+            hashes[r] = hash(r);
+        }
+    }
+
+    /**
+     * @return the standard start position, black to move
+     */
+    static BitPosition start() {
+        return new BitPosition(BitBoards.START_BLACK, BitBoards.START_WHITE, true);
+    }
+
+    static BitPosition of(COsBoard board) {
+        long black = 0;
+        long white = 0;
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                final char piece = board.getPiece(row, col);
+                if (piece == COsBoard.BLACK) {
+                    black |= BitBoards.bit(row, col);
+                } else if (piece == COsBoard.WHITE) {
+                    white |= BitBoards.bit(row, col);
+                }
+            }
+        }
+        return new BitPosition(black, white, board.isBlackMove());
+    }
+
+    /**
+     * @return the discs as 64 characters, a1 b1 ... h8: '*' for black, 'O' for white and '-' for empty
+     */
+    String boardText() {
+        final StringBuilder sb = new StringBuilder(64);
+        for (int sq = 0; sq < 64; sq++) {
+            sb.append((black >>> sq & 1) != 0 ? COsBoard.BLACK : (white >>> sq & 1) != 0 ? COsBoard.WHITE : '-');
+        }
+        return sb.toString();
+    }
+
+    BitPosition copy() {
+        return new BitPosition(black, white, blackToMove);
+    }
+
+    long black() {
+        return black;
+    }
+
+    long white() {
+        return white;
+    }
+
+    boolean isBlackToMove() {
+        return blackToMove;
+    }
+
+    int nEmpty() {
+        return 64 - Long.bitCount(black | white);
+    }
+
+    /**
+     * Play a move, passing first if the side to move has no legal move at sq.
+     * <p/>
+     * Database games don't record passes, so this is how a stored move list is replayed.
+     *
+     * @param sq square of the move
+     * @return true if the move was legal for one of the players. If false, the position is unchanged.
+     */
+    boolean play(int sq) {
+        long flips = BitBoards.flips(mover(), enemy(), sq);
+        if (flips == 0) {
+            pass();
+            flips = BitBoards.flips(mover(), enemy(), sq);
+            if (flips == 0) {
+                pass();
+                return false;
+            }
+        }
+        final int moverColor = blackToMove ? Zobrist.BLACK : Zobrist.WHITE;
+        final int enemyColor = Zobrist.BLACK + Zobrist.WHITE - moverColor;
+        for (int r = 0; r < Symmetry.N_REFLECTIONS; r++) {
+            long hash = hashes[r] ^ Zobrist.key(r, moverColor, sq);
+            for (long f = flips; f != 0; f &= f - 1) {
+                final int flipped = Long.numberOfTrailingZeros(f);
+                hash ^= Zobrist.key(r, moverColor, flipped) ^ Zobrist.key(r, enemyColor, flipped);
+            }
+            hashes[r] = hash;
+        }
+        if (blackToMove) {
+            black |= flips | (1L << sq);
+            white &= ~flips;
+        } else {
+            white |= flips | (1L << sq);
+            black &= ~flips;
+        }
+        pass();
+        return true;
+    }
+
+    /**
+     * @return true if the side to move has a legal move
+     */
+    boolean hasLegalMove() {
+        for (long empty = ~(black | white); empty != 0; empty &= empty - 1) {
+            if (BitBoards.flips(mover(), enemy(), Long.numberOfTrailingZeros(empty)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Change the side to move without changing the discs
+     */
+    void pass() {
+        blackToMove = !blackToMove;
+        for (int r = 0; r < Symmetry.N_REFLECTIONS; r++) {
+            hashes[r] ^= Zobrist.WHITE_TO_MOVE;
+        }
+    }
+
+    /**
+     * @return the hash of the position after it has been reflected by iReflection
+     */
+    long hash(int iReflection) {
+        long hash = blackToMove ? 0 : Zobrist.WHITE_TO_MOVE;
+        for (long b = black; b != 0; b &= b - 1) {
+            hash ^= Zobrist.key(iReflection, Zobrist.BLACK, Long.numberOfTrailingZeros(b));
+        }
+        for (long w = white; w != 0; w &= w - 1) {
+            hash ^= Zobrist.key(iReflection, Zobrist.WHITE, Long.numberOfTrailingZeros(w));
+        }
+        return hash;
+    }
+
+    long canonicalHash() {
+        return hashes[canonicalReflection()];
+    }
+
+    int canonicalReflection() {
+        int best = 0;
+        for (int r = 1; r < Symmetry.N_REFLECTIONS; r++) {
+            if (hashes[r] < hashes[best]) {
+                best = r;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return a bitmask with bit r set if reflecting the position by r leaves it unchanged. Bit 0 is always set.
+     */
+    int symmetries() {
+        int symmetries = 0;
+        for (int r = 0; r < Symmetry.N_REFLECTIONS; r++) {
+            if (hashes[r] == hashes[Symmetry.IDENTITY]) {
+                symmetries |= 1 << r;
+            }
+        }
+        return symmetries;
+    }
+
+    private long mover() {
+        return blackToMove ? black : white;
+    }
+
+    private long enemy() {
+        return blackToMove ? white : black;
+    }
+
+    @Override public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        final BitPosition that = (BitPosition) o;
+        return black == that.black && white == that.white && blackToMove == that.blackToMove;
+    }
+
+    @Override public int hashCode() {
+        return (int) (hashes[0] ^ (hashes[0] >>> 32));
+    }
+}
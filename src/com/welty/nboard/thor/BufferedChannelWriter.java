@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+package com.welty.nboard.thor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes text and little-endian binary data to a channel through a fixed-size buffer.
+ * <p/>
+ * Nothing reaches the channel until the buffer is full or flush() is called.
+ */
+final class BufferedChannelWriter {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    BufferedChannelWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Write text containing only ASCII characters
+     */
+    void ascii(CharSequence text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            ensureRemaining(1);
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    void ascii(char c) throws IOException {
+        ensureRemaining(1);
+        buffer.put((byte) c);
+    }
+
+    /**
+     * Write text in UTF-8. ASCII characters, which are nearly all of them in game files, skip the encoder.
+     */
+    void utf8(CharSequence text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                ensureRemaining(1);
+                buffer.put((byte) c);
+            } else {
+                final int end = Character.isHighSurrogate(c) && i + 1 < text.length() ? i + 2 : i + 1;
+                bytes(text.subSequence(i, end).toString().getBytes(StandardCharsets.UTF_8));
+                i = end - 1;
+            }
+        }
+    }
+
+    void bytes(byte[] bytes) throws IOException {
+        for (byte b : bytes) {
+            ensureRemaining(1);
+            buffer.put(b);
+        }
+    }
+
+    void putByte(int value) throws IOException {
+        ensureRemaining(1);
+        buffer.put((byte) value);
+    }
+
+    void putShort(int value) throws IOException {
+        ensureRemaining(2);
+        buffer.putShort((short) value);
+    }
+
+    void putInt(int value) throws IOException {
+        ensureRemaining(4);
+        buffer.putInt(value);
+    }
+
+    private void ensureRemaining(int n) throws IOException {
+        if (buffer.remaining() < n) {
+            flush();
+        }
+    }
+
+    /**
+     * Write everything buffered so far to the channel
+     */
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,676 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.orbanova.common.misc.Logger;
+import com.welty.othello.thor.DatabaseData;
+import com.welty.othello.thor.IndeterminateProgressTracker;
+import gnu.trove.list.array.TIntArrayList;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cache of the games in a database directory, stored in the directory itself.
+ * <p/>
+ * The cache is a GameStoreFile holding the games plus a manifest listing the files they came from, with their
+ * size and modification time. The games are grouped into segments, one for each Thor games file and each GGF
+ * file. Thor games refer to the players and tournaments by number, so the segment of a Thor games file also lists
+ * the player and tournament files, and changing those reloads every Thor segment.
+ * When the directory is loaded again, segments whose files are unchanged are copied from the cache and
+ * only the others are parsed. If nothing changed, the cached store is used as is. Otherwise the games are
+ * streamed into a new store file as they are loaded, so the database is never built on the heap.
+ * <p/>
+ * Segments keep their order in the cache and segments for new files are appended, so adding a file
+ * doesn't renumber the games that were already loaded.
+ * <p/>
+ * A game that is in several files is kept only in the first segment containing it, as in
+ * DatabaseLoader.reloadGames(). The cache stores the segments each game was found in (see GameSources), so
+ * when a segment is reloaded from the cache it gets back the games that were stored with an earlier segment,
+ * even if that segment's file has since been removed.
+ * <p/>
+ * Loads of the same directory are serialized, both within this process and, through a lock file in the
+ * directory, between processes, so that one load doesn't replace or delete the store another is writing.
+ */
+final class DatabaseCache {
+    private static final Logger log = Logger.logger(DatabaseCache.class);
+
+    static final String MANIFEST_FILE_NAME = "nboard-games.manifest";
+    private static final String LOCK_FILE_NAME = "nboard-games.lock";
+    private static final String STORE_FILE_PREFIX = "nboard-games-";
+    private static final String STORE_FILE_SUFFIX = ".nbg";
+    private static final int MANIFEST_MAGIC = 0x4e42434d; // "NBCM"
+    private static final int MANIFEST_VERSION = 1;
+
+    /**
+     * For each canonical directory, the object loads of the directory in this process synchronize on.
+     * File locks are held by the whole process, so they don't keep its own threads apart.
+     */
+    private static final ConcurrentMap<File, Object> directoryLocks = new ConcurrentHashMap<>();
+
+    private DatabaseCache() {
+    }
+
+    /**
+     * Load the games in a directory, using and updating the cache.
+     *
+     * @param errorDisplayer location to display errors in individual game files
+     * @param tracker        location to display progress tracking while files are parsed
+     * @throws IOException if the directory can't be read
+     */
+    static DatabaseIndex load(File directory, ErrorDisplayer errorDisplayer, IndeterminateProgressTracker tracker) throws IOException {
+        final File key = directory.getCanonicalFile();
+        directoryLocks.putIfAbsent(key, new Object());
+        synchronized (directoryLocks.get(key)) {
+            try (DirectoryLock ignored = DirectoryLock.acquire(directory)) {
+                // the manifest is read only now, so that it includes the changes of any load that held the lock
+                return loadLocked(directory, errorDisplayer, tracker);
+            }
+        }
+    }
+
+    private static DatabaseIndex loadLocked(File directory, ErrorDisplayer errorDisplayer, IndeterminateProgressTracker tracker) throws IOException {
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Can't read directory " + directory);
+        }
+        Arrays.sort(files);
+        // Thor games files come before GGF files unless the cache has them in another order
+        final List<FileStamp> thorNameFiles = new ArrayList<>();
+        final List<FileStamp> gameFiles = new ArrayList<>();
+        final List<FileStamp> ggfFiles = new ArrayList<>();
+        for (File file : files) {
+            final String name = file.getName().toLowerCase();
+            if (DatabaseData.isThorGamesFile(name)) {
+                gameFiles.add(FileStamp.of(file));
+            } else if (isThorFile(name)) {
+                thorNameFiles.add(FileStamp.of(file));
+            } else if (isGgfFile(name)) {
+                ggfFiles.add(FileStamp.of(file));
+            }
+        }
+        gameFiles.addAll(ggfFiles);
+
+        final Manifest cached = Manifest.read(directory);
+        deleteStaleStores(directory, cached == null ? null : cached.storeFileName);
+        final DatabaseIndex cachedIndex = cached == null ? null : cached.readStore(directory);
+        if (cached != null) {
+            Collections.sort(gameFiles, cached.fileOrder());
+        }
+        final List<Segment> segments = new ArrayList<>();
+        for (FileStamp gameFile : gameFiles) {
+            final List<FileStamp> segmentFiles = new ArrayList<>();
+            segmentFiles.add(gameFile);
+            if (DatabaseData.isThorGamesFile(gameFile.name)) {
+                segmentFiles.addAll(thorNameFiles);
+            }
+            segments.add(new Segment(segmentFiles, 0));
+        }
+        if (cachedIndex != null && cached.matches(segments)) {
+            log.info("Database loaded from cache " + cached.storeFileName);
+            return cachedIndex;
+        }
+
+        // for each segment, its games in the cache, or null if it must be parsed
+        final List<TIntArrayList> cachedGames = new ArrayList<>();
+        final TIntArrayList[] cachedGamesBySegment = cachedIndex == null ? null : cached.gamesBySegment(cachedIndex);
+        for (Segment segment : segments) {
+            final int iCached = cachedIndex == null ? -1 : cached.indexOf(segment.files);
+            cachedGames.add(iCached < 0 ? null : cachedGamesBySegment[iCached]);
+        }
+
+        // parse the game files that aren't cached, all at once so that they are parsed in parallel
+        final List<String> toParse = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            if (cachedGames.get(i) == null) {
+                toParse.add(new File(directory, segments.get(i).files.get(0).name).getPath());
+            }
+        }
+        final List<DatabaseLoader.LoadedFile> parsed = DatabaseLoader.loadFiles(toParse, tracker, true);
+        DatabaseData thorNames = null;
+
+        // the games are written to the new store as they are appended, rather than being built on the heap
+        File storeFile = newStoreFile(directory);
+        boolean cacheWritten = true;
+        GameStoreFile.Writer writer;
+        try {
+            writer = new GameStoreFile.Writer(storeFile, true, true);
+        } catch (IOException e) {
+            log.warn("Unable to write database cache to " + directory + ": " + e);
+            storeFile = File.createTempFile(STORE_FILE_PREFIX, STORE_FILE_SUFFIX);
+            cacheWritten = false;
+            writer = new GameStoreFile.Writer(storeFile, true, true);
+        }
+        final List<Segment> loaded = new ArrayList<>();
+        try {
+            final Appender appender = new Appender(writer);
+            int iParsed = 0;
+            int nParsedDuplicates = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                final Segment segment = segments.get(i);
+                final int iSource = loaded.size();
+                final int firstGame = appender.nGames();
+                final int nDuplicates = appender.nDuplicates();
+                if (cachedGames.get(i) != null) {
+                    appender.add(cachedIndex, cachedGames.get(i), iSource);
+                } else {
+                    final DatabaseLoader.LoadedFile loadedFile = parsed.get(iParsed++);
+                    if (loadedFile.error != null) {
+                        errorDisplayer.notify("loading games file", loadedFile.error);
+                        // leave it out of the manifest so that it is tried again next time
+                        continue;
+                    }
+                    if (loadedFile.thorGames != null) {
+                        if (thorNames == null) {
+                            thorNames = loadThorNames(directory, thorNameFiles);
+                        }
+                        thorNames.clearGames();
+                        thorNames.setThorGames(new ArrayList<>(loadedFile.thorGames));
+                        appender.add(thorNames, null, iSource);
+                    } else {
+                        final DatabaseData databaseData = new DatabaseData();
+                        databaseData.addGgfGames(loadedFile.ggfGameTexts);
+                        appender.add(databaseData, ggfTexts(loadedFile, databaseData), iSource);
+                    }
+                    nParsedDuplicates += appender.nDuplicates() - nDuplicates;
+                }
+                loaded.add(new Segment(segment.files, appender.nGames() - firstGame));
+            }
+            if (nParsedDuplicates > 0) {
+                errorDisplayer.notify("loading database", "Games left out because they are already in another file: " + nParsedDuplicates);
+            }
+            appender.finish();
+        } finally {
+            writer.close();
+        }
+
+        if (!cacheWritten) {
+            try {
+                return GameStoreFile.read(storeFile);
+            } finally {
+                if (!storeFile.delete()) {
+                    storeFile.deleteOnExit();
+                }
+            }
+        }
+        final File manifestFile = new File(directory, MANIFEST_FILE_NAME);
+        try {
+            Files.deleteIfExists(manifestFile.toPath());
+            new Manifest(storeFile.getName(), loaded).write(manifestFile);
+        } catch (IOException e) {
+            log.warn("Unable to write database cache manifest to " + directory + ": " + e);
+            try {
+                return GameStoreFile.read(storeFile);
+            } finally {
+                deleteStore(directory, storeFile.getName());
+            }
+        }
+        deleteStaleStores(directory, storeFile.getName());
+        return GameStoreFile.read(storeFile);
+    }
+
+    /**
+     * @return the text of each game of the DatabaseData parsed from the file, or null if the games can't be
+     * matched up with their text.
+     */
+    private static @Nullable List<String> ggfTexts(DatabaseLoader.LoadedFile loadedFile, DatabaseData databaseData) {
+        final List<GgfReader.GameText> locations = loadedFile.ggfLocations;
+        if (locations == null || locations.size() != databaseData.NGames()) {
+            return null;
+        }
+        final List<String> texts = new ArrayList<>(locations.size());
+        for (GgfReader.GameText location : locations) {
+            texts.add(location.text);
+        }
+        return texts;
+    }
+
+    /**
+     * @param name lower-case file name
+     * @return true if the file is part of the Thor database: a games, player or tournament file
+     */
+    private static boolean isThorFile(String name) {
+        return DatabaseData.isThorGamesFile(name) || name.endsWith(".jou") || name.endsWith(".trn");
+    }
+
+    private static boolean isGgfFile(String name) {
+        return name.endsWith(".ggf");
+    }
+
+    /**
+     * @return true if games are loaded from the file, so that changing it changes the database
+     */
+    static boolean isDatabaseFile(String name) {
+        final String lowerCase = name.toLowerCase();
+        return isThorFile(lowerCase) || isGgfFile(lowerCase);
+    }
+
+    /**
+     * Load the Thor players and tournaments of the directory, to give names to Thor games added with setThorGames().
+     * <p/>
+     * DatabaseData only reads the player and tournament files as part of loading a whole directory, which would
+     * also parse the games files. So the player and tournament files, which are small, are copied to a temporary
+     * directory and loaded from there.
+     */
+    private static DatabaseData loadThorNames(File directory, List<FileStamp> thorNameFiles) throws IOException {
+        final DatabaseData databaseData = new DatabaseData();
+        if (thorNameFiles.isEmpty()) {
+            return databaseData;
+        }
+        final Path temp = Files.createTempDirectory("nboard-thor");
+        try {
+            for (FileStamp thorFile : thorNameFiles) {
+                Files.copy(new File(directory, thorFile.name).toPath(), temp.resolve(thorFile.name));
+            }
+            databaseData.loadFromThorDirectory(temp.toFile());
+        } finally {
+            for (FileStamp thorFile : thorNameFiles) {
+                Files.deleteIfExists(temp.resolve(thorFile.name));
+            }
+            Files.deleteIfExists(temp);
+        }
+        return databaseData;
+    }
+
+    /**
+     * @return a name for a new store file in the directory.
+     * <p/>
+     * A new store file name is used each time because the old store may still be memory-mapped, and a mapped
+     * file can't be overwritten on all platforms.
+     */
+    private static File newStoreFile(File directory) {
+        long stamp = System.currentTimeMillis();
+        File storeFile;
+        do {
+            storeFile = new File(directory, STORE_FILE_PREFIX + stamp++ + STORE_FILE_SUFFIX);
+        } while (storeFile.exists());
+        return storeFile;
+    }
+
+    /**
+     * Delete the store files in the directory other than the current one.
+     * <p/>
+     * Deleting a store fails on some platforms while it is memory-mapped, for instance by the GameDatabase
+     * that is still displaying it, so stores that couldn't be deleted before are retried on each load.
+     *
+     * @param currentStoreFileName name of the store the manifest refers to, or null if there is none
+     */
+    private static void deleteStaleStores(File directory, @Nullable String currentStoreFileName) {
+        final String[] names = directory.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (name.startsWith(STORE_FILE_PREFIX) && name.endsWith(STORE_FILE_SUFFIX) && !name.equals(currentStoreFileName)) {
+                deleteStore(directory, name);
+            }
+        }
+    }
+
+    private static void deleteStore(File directory, String storeFileName) {
+        final File file = new File(directory, storeFileName);
+        if (!file.delete()) {
+            log.warn("Unable to delete old database cache " + file);
+        }
+    }
+
+    /**
+     * Lock on the cache files of a directory, held through a lock file in the directory
+     */
+    private static final class DirectoryLock implements Closeable {
+        private final @Nullable FileChannel channel;
+
+        private DirectoryLock(@Nullable FileChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Wait until no other process is loading the directory, then lock it.
+         * <p/>
+         * If the lock file can't be written, the directory isn't locked; its cache can't be written either.
+         */
+        static DirectoryLock acquire(File directory) {
+            final File file = new File(directory, LOCK_FILE_NAME);
+            FileChannel channel = null;
+            try {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                channel.lock();
+                return new DirectoryLock(channel);
+            } catch (IOException e) {
+                log.info("Unable to lock database cache " + file + ": " + e);
+                if (channel != null) {
+                    try {
+                        channel.close();
+                    } catch (IOException e1) {
+                        // already failed
+                    }
+                }
+                return new DirectoryLock(null);
+            }
+        }
+
+        /**
+         * Closing the channel releases the lock
+         */
+        @Override public void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Name, size and modification time of a file in the database directory
+     */
+    static final class FileStamp {
+        final String name;
+        final long size;
+        final long lastModified;
+
+        FileStamp(String name, long size, long lastModified) {
+            this.name = name;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        static FileStamp of(File file) {
+            return new FileStamp(file.getName(), file.length(), file.lastModified());
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final FileStamp that = (FileStamp) o;
+            return size == that.size && lastModified == that.lastModified && name.equals(that.name);
+        }
+
+        @Override public int hashCode() {
+            return 31 * name.hashCode() + (int) (size ^ lastModified);
+        }
+    }
+
+    /**
+     * A group of files whose games are stored consecutively in the cache
+     */
+    private static final class Segment {
+        final List<FileStamp> files;
+        final int nGames;
+        /**
+         * Number of the first game of the segment in the store. Only meaningful for segments read from a manifest.
+         */
+        int firstGame;
+
+        Segment(List<FileStamp> files, int nGames) {
+            this.files = files;
+            this.nGames = nGames;
+        }
+    }
+
+    /**
+     * The list of segments in the cache and the name of the store file holding their games
+     */
+    private static final class Manifest {
+        final String storeFileName;
+        final List<Segment> segments;
+
+        Manifest(String storeFileName, List<Segment> segments) {
+            this.storeFileName = storeFileName;
+            this.segments = segments;
+            int firstGame = 0;
+            for (Segment segment : segments) {
+                segment.firstGame = firstGame;
+                firstGame += segment.nGames;
+            }
+        }
+
+        /**
+         * @return the manifest in the directory, or null if there is none or it can't be read.
+         */
+        static @Nullable Manifest read(File directory) {
+            final File file = new File(directory, MANIFEST_FILE_NAME);
+            if (!file.exists()) {
+                return null;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() != MANIFEST_MAGIC || in.readInt() != MANIFEST_VERSION) {
+                    return null;
+                }
+                final String storeFileName = in.readUTF();
+                final int nSegments = in.readInt();
+                final List<Segment> segments = new ArrayList<>();
+                for (int i = 0; i < nSegments; i++) {
+                    final int nFiles = in.readInt();
+                    final List<FileStamp> files = new ArrayList<>();
+                    for (int j = 0; j < nFiles; j++) {
+                        files.add(new FileStamp(in.readUTF(), in.readLong(), in.readLong()));
+                    }
+                    segments.add(new Segment(files, in.readInt()));
+                }
+                return new Manifest(storeFileName, segments);
+            } catch (IOException e) {
+                log.warn("Ignoring unreadable database cache manifest " + file + ": " + e);
+                return null;
+            }
+        }
+
+        void write(File file) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                out.writeInt(MANIFEST_MAGIC);
+                out.writeInt(MANIFEST_VERSION);
+                out.writeUTF(storeFileName);
+                out.writeInt(segments.size());
+                for (Segment segment : segments) {
+                    out.writeInt(segment.files.size());
+                    for (FileStamp stamp : segment.files) {
+                        out.writeUTF(stamp.name);
+                        out.writeLong(stamp.size);
+                        out.writeLong(stamp.lastModified);
+                    }
+                    out.writeInt(segment.nGames);
+                }
+            }
+        }
+
+        /**
+         * @return the store, or null if it can't be read or doesn't match the manifest.
+         */
+        @Nullable DatabaseIndex readStore(File directory) {
+            final File file = new File(directory, storeFileName);
+            try {
+                final DatabaseIndex index = GameStoreFile.read(file);
+                int nGames = 0;
+                for (Segment segment : segments) {
+                    nGames += segment.nGames;
+                }
+                return index.nGames() == nGames ? index : null;
+            } catch (IOException e) {
+                log.warn("Ignoring unreadable database cache " + file + ": " + e);
+                return null;
+            }
+        }
+
+        /**
+         * @return order of files by the position of their segment in the cache. Files that aren't in the cache
+         * come after the others, in the order they had.
+         */
+        Comparator<FileStamp> fileOrder() {
+            final Map<String, Integer> positions = new HashMap<>();
+            for (int i = 0; i < segments.size(); i++) {
+                for (FileStamp stamp : segments.get(i).files) {
+                    positions.put(stamp.name, i);
+                }
+            }
+            return new Comparator<FileStamp>() {
+                @Override public int compare(FileStamp a, FileStamp b) {
+                    return Integer.compare(position(a), position(b));
+                }
+
+                private int position(FileStamp stamp) {
+                    final Integer position = positions.get(stamp.name);
+                    return position == null ? Integer.MAX_VALUE : position;
+                }
+            };
+        }
+
+        /**
+         * @return index of the segment containing exactly the given files, or -1 if there is none.
+         */
+        int indexOf(List<FileStamp> files) {
+            for (int i = 0; i < segments.size(); i++) {
+                if (segments.get(i).files.equals(files)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Find the games of each segment in the store: the games stored with the segment, plus its games that
+         * were stored with an earlier segment because they were duplicates.
+         * <p/>
+         * Stores written before sources were recorded hold every game of a segment with the segment.
+         *
+         * @return the games of each segment, or null for segments whose games can't be told apart because they
+         * share the last bit of the sources with later segments.
+         */
+        TIntArrayList[] gamesBySegment(DatabaseIndex store) {
+            final TIntArrayList[] games = new TIntArrayList[segments.size()];
+            final long[] sources = store.sources();
+            for (int i = 0; i < games.length; i++) {
+                if (sources == null) {
+                    final Segment segment = segments.get(i);
+                    games[i] = new TIntArrayList();
+                    for (int game = segment.firstGame; game < segment.firstGame + segment.nGames; game++) {
+                        games[i].add(game);
+                    }
+                } else if (i < 63) {
+                    games[i] = new TIntArrayList();
+                }
+            }
+            if (sources != null) {
+                for (int game = 0; game < sources.length; game++) {
+                    for (long bits = sources[game]; bits != 0; bits &= bits - 1) {
+                        final int i = Long.numberOfTrailingZeros(bits);
+                        if (i < games.length && games[i] != null) {
+                            games[i].add(game);
+                        }
+                    }
+                }
+            }
+            return games;
+        }
+
+        /**
+         * @return true if the cache contains exactly the given segments, in order
+         */
+        boolean matches(List<Segment> wanted) {
+            if (wanted.size() != segments.size()) {
+                return false;
+            }
+            for (int i = 0; i < wanted.size(); i++) {
+                if (!wanted.get(i).files.equals(segments.get(i).files)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Concatenates games, their text columns and their GGF text from several sources into a store file, leaving
+     * out games that were already added
+     */
+    private static final class Appender {
+        private final GameStoreFile.Writer writer;
+        private final GameSources sources = new GameSources();
+        private final String[] values = new String[DatabaseIndex.N_FIELDS];
+        /**
+         * For each game, its key in sources, or null if it isn't checked for duplicates
+         */
+        private final List<String> keys = new ArrayList<>();
+        /**
+         * For each game, the bit of the source it was added from
+         */
+        private long[] firstSources = new long[1024];
+
+        Appender(GameStoreFile.Writer writer) {
+            this.writer = writer;
+        }
+
+        int nGames() {
+            return writer.nGames();
+        }
+
+        int nDuplicates() {
+            return sources.nDuplicates();
+        }
+
+        /**
+         * @param ggfTexts GGF text of each game, or null if it isn't known
+         */
+        void add(DatabaseData databaseData, @Nullable List<String> ggfTexts, int iSource) throws IOException {
+            final GameStore store = GameStore.of(databaseData, true);
+            final DictionaryColumn[] columns = DatabaseIndex.loadColumns(databaseData);
+            for (int game = 0; game < store.nGames(); game++) {
+                add(store, columns, ggfTexts == null ? "" : ggfTexts.get(game), game, iSource);
+            }
+        }
+
+        void add(DatabaseIndex index, TIntArrayList indexGames, int iSource) throws IOException {
+            final GameTexts ggfTexts = index.texts();
+            for (int i = 0; i < indexGames.size(); i++) {
+                final int game = indexGames.get(i);
+                add(index.games, index.columns, ggfTexts == null ? "" : ggfTexts.text(game), game, iSource);
+            }
+        }
+
+        private void add(GameStore store, DictionaryColumn[] columns, String ggfText, int game, int iSource) throws IOException {
+            final String key = GameSources.key(store, game, DatabaseIndex.parseResult(columns[DatabaseIndex.RESULT].text(game)));
+            if (!sources.add(key, iSource)) {
+                return;
+            }
+            final int nGames = nGames();
+            if (nGames == firstSources.length) {
+                firstSources = Arrays.copyOf(firstSources, 2 * nGames);
+            }
+            firstSources[nGames] = GameSources.bit(iSource);
+            keys.add(key);
+            for (int field = 0; field < values.length; field++) {
+                values[field] = columns[field].text(game);
+            }
+            writer.add(store, game, values, ggfText);
+        }
+
+        /**
+         * Finish the store file, recording for each game a bitmask of the sources it was added from or left out of
+         * as a duplicate
+         */
+        void finish() throws IOException {
+            final long[] gameSources = new long[nGames()];
+            for (int game = 0; game < gameSources.length; game++) {
+                gameSources[game] = sources.sources(keys.get(game)) | firstSources[game];
+            }
+            writer.finish(gameSources);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.orbanova.common.misc.Logger;
+import com.welty.othello.c.CReader;
+import com.welty.othello.gdk.COsGame;
+import com.welty.othello.thor.DatabaseData;
+import gnu.trove.list.array.TIntArrayList;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * The games displayed in the database window, with lookup structures derived from them.
+ * <p/>
+ * These are built once when the database is loaded so that lookups don't have to scan the game list.
+ * Everything the database window displays comes from here, so an index read from a GameStoreFile
+ * works without the DatabaseData that it was originally converted from.
+ */
+final class DatabaseIndex {
+    private static final Logger log = Logger.logger(DatabaseIndex.class);
+
+    /**
+     * Number of text columns displayed in the database window
+     */
+    static final int N_FIELDS = 6;
+
+    static final int BLACK = 0;
+    static final int WHITE = 1;
+    static final int YEAR = 2;
+    static final int PLACE = 3;
+    static final int RESULT = 4;
+    static final int OPENING = 5;
+
+    /**
+     * Databases converted from a DatabaseData with at least this many games are copied off the heap, if
+     * the system property nboard.offHeap is "true"
+     */
+    static final int MIN_OFF_HEAP_GAMES = 10000;
+    private static final boolean OFF_HEAP = "true".equals(System.getProperty("nboard.offHeap"));
+
+    static final DatabaseIndex EMPTY = new DatabaseIndex(new GameStore.Builder().build(), emptyColumns(), null);
+
+    final GameStore games;
+    final PositionLookup positions;
+    final OpeningTree openings;
+
+    /**
+     * The text columns of the database window (black, white, year, place, result, opening), indexed by field
+     */
+    final DictionaryColumn[] columns;
+
+    /**
+     * Result (black discs - white discs) for each id of the result column
+     */
+    private final int[] resultsById;
+
+    /**
+     * The DatabaseData the games were copied from, or null if they were read from a file or the DatabaseData
+     * has been changed since.
+     */
+    private volatile @Nullable DatabaseData source;
+
+    /**
+     * For each game, a bitmask of the files it was loaded from, or null if that isn't known.
+     * Set once, before the index is published.
+     */
+    private volatile @Nullable long[] sources;
+
+    /**
+     * The original GGF text of each game, or null if it isn't known. Set once, before the index is published.
+     */
+    private volatile @Nullable GameTexts texts;
+
+    /**
+     * For each field, the sort rank of each id of its column, or null if it hasn't been needed yet
+     */
+    private final int[][] sortRanks = new int[N_FIELDS][];
+
+    DatabaseIndex(GameStore games, DictionaryColumn[] columns, @Nullable DatabaseData source) {
+        this(games, columns, source, null);
+    }
+
+    /**
+     * @param positions position lookup for the games, or null to build one
+     */
+    DatabaseIndex(GameStore games, DictionaryColumn[] columns, @Nullable DatabaseData source
+            , @Nullable PositionLookup positions) {
+        this.games = games;
+        this.positions = positions == null ? positionLookup(games) : positions;
+        this.columns = columns;
+        this.source = source;
+        final DictionaryColumn results = columns[RESULT];
+        this.resultsById = new int[results.dictionarySize()];
+        for (int id = 0; id < resultsById.length; id++) {
+            resultsById[id] = parseResult(results.dictionaryText(id));
+        }
+        this.openings = OpeningTree.of(this, OpeningTree.MIN_GAMES);
+    }
+
+    private static PositionLookup positionLookup(GameStore games) {
+        final PositionIndex positionIndex = positionIndex(games);
+        if (positionIndex == null) {
+            log.info("Using Bloom filters for position lookup, to save memory");
+            return PositionBloomFilter.of(games);
+        }
+        return positionIndex;
+    }
+
+    /**
+     * A PositionIndex takes 12 bytes per position while it is built. If that would use more than a quarter of the
+     * heap, positions are looked up through Bloom filters instead, which take about a tenth of the memory but make
+     * lookups slower.
+     *
+     * @return the position index of the games, or null if it would take too much memory to build
+     */
+    static @Nullable PositionIndex positionIndex(GameStore games) {
+        long nPositions = 0;
+        for (int g = 0; g < games.nGames(); g++) {
+            if (games.isRegular(g)) {
+                nPositions += games.nMoves(g) + 1;
+            }
+        }
+        if (nPositions * 12 > Runtime.getRuntime().maxMemory() / 4) {
+            return null;
+        }
+        return PositionIndex.of(games);
+    }
+
+    /**
+     * Create an index of the games in a DatabaseData.
+     * <p/>
+     * If the system property nboard.offHeap is "true", large databases are streamed into a mapped temporary
+     * file so that, as with databases read from the cache, the copied moves, columns and position index don't
+     * count against the small default heap and aren't traced by the garbage collector. This is off by default
+     * because it writes a temporary file the size of the database.
+     */
+    static DatabaseIndex of(DatabaseData databaseData) {
+        if (OFF_HEAP && databaseData.NGames() >= MIN_OFF_HEAP_GAMES) {
+            try {
+                return GameStoreFile.spill(databaseData);
+            } catch (IOException e) {
+                log.warn("Unable to move games off the heap: " + e);
+            }
+        }
+        return new DatabaseIndex(GameStore.of(databaseData, false), loadColumns(databaseData), databaseData);
+    }
+
+    static DictionaryColumn[] loadColumns(DatabaseData databaseData) {
+        final int nGames = databaseData.NGames();
+        final DictionaryColumn[] columns = new DictionaryColumn[N_FIELDS];
+        for (int field = 0; field < N_FIELDS; field++) {
+            final String[] values = new String[nGames];
+            for (int i = 0; i < nGames; i++) {
+                values[i] = databaseData.GameItemText(i, field);
+            }
+            columns[field] = DictionaryColumn.of(values);
+        }
+        return columns;
+    }
+
+    private static DictionaryColumn[] emptyColumns() {
+        final DictionaryColumn[] columns = new DictionaryColumn[N_FIELDS];
+        for (int field = 0; field < N_FIELDS; field++) {
+            columns[field] = DictionaryColumn.of(new String[0]);
+        }
+        return columns;
+    }
+
+    /**
+     * @return the result as a disc differential, or 0 if the text is not a number
+     */
+    static int parseResult(String text) {
+        try {
+            return (int) Math.round(Double.parseDouble(text.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    int nGames() {
+        return games.nGames();
+    }
+
+    /**
+     * Stop reading games from the DatabaseData they were copied from, because it is about to change.
+     * <p/>
+     * Games are then rebuilt from GGF text generated from the compact store, see gameFromIndex().
+     */
+    void detachSource() {
+        source = null;
+    }
+
+    /**
+     * @param sources for each game, a bitmask of the files it was loaded from; see GameSources
+     */
+    void setSources(long[] sources) {
+        this.sources = sources;
+    }
+
+    /**
+     * @return for each game, a bitmask of the files it was loaded from, or null if that isn't known
+     */
+    @Nullable long[] sources() {
+        return sources;
+    }
+
+    /**
+     * @return bitmask of the files the game was loaded from, or 0 if that isn't known
+     */
+    long sources(int game) {
+        final long[] gameSources = sources;
+        return gameSources == null ? 0 : gameSources[game];
+    }
+
+    /**
+     * @param texts the original GGF text of each game
+     */
+    void setTexts(GameTexts texts) {
+        this.texts = texts;
+    }
+
+    /**
+     * @return the original GGF text of each game, or null if it isn't known
+     */
+    @Nullable GameTexts texts() {
+        return texts;
+    }
+
+    /**
+     * @return the original GGF text of the game if it is known, otherwise GGF text generated from the index.
+     */
+    String ggfText(int game) {
+        final GameTexts gameTexts = texts;
+        if (gameTexts != null) {
+            final String text = gameTexts.text(game);
+            if (!text.isEmpty()) {
+                return text;
+            }
+        }
+        return GameExport.ggfText(this, game);
+    }
+
+    /**
+     * @return the games with their evals and elapsed times, if they are available, for saving to a GameStoreFile
+     */
+    GameStore gamesWithSideColumns() {
+        final DatabaseData databaseData = source;
+        return databaseData == null || games.hasSideColumns() ? games : GameStore.of(databaseData, true);
+    }
+
+    /**
+     * @return black discs - white discs at the end of the game
+     */
+    int result(int game) {
+        return resultsById[columns[RESULT].id(game)];
+    }
+
+    String text(int game, int field) {
+        return columns[field].text(game);
+    }
+
+    /**
+     * Sort games by a field. Year and result sort numerically, the other fields alphabetically.
+     * <p/>
+     * Each column ranks its distinct values once; games are then placed by a counting sort, so sorting
+     * is linear in the number of games and doesn't compare any text.
+     *
+     * @param games     game numbers
+     * @param ascending if false, the order is reversed
+     * @return the positions in games, in sorted order. Games with equal values keep their order.
+     */
+    int[] sortOrder(TIntArrayList games, int field, boolean ascending) {
+        final int[] ranks = sortRanks(field);
+        final DictionaryColumn column = columns[field];
+        final int n = games.size();
+        final int[] gameRanks = new int[n];
+        final int[] starts = new int[ranks.length + 1];
+        for (int i = 0; i < n; i++) {
+            final int rank = ranks[column.id(games.get(i))];
+            gameRanks[i] = ascending ? rank : ranks.length - 1 - rank;
+            starts[gameRanks[i] + 1]++;
+        }
+        for (int rank = 0; rank < ranks.length; rank++) {
+            starts[rank + 1] += starts[rank];
+        }
+        final int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[starts[gameRanks[i]]++] = i;
+        }
+        return order;
+    }
+
+    private synchronized int[] sortRanks(int field) {
+        if (sortRanks[field] == null) {
+            final DictionaryColumn column = columns[field];
+            if (field == YEAR || field == RESULT) {
+                sortRanks[field] = column.numericRanks();
+            } else {
+                // the dictionary is sorted, so ids are already in alphabetical order
+                final int[] ranks = new int[column.dictionarySize()];
+                for (int id = 0; id < ranks.length; id++) {
+                    ranks[id] = id;
+                }
+                sortRanks[field] = ranks;
+            }
+        }
+        return sortRanks[field];
+    }
+
+    /**
+     * @param filters text that each field must start with; empty strings match everything.
+     *                Year and result filters may also be numeric ranges, see {@link PrefixFilter}.
+     */
+    PrefixFilter filter(String[] filters) {
+        final boolean[] numeric = new boolean[N_FIELDS];
+        numeric[YEAR] = true;
+        numeric[RESULT] = true;
+        return new PrefixFilter(columns, filters, numeric);
+    }
+
+    /**
+     * Summarize the moves played next in the given games.
+     *
+     * @param position    position the games reached
+     * @param games       game numbers
+     * @param reflections for each game, the reflection that takes the game onto the position
+     */
+    MoveSummary summarize(BitPosition position, TIntArrayList games, TIntArrayList reflections) {
+        if (!position.hasLegalMove()) {
+            return MoveSummary.EMPTY;
+        }
+        final MoveSummary summary = new MoveSummary();
+        final int iMove = 60 - position.nEmpty();
+        final int n = games.size();
+        for (int i = 0; i < n; i++) {
+            final int game = games.get(i);
+            if (iMove < this.games.nMoves(game)) {
+                final int sq = Symmetry.reflectSquare(reflections.get(i), this.games.move(game, iMove));
+                summary.add(sq, score(game, position.isBlackToMove()));
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * @return 1 if the player won the game, 0.5 for a draw, 0 for a loss
+     */
+    double score(int game, boolean black) {
+        final int result = black ? result(game) : -result(game);
+        return result > 0 ? 1 : result == 0 ? 0.5 : 0;
+    }
+
+    /**
+     * Games read from a file are parsed from their original GGF text, so they keep everything a GGF game holds.
+     * Games without one, such as Thor games, are parsed from GGF text generated from the index.
+     *
+     * @return the game in GGS/os format
+     */
+    COsGame gameFromIndex(int game) {
+        final DatabaseData databaseData = source;
+        if (databaseData != null) {
+            return databaseData.GameFromIndex(game);
+        }
+        final GameTexts gameTexts = texts;
+        if (gameTexts != null) {
+            final String text = gameTexts.text(game);
+            if (!text.isEmpty()) {
+                try {
+                    return new COsGame(new CReader(text));
+                } catch (IllegalArgumentException e) {
+                    log.warn("Unable to parse the text of game " + game + ": " + e);
+                }
+            }
+        }
+        // the date, clocks and ratings are lost; the year and result come from the text columns
+        return new COsGame(new CReader(GameExport.ggfText(this, game)));
+    }
+}
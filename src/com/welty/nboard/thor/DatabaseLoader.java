@@ -17,17 +17,26 @@ package com.welty.nboard.thor;
 
 import com.orbanova.common.feed.Handler;
 import com.orbanova.common.jsb.JsbFileChooser;
+import com.orbanova.common.misc.Logger;
 import com.welty.othello.thor.*;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import static com.welty.othello.thor.ThorOpeningMap.NOpenings;
 import static com.welty.othello.thor.ThorOpeningMap.OpeningName;
@@ -36,8 +45,18 @@ import static com.welty.othello.thor.ThorOpeningMap.OpeningName;
  * Class responsible for loading data into the DatabaseData
  */
 public class DatabaseLoader {
+    private static final Logger log = Logger.logger(DatabaseLoader.class);
+
+    private final JFrame frame;
     private final JsbFileChooser chooser;
+    private final JsbFileChooser storeChooser;
     private final DatabaseData databaseData;
+    private final GameDatabase gameDatabase;
+
+    /**
+     * Watches the most recently loaded directory, or null if none has been loaded
+     */
+    private DatabaseWatcher watcher = null;
 
     /**
      * Construct a DatabaseLoader that loads data into the database
@@ -45,34 +64,47 @@ public class DatabaseLoader {
      * @param databaseData database to load into
      */
     public DatabaseLoader(JFrame frame, DatabaseData databaseData) {
+        this(frame, databaseData, GameDatabase.following(databaseData));
+    }
+
+    /**
+     * Construct a DatabaseLoader that loads data into the database
+     *
+     * @param databaseData database to load Thor and GGF files into
+     * @param gameDatabase database to load game store files into
+     */
+    DatabaseLoader(JFrame frame, DatabaseData databaseData, GameDatabase gameDatabase) {
+        this.frame = frame;
         chooser = new JsbFileChooser(frame, DatabaseLoader.class);
+        storeChooser = new JsbFileChooser(frame, GameStoreFile.class, "NBoard game stores", new String[]{"nbg"});
         this.databaseData = databaseData;
+        this.gameDatabase = gameDatabase;
     }
 
    /**
      * Save opening frequencies to a file.
      * <p/>
-     * The user chooses a filename and then the DatabaseData's opening frequencies are stored to that file.
+     * The user chooses a filename and then the opening frequencies of the games in the database window are stored
+     * to that file.
      */
     public boolean SaveOpeningFrequencies() {
         final File file = new TextFileChooser().save();
         if (file != null) {
             // count opening frequencies
             final int nOpenings = NOpenings();
-            final int[] counts = databaseData.getOpeningCounts(nOpenings);
-            double nGames = databaseData.NGames();
+            final DatabaseIndex index = gameDatabase.getIndex();
+            final int[] counts = openingCounts(index, nOpenings);
+            double nGames = index.nGames();
 
             // write to file
-            StringBuilder os = new StringBuilder();
-            os.append("freq.\tOpening Name\n");
-            for (char openingCode = 0; openingCode < nOpenings; openingCode++) {
-                if (openingCode != 0 || counts[openingCode] != 0) {
-                    final double freq = counts[openingCode] / nGames;
-                    os.append(String.format("%5.2f", freq * 100)).append("%\t").append(OpeningName(openingCode)).append("\n");
-                }
-            }
             try (final BufferedWriter out = Files.newBufferedWriter(file.toPath(), Charset.defaultCharset())) {
-                out.write(os.toString());
+                out.write("freq.\tOpening Name\n");
+                for (char openingCode = 0; openingCode < nOpenings; openingCode++) {
+                    if (openingCode != 0 || counts[openingCode] != 0) {
+                        final double freq = counts[openingCode] / nGames;
+                        out.write(String.format("%5.2f", freq * 100) + "%\t" + OpeningName(openingCode) + "\n");
+                    }
+                }
             } catch (IOException e) {
                 JOptionPane.showMessageDialog(null, "Can't write to file " + file + ": " + e, "Error writing to file", JOptionPane.ERROR_MESSAGE);
             }
@@ -80,10 +112,138 @@ public class DatabaseLoader {
         return file != null;
     }
 
+    /**
+     * Save a report of the lines of play from the displayed position, using the database window's filters.
+     * <p/>
+     * The user chooses how many moves deep the report goes and a filename; see OpeningReport for the format.
+     */
+    public boolean saveOpeningReport(DatabaseTableModel tableModel) {
+        final String depthText = JOptionPane.showInputDialog(frame, "Number of moves to report (0-" + OpeningReport.MAX_DEPTH + "):", "8");
+        if (depthText == null) {
+            return false;
+        }
+        final int depth;
+        try {
+            depth = Integer.parseInt(depthText.trim());
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(frame, "Not a number: " + depthText, "Opening report", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        if (depth < 0) {
+            JOptionPane.showMessageDialog(frame, "The number of moves can't be negative", "Opening report", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        final File file = new TextFileChooser().save();
+        if (file != null) {
+            writeOpeningReport(file, gameDatabase.getIndex(), tableModel.displayedPosition(), tableModel.getFilters().clone()
+                    , Math.min(depth, OpeningReport.MAX_DEPTH));
+        }
+        return file != null;
+    }
+
+    /**
+     * Write the report on a worker thread, since a deep report of a large database takes a while.
+     * Errors are reported on the event dispatch thread.
+     */
+    private void writeOpeningReport(final File file, final DatabaseIndex index, final BitPosition position
+            , final String[] filters, final int depth) {
+        final Thread thread = new Thread(new Runnable() {
+            @Override public void run() {
+                try (FileChannel channel = openForWrite(file)) {
+                    final long nLines = OpeningReport.write(index, position, filters, depth, 1, channel);
+                    log.info("Wrote " + nLines + " lines of opening report to " + file);
+                } catch (final IOException e) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override public void run() {
+                            JOptionPane.showMessageDialog(frame, "Can't write to file " + file + ": " + e, "Error writing to file", JOptionPane.ERROR_MESSAGE);
+                        }
+                    });
+                }
+            }
+        }, "Opening report");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Save the games displayed in the database window, in display order.
+     * <p/>
+     * Files ending in .wtb are written as a Thor database, with the players and tournaments written alongside
+     * as .jou and .trn files of the same name; other files are written as GGF.
+     */
+    public boolean exportDisplayedGames(DatabaseTableModel tableModel) {
+        final JFileChooser chooser = new JFileChooser();
+        if (chooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return false;
+        }
+        final File file = chooser.getSelectedFile();
+        final GameExport export = tableModel.exportDisplayedGames();
+        final String name = file.getName();
+        try {
+            final int nGames;
+            if (name.toLowerCase().endsWith(".wtb")) {
+                final String base = name.substring(0, name.length() - 4);
+                try (FileChannel wtb = openForWrite(file);
+                     FileChannel players = openForWrite(new File(file.getParentFile(), base + ".jou"));
+                     FileChannel tournaments = openForWrite(new File(file.getParentFile(), base + ".trn"))) {
+                    nGames = export.writeThor(wtb, players, tournaments);
+                }
+            } else {
+                try (FileChannel channel = openForWrite(file)) {
+                    nGames = export.writeGgf(channel);
+                }
+            }
+            log.info("Exported " + nGames + " games to " + file);
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(null, "Can't write to file " + file + ": " + e, "Error writing to file", JOptionPane.ERROR_MESSAGE);
+        }
+        return true;
+    }
+
+    private static FileChannel openForWrite(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * @return number of games in the index with each opening code
+     */
+    private static int[] openingCounts(DatabaseIndex index, int nOpenings) {
+        final DictionaryColumn openings = index.columns[DatabaseIndex.OPENING];
+        final int[] countsById = new int[openings.dictionarySize()];
+        for (int i = 0; i < index.nGames(); i++) {
+            countsById[openings.id(i)]++;
+        }
+        final Map<String, Integer> countsByName = new HashMap<>();
+        for (int id = 0; id < countsById.length; id++) {
+            countsByName.put(openings.dictionaryText(id), countsById[id]);
+        }
+        final int[] counts = new int[nOpenings];
+        for (char openingCode = 0; openingCode < nOpenings; openingCode++) {
+            final Integer count = countsByName.get(OpeningName(openingCode));
+            if (count != null) {
+                counts[openingCode] = count;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Load the games in a directory chosen by the user.
+     * <p/>
+     * The games are cached next to the database (see DatabaseCache) so that files that haven't changed since the
+     * last load don't need to be parsed again. The directory is then watched, and reloaded when games files are
+     * added or changed.
+     */
     public void loadDirectory() {
         final Handler<File> callback = new Handler<File>() {
             @Override public void handle(@NotNull File file) {
-                databaseData.loadFromThorDirectory(file);
+                final ErrorDisplayer errorDisplayer = new DialogErrorDisplayer();
+                try {
+                    gameDatabase.setIndex(DatabaseCache.load(file, errorDisplayer, new GuiProgressTracker(" games loaded")));
+                    watch(file, errorDisplayer);
+                } catch (IOException e) {
+                    errorDisplayer.notify("loading database", e.toString());
+                }
             }
         };
         JFileChooser base = chooser.getChooser();
@@ -95,6 +255,57 @@ public class DatabaseLoader {
         chooser.chooseFile(callback, JFileChooser.DIRECTORIES_ONLY);
     }
 
+    /**
+     * Reload the directory whenever its game files change, and stop watching the previous directory
+     */
+    private void watch(File directory, ErrorDisplayer errorDisplayer) throws IOException {
+        stopWatching();
+        watcher = new DatabaseWatcher(directory, gameDatabase, errorDisplayer, DatabaseWatcher.SETTLE_MILLIS);
+    }
+
+    private void stopWatching() {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+    }
+
+    /**
+     * Save the games currently in the database window to a game store file chosen by the user.
+     */
+    public void saveGameStore() {
+        File file = storeChooser.saveFile(frame);
+        if (file != null) {
+            if (!file.toString().endsWith(".nbg")) {
+                file = new File(file.toString() + ".nbg");
+            }
+            final DatabaseIndex index = gameDatabase.getIndex();
+            try {
+                GameStoreFile.write(file, index.gamesWithSideColumns(), index.columns, null, index.texts());
+            } catch (IOException e) {
+                JOptionPane.showMessageDialog(frame, "Can't write to file " + file + ": " + e, "Error writing to file", JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    /**
+     * Replace the games in the database window by the games in a game store file chosen by the user.
+     */
+    public void openGameStore() {
+        final Handler<File> callback = new Handler<File>() {
+            @Override public void handle(@NotNull File file) {
+                try {
+                    gameDatabase.setIndex(GameStoreFile.read(file));
+                    stopWatching();
+                } catch (IOException e) {
+                    JOptionPane.showMessageDialog(frame, "Can't read file " + file + ": " + e, "Error reading file", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        storeChooser.getChooser().setDialogTitle("Open game store");
+        storeChooser.chooseFile(callback, JFileChooser.FILES_ONLY);
+    }
+
     /**
      * Reloads the database games (but not players or tournaments) while updating the errorDisplayer and the tracker
      * <p/>
@@ -106,22 +317,198 @@ public class DatabaseLoader {
      * @param tracker        location to display progress tracking
      */
     void reloadGames(List<String> fns, ErrorDisplayer errorDisplayer, IndeterminateProgressTracker tracker) {
+        reloadGames(fns, errorDisplayer, tracker, false);
+    }
+
+    /**
+     * Reloads the database games (but not players or tournaments) while updating the errorDisplayer and the tracker
+     * <p/>
+     * If the list of files is empty, this does nothing (on the assumption that this was called in error).
+     * Otherwise it unloads all existing games files and loads all games from the file.
+     * <p/>
+     * The files are parsed before the database is touched, and the database window keeps displaying the
+     * previous games until the new ones have been indexed; it is then notified once.
+     * <p/>
+     * In parallel mode each file is parsed in its own task on a fork-join pool. The parsed files are added to the
+     * database in the order given by fns regardless of which task finishes first, so game indices are the same
+     * as in a sequential load.
+     *
+     * @param fns            list of files to load
+     * @param errorDisplayer location to display error messages
+     * @param tracker        location to display progress tracking
+     * @param parallel       if true, parse the files simultaneously
+     */
+    void reloadGames(List<String> fns, final ErrorDisplayer errorDisplayer, IndeterminateProgressTracker tracker, boolean parallel) {
         if (!fns.isEmpty()) {
-            ArrayList<ThorGameInternal> games = new ArrayList<>();
-            databaseData.clearGames();
-            for (String it : fns) {
-                try {
-                    if (DatabaseData.isThorGamesFile(it)) {
-                        games.addAll(Thor.ThorLoadGames(it, tracker));
-                    } else {
-                        final ArrayList<GgfGameText> ggfGameTexts = GgfGameText.Load(new File(it), tracker);
-                        databaseData.addGgfGames(ggfGameTexts);
-                    }
-                } catch (IllegalArgumentException e) {
-                    errorDisplayer.notify("loading games file", e.getMessage());
+            final GameSources sources = new GameSources();
+            final List<LoadedFile> loadedFiles = removeDuplicates(loadFiles(fns, tracker, parallel), sources);
+            if (sources.nDuplicates() > 0) {
+                errorDisplayer.notify("loading games", "Games left out because they are already in another file: " + sources.nDuplicates());
+            }
+
+            GameDatabase.following(databaseData).update(new Runnable() {
+                @Override public void run() {
+                    replaceGames(databaseData, loadedFiles, errorDisplayer);
                 }
+            }, sources);
+        }
+    }
+
+    /**
+     * Remove games that occur in an earlier file, or earlier in the same file
+     *
+     * @param sources records the files each remaining game occurs in
+     * @return the loaded files without the duplicate games, in the same order
+     */
+    static List<LoadedFile> removeDuplicates(List<LoadedFile> loadedFiles, GameSources sources) {
+        final List<LoadedFile> unique = new ArrayList<>();
+        for (int i = 0; i < loadedFiles.size(); i++) {
+            unique.add(loadedFiles.get(i).removeDuplicates(sources, i));
+        }
+        return unique;
+    }
+
+    /**
+     * Replace the games in the database by the games in the loaded files
+     */
+    static void replaceGames(DatabaseData databaseData, List<LoadedFile> loadedFiles, ErrorDisplayer errorDisplayer) {
+        ArrayList<ThorGameInternal> games = new ArrayList<>();
+        databaseData.clearGames();
+        for (LoadedFile loadedFile : loadedFiles) {
+            if (loadedFile.error != null) {
+                errorDisplayer.notify("loading games file", loadedFile.error);
+            } else if (loadedFile.thorGames != null) {
+                games.addAll(loadedFile.thorGames);
+            } else {
+                databaseData.addGgfGames(loadedFile.ggfGameTexts);
             }
-            databaseData.setThorGames(games);
+        }
+        databaseData.setThorGames(games);
+    }
+
+    /**
+     * Parse game files without adding them to a database
+     * <p/>
+     * The tracker is completed once, when all files have been parsed.
+     *
+     * @param parallel if true, parse the files simultaneously
+     * @return the parsed files, in the same order as fns
+     */
+    static List<LoadedFile> loadFiles(List<String> fns, IndeterminateProgressTracker tracker, boolean parallel) {
+        final List<LoadedFile> loadedFiles = parallel ? loadInParallel(fns, tracker) : loadInSequence(fns, tracker);
+        tracker.complete();
+        return loadedFiles;
+    }
+
+    private static List<LoadedFile> loadInSequence(List<String> fns, IndeterminateProgressTracker tracker) {
+        final List<LoadedFile> loadedFiles = new ArrayList<>();
+        for (String fn : fns) {
+            loadedFiles.add(LoadedFile.load(fn, tracker));
+        }
+        return loadedFiles;
+    }
+
+    private static List<LoadedFile> loadInParallel(List<String> fns, IndeterminateProgressTracker tracker) {
+        final IndeterminateProgressTracker sharedTracker = new SynchronizedProgressTracker(tracker);
+        final ForkJoinPool pool = new ForkJoinPool();
+        try {
+            final List<ForkJoinTask<LoadedFile>> tasks = new ArrayList<>();
+            for (String fn : fns) {
+                tasks.add(pool.submit(new LoadFileTask(fn, sharedTracker)));
+            }
+            final List<LoadedFile> loadedFiles = new ArrayList<>();
+            for (ForkJoinTask<LoadedFile> task : tasks) {
+                loadedFiles.add(task.join());
+            }
+            return loadedFiles;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Games parsed from a single file, or the reason the file couldn't be parsed.
+     * <p/>
+     * Exactly one of thorGames, ggfGameTexts, and error is non-null.
+     */
+    static class LoadedFile {
+        final List<ThorGameInternal> thorGames;
+        final ArrayList<GgfGameText> ggfGameTexts;
+        /**
+         * Location in the file of each of the ggfGameTexts, or null if they aren't known
+         */
+        final @Nullable List<GgfReader.GameText> ggfLocations;
+        final String error;
+
+        private LoadedFile(List<ThorGameInternal> thorGames, ArrayList<GgfGameText> ggfGameTexts, String error) {
+            this(thorGames, ggfGameTexts, null, error);
+        }
+
+        private LoadedFile(List<ThorGameInternal> thorGames, ArrayList<GgfGameText> ggfGameTexts
+                , @Nullable List<GgfReader.GameText> ggfLocations, String error) {
+            this.thorGames = thorGames;
+            this.ggfGameTexts = ggfGameTexts;
+            this.ggfLocations = ggfLocations;
+            this.error = error;
+        }
+
+        /**
+         * @param iSource index of this file in the list of files being loaded
+         * @return this file without the games that sources has already seen
+         */
+        LoadedFile removeDuplicates(GameSources sources, int iSource) {
+            if (thorGames != null) {
+                return new LoadedFile(sources.removeDuplicateThorGames(thorGames, iSource), null, null);
+            } else if (ggfGameTexts != null) {
+                return new LoadedFile(null, sources.removeDuplicateGgfGames(ggfGameTexts, iSource), null);
+            }
+            return this;
+        }
+
+        static LoadedFile load(String fn, IndeterminateProgressTracker tracker) {
+            try {
+                if (DatabaseData.isThorGamesFile(fn)) {
+                    final List<ThorGameInternal> thorGames = new ArrayList<>();
+                    thorGames.addAll(Thor.ThorLoadGames(fn, tracker));
+                    return new LoadedFile(thorGames, null, null);
+                } else {
+                    return loadGgfGames(fn, tracker);
+                }
+            } catch (IllegalArgumentException e) {
+                return new LoadedFile(null, null, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Read the games in a GGF file, incrementing the tracker for each game as it is parsed
+     */
+    private static LoadedFile loadGgfGames(String fn, final IndeterminateProgressTracker tracker) {
+        final ArrayList<GgfGameText> gameTexts = new ArrayList<>();
+        final List<GgfReader.GameText> locations = new ArrayList<>();
+        GgfReader.load(new File(fn), new Handler<List<GgfReader.ParsedGame>>() {
+            @Override public void handle(@NotNull List<GgfReader.ParsedGame> chunk) {
+                for (GgfReader.ParsedGame game : chunk) {
+                    gameTexts.add(game.gameText);
+                    locations.add(game.location);
+                    tracker.increment();
+                }
+            }
+        }, GgfReader.progress(tracker));
+        return new LoadedFile(null, gameTexts, locations, null);
+    }
+
+    private static class LoadFileTask extends RecursiveTask<LoadedFile> {
+        private final String fn;
+        private final IndeterminateProgressTracker tracker;
+
+        LoadFileTask(String fn, IndeterminateProgressTracker tracker) {
+            this.fn = fn;
+            this.tracker = tracker;
+        }
+
+        @Override protected LoadedFile compute() {
+            return LoadedFile.load(fn, tracker);
         }
     }
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+package com.welty.nboard.thor;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.*;
+
+/**
+ * Answers database queries from the command line, without starting the user interface.
+ * <p/>
+ * Usage: DatabaseQuery &lt;database directory&gt; [&lt;query file&gt; [&lt;threads&gt;]]
+ * <p/>
+ * The directory is loaded through the DatabaseCache, as the database window loads it. Each line of the query file
+ * (standard input if the file is missing or "-") is a move list from the start position, such as "f5d6c3", or a
+ * board of 64 squares followed by the side to move, such as "---...--- *", using * or X for black, O for white
+ * and - or . for empty squares. Blank lines and lines starting with # are skipped.
+ * <p/>
+ * Queries are answered in parallel and written to standard output in input order, as tab-separated lines:
+ * the query, the number of games reaching the position, black's score in percent (draws count half),
+ * and the moves played next with their number of games and score for the mover. Throughput and latency
+ * percentiles are written to standard error at the end.
+ */
+public final class DatabaseQuery {
+    /**
+     * Maximum number of queries in flight per thread, to bound memory use on large query files
+     */
+    private static final int QUEUE_PER_THREAD = 64;
+
+    private DatabaseQuery() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: DatabaseQuery <database directory> [<query file> [<threads>]]");
+            System.exit(2);
+        }
+        final ErrorDisplayer errorDisplayer = new ErrorDisplayer() {
+            @Override public void notify(String operation, String error) {
+                System.err.println("Error " + operation + ": " + error);
+            }
+        };
+        final DatabaseIndex index = DatabaseCache.load(new File(args[0]), errorDisplayer, DatabaseWatcher.NO_PROGRESS);
+        final int nThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        final boolean stdin = args.length < 2 || args[1].equals("-");
+        try (BufferedReader in = new BufferedReader(stdin ? new InputStreamReader(System.in) : new FileReader(args[1]));
+             PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)))) {
+            final Stats stats = run(index, in, out, nThreads);
+            out.flush();
+            System.err.println(stats);
+        }
+    }
+
+    /**
+     * Answer each query in the input, in parallel, and write the answers in input order.
+     */
+    static Stats run(final DatabaseIndex index, BufferedReader in, PrintWriter out, int nThreads) throws IOException, InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        final ArrayDeque<Future<Answer>> pending = new ArrayDeque<>();
+        final Stats stats = new Stats();
+        out.println("query\tgames\tblackScore\tnextMoves");
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                final String query = line.trim();
+                if (query.isEmpty() || query.startsWith("#")) {
+                    continue;
+                }
+                pending.add(executor.submit(new Callable<Answer>() {
+                    @Override public Answer call() {
+                        return answer(index, query);
+                    }
+                }));
+                if (pending.size() >= nThreads * QUEUE_PER_THREAD) {
+                    write(pending.remove(), out, stats);
+                }
+            }
+            while (!pending.isEmpty()) {
+                write(pending.remove(), out, stats);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        stats.finish();
+        return stats;
+    }
+
+    private static void write(Future<Answer> future, PrintWriter out, Stats stats) throws InterruptedException {
+        final Answer answer;
+        try {
+            answer = future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        out.println(answer.text);
+        stats.add(answer.nanos);
+    }
+
+    /**
+     * @return the tab-separated answer to a query, or the query followed by an error message if it can't be parsed
+     */
+    static Answer answer(DatabaseIndex index, String query) {
+        final long start = System.nanoTime();
+        String text;
+        try {
+            text = query + "\t" + answer(index, parse(query));
+        } catch (IllegalArgumentException e) {
+            text = query + "\tERROR " + e.getMessage();
+        }
+        return new Answer(text, System.nanoTime() - start);
+    }
+
+    private static String answer(DatabaseIndex index, BitPosition position) {
+        final PositionMatches matches = index.positions.find(position);
+        final int nGames = matches.size();
+        double blackScore = 0;
+        for (int i = 0; i < nGames; i++) {
+            blackScore += index.score(matches.index.get(i), true);
+        }
+        MoveSummary summary = index.openings.summarize(position);
+        if (summary == null) {
+            summary = index.summarize(position, matches.index, matches.iReflections);
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append(nGames).append('\t');
+        sb.append(nGames == 0 ? "" : String.format(Locale.US, "%.1f", 100 * blackScore / nGames)).append('\t');
+        for (int sq : summary.keys()) {
+            final MoveSummary.Data data = summary.get(sq);
+            if (sb.charAt(sb.length() - 1) != '\t') {
+                sb.append(' ');
+            }
+            sb.append(BitBoards.squareName(sq)).append(':').append(data.getNPlayed())
+                    .append(':').append(String.format(Locale.US, "%.1f", 100 * data.getScore()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parse a query: a move list from the start position, or a board followed by the side to move
+     *
+     * @throws IllegalArgumentException if the query is neither
+     */
+    static BitPosition parse(String query) {
+        final String text = query.replaceAll("\\s", "");
+        if (text.length() == 65 && text.matches("[-.*xXoO]{65}")) {
+            long black = 0;
+            long white = 0;
+            for (int sq = 0; sq < 64; sq++) {
+                final char c = Character.toUpperCase(text.charAt(sq));
+                if (c == '*' || c == 'X') {
+                    black |= 1L << sq;
+                } else if (c == 'O') {
+                    white |= 1L << sq;
+                }
+            }
+            final char mover = Character.toUpperCase(text.charAt(64));
+            if (mover != '*' && mover != 'X' && mover != 'O') {
+                throw new IllegalArgumentException("Side to move must be * X or O: " + mover);
+            }
+            return new BitPosition(black, white, mover != 'O');
+        }
+        if (text.length() % 2 != 0) {
+            throw new IllegalArgumentException("Not a move list or board");
+        }
+        final BitPosition position = BitPosition.start();
+        for (int i = 0; i < text.length(); i += 2) {
+            final String move = text.substring(i, i + 2).toLowerCase();
+            if (!position.play(PositionPattern.parseSquare(move))) {
+                throw new IllegalArgumentException("Illegal move: " + move);
+            }
+        }
+        return position;
+    }
+
+    static final class Answer {
+        final String text;
+        final long nanos;
+
+        Answer(String text, long nanos) {
+            this.text = text;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Query throughput and latency
+     */
+    static final class Stats {
+        private final long start = System.nanoTime();
+        private long elapsed;
+        private long[] latencies = new long[1024];
+        private int n;
+
+        void add(long nanos) {
+            if (n == latencies.length) {
+                latencies = Arrays.copyOf(latencies, n * 2);
+            }
+            latencies[n++] = nanos;
+        }
+
+        void finish() {
+            elapsed = System.nanoTime() - start;
+            Arrays.sort(latencies, 0, n);
+        }
+
+        int size() {
+            return n;
+        }
+
+        /**
+         * @param fraction 0..1
+         * @return latency of the query at that fraction of the sorted latencies, in nanoseconds
+         */
+        long percentile(double fraction) {
+            return n == 0 ? 0 : latencies[Math.min(n - 1, (int) (fraction * n))];
+        }
+
+        @Override public String toString() {
+            return String.format(Locale.US, "%d positions in %.2f s: %.0f positions/sec; latency p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms"
+                    , n, elapsed * 1e-9, n / Math.max(elapsed * 1e-9, 1e-9)
+                    , percentile(0.5) * 1e-6, percentile(0.9) * 1e-6, percentile(0.99) * 1e-6, percentile(1) * 1e-6);
+        }
+    }
+}
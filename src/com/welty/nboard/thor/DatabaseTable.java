@@ -20,6 +20,8 @@ import com.welty.nboard.nboard.ReversiData;
 import com.welty.nboard.nboard.ReversiWindow;
 
 import javax.swing.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 
 /**
  * <PRE>
@@ -45,11 +47,17 @@ class DatabaseTable extends Grid {
         this.reversiWindow = reversiWindow;
         this.reversiData = reversiData;
         this.dtm = dtm;
+        // The model sorts its own rows. A RowSorter would read and compare the text of every row,
+        // which freezes the window when the whole database matches.
         final JTable table = getTable();
-        table.setAutoCreateRowSorter(true);
-        final DefaultRowSorter rowSorter = (DefaultRowSorter) table.getRowSorter();
-        rowSorter.setComparator(2, new AsDoubleSort());
-        rowSorter.setComparator(4, new AsDoubleSort());
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override public void mouseClicked(MouseEvent e) {
+                final int viewCol = table.columnAtPoint(e.getPoint());
+                if (viewCol >= 0) {
+                    dtm.sortBy(table.convertColumnIndexToModel(viewCol));
+                }
+            }
+        });
     }
 
     DatabaseTableModel PD() {
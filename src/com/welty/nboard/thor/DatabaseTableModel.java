@@ -26,11 +26,12 @@ import com.welty.othello.gdk.COsGame;
 import com.welty.othello.gdk.COsPosition;
 import com.welty.othello.gdk.OsMoveListItem;
 import com.welty.othello.thor.DatabaseData;
-import com.welty.othello.thor.ThorSummary;
 import gnu.trove.list.array.TIntArrayList;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import static com.welty.othello.thor.Thor.MatchingPositions;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Encapsulate all data needed by the database gui
@@ -41,7 +42,15 @@ public class DatabaseTableModel extends GridTableModel {
      */
     public static final int YEAR = 2;
 
-    private final DatabaseData databaseData;
+    /**
+     * Column number for result data
+     */
+    public static final int RESULT = 4;
+
+    /**
+     * The games available for lookup
+     */
+    private final GameDatabase database;
 
     private static final GridColumn[] columns = {
             new GridColumn(120, "Black", Align.LEFT),
@@ -57,44 +66,118 @@ public class DatabaseTableModel extends GridTableModel {
     /**
      * Summary data for moves
      */
-    public ThorSummary summary = new ThorSummary();
+    public MoveSummary summary = MoveSummary.EMPTY;
+
+    /**
+     * Games that match the displayed position and pass the filters.
+     */
+    private Matches matches = Matches.NONE;
+
+    /**
+     * Column the rows are sorted by, or -1 if they are in database order
+     */
+    private int sortColumn = -1;
+
+    private boolean sortAscending = true;
 
     /**
-     * List of games that match the displayed position and pass the filters.
+     * Position in matches.indices of the game displayed in each row, or null if rows are in database order.
      * <p/>
-     * The int is an index into DatabaseData.GameItemText()
+     * The table asks only for the rows that are visible, so a sorted match set of any size is displayed
+     * without reading the text of the other rows.
+     */
+    private @Nullable int[] rowOrder = null;
+
+    /**
+     * Text that must match the given field in order to display the position.
+     * <p/>
+     * The array is replaced rather than modified so that a lookup in progress sees a consistent set of filters.
+     */
+    private volatile String[] filters = new String[columns.length];
+
+    /**
+     * Squares that must match the displayed position, or 0 to match the whole position.
+     * <p/>
+     * If this is not 0, the matches are the games that reach the displayed contents of these squares at any
+     * point, in any reflection.
+     */
+    private volatile long patternSquares = 0;
+
+    /**
+     * Runs lookups requested because the board, filters, or database changed
      */
-    private TIntArrayList matchingIndices = new TIntArrayList();
+    private final Executor lookupExecutor;
 
     /**
-     * Text that must match the given field in order to display the position
+     * Runs the publication of lookup results. In the GUI this is the Swing event thread.
      */
-    private final String[] filters = new String[columns.length];
+    private final Executor publishExecutor;
 
+    /**
+     * Number of the most recently requested lookup. A lookup stops work as soon as a newer one has been requested.
+     */
+    private final AtomicInteger latestRequest = new AtomicInteger();
+
+    /**
+     * Recent lookups, so that returning to a position (or a reflection of it) with the same filters is immediate
+     */
+    private final LookupCache<Lookup> lookupCache = new LookupCache<>(LookupCache.DEFAULT_CAPACITY);
+
+    /**
+     * Executor that runs tasks immediately, on the calling thread
+     */
+    static final Executor DIRECT = new Executor() {
+        @Override public void execute(@NotNull Runnable command) {
+            command.run();
+        }
+    };
 
+    /**
+     * Create a DatabaseTableModel that does its lookups on the thread that requests them.
+     */
     DatabaseTableModel(@NotNull OptionSource optionSource, @NotNull BoardSource boardSource, @NotNull DatabaseData databaseData) {
+        this(optionSource, boardSource, GameDatabase.following(databaseData), DIRECT, DIRECT);
+    }
+
+    /**
+     * @param lookupExecutor  executor for lookups
+     * @param publishExecutor executor that publishes lookup results to the table
+     */
+    DatabaseTableModel(@NotNull OptionSource optionSource, @NotNull BoardSource boardSource, @NotNull GameDatabase database
+            , @NotNull Executor lookupExecutor, @NotNull Executor publishExecutor) {
         super(columns);
         this.optionSource = optionSource;
         this.boardSource = boardSource;
-        this.databaseData = databaseData;
+        this.database = database;
+        this.lookupExecutor = lookupExecutor;
+        this.publishExecutor = publishExecutor;
         for (int i = 0; i < filters.length; i++) {
             filters[i] = "";
         }
         boardSource.addListener(new SignalListener<OsMoveListItem>() {
             public void handleSignal(OsMoveListItem data) {
-                onBoardChanged();
+                onBoardChanged(data);
             }
         });
-        databaseData.addListener(new DatabaseData.Listener() {
+        database.addListener(new DatabaseData.Listener() {
             @Override public void databaseChanged() {
+                lookupCache.clear();
                 lookUpPosition();
             }
         });
 
     }
 
-    void onBoardChanged() {
-            lookUpPosition();
+    /**
+     * Update the matching games for the newly displayed position.
+     * <p/>
+     * If the board advanced by a single move from the last looked-up position, the new matches are usually the
+     * previous matches that continued with the same move, so those games are examined first.
+     *
+     * @param mli the move that was played, or null if the board changed in some other way.
+     */
+    void onBoardChanged(@Nullable OsMoveListItem mli) {
+        requestLookUp(boardSource.DisplayedPosition().board, mli);
     }
 
     /**
@@ -108,7 +191,7 @@ public class DatabaseTableModel extends GridTableModel {
      * @return the total number of games loaded (both Thor and GGF)
      */
     public int nGamesInDatabase() {
-        return databaseData.NGames();
+        return database.getIndex().nGames();
     }
 
     /**
@@ -116,47 +199,313 @@ public class DatabaseTableModel extends GridTableModel {
      * @return a game in GGS/os format.
      */
     public COsGame gameFromRow(int row) {
-        return databaseData.GameFromIndex(matchingIndices.get(row));
+        return matches.index.gameFromIndex(gameAtRow(row));
+    }
+
+    /**
+     * @return an export of the displayed games, in display order
+     */
+    GameExport exportDisplayedGames() {
+        final int[] games = new int[getRowCount()];
+        for (int row = 0; row < games.length; row++) {
+            games[row] = gameAtRow(row);
+        }
+        return new GameExport(matches.index, games);
+    }
+
+    /**
+     * @return game number in matches.index of the game displayed in the row
+     */
+    private int gameAtRow(int row) {
+        return matches.indices.get(rowOrder == null ? row : rowOrder[row]);
     }
 
     /**
-     * Look up the position and notify listeners that the table data has changed.
+     * Sort the rows by the column, ascending. If the rows are already sorted by the column, reverse the order.
+     * <p/>
+     * The sort is kept when the displayed position changes.
+     */
+    void sortBy(int column) {
+        if (column == sortColumn) {
+            sortAscending = !sortAscending;
+        } else {
+            sortColumn = column;
+            sortAscending = true;
+        }
+        rowOrder = sortOrder(matches);
+        fireTableDataChanged();
+    }
+
+    private @Nullable int[] sortOrder(Matches result) {
+        return sortColumn < 0 ? null : result.index.sortOrder(result.indices, sortColumn, sortAscending);
+    }
+
+    /**
+     * Look up the displayed position on the lookup executor and publish the result when it is done.
      */
     public void lookUpPosition() {
         final COsPosition position = boardSource.DisplayedPosition();
-        lookUpPosition(position.board);
+        requestLookUp(position.board, null);
     }
 
     /**
      * Look up a position in the database, filter, set summary, and signal that this has been done.
+     * <p/>
+     * This runs on the calling thread and cancels any lookups in progress.
      */
     public void lookUpPosition(final COsBoard pos) {
-        if (pos.nEmpty() > 3) {
-            // look up position
-            final MatchingPositions matchingPositions = databaseData.findMatchingPositions(pos);
-            final TIntArrayList positionMatches = matchingPositions.index;
-            final TIntArrayList iReflections = matchingPositions.iReflections;
-
-            // filter
-            final int n = positionMatches.size();
-            TIntArrayList fi = new TIntArrayList();
-            TIntArrayList fir = new TIntArrayList();
-            for (int i = 0; i < n; i++) {
-                final int ddGameId = positionMatches.get(i);
-                if (filterMatches(ddGameId)) {
-                    fi.add(ddGameId);
-                    fir.add(iReflections.get(i));
+        final int request = latestRequest.incrementAndGet();
+        final Lookup result = lookUp(request, database.getIndex(), filters, patternSquares, Matches.NONE, pos, null);
+        if (result != null) {
+            setMatches(result.matches, result.summary);
+        }
+    }
+
+    /**
+     * Look up a position on the lookup executor.
+     * <p/>
+     * The result is published to the table only if no newer lookup has been requested and the position
+     * is still displayed.
+     *
+     * @param mli the move that led to the position, or null if unknown.
+     */
+    private void requestLookUp(final COsBoard pos, @Nullable final OsMoveListItem mli) {
+        final int request = latestRequest.incrementAndGet();
+        final DatabaseIndex index = database.getIndex();
+        final String[] requestFilters = filters;
+        final long requestPattern = patternSquares;
+        final Matches previous = matches;
+        lookupExecutor.execute(new Runnable() {
+            @Override public void run() {
+                if (!isCurrent(request)) {
+                    return;
                 }
+                final Lookup result = lookUp(request, index, requestFilters, requestPattern, previous, pos, mli);
+                if (result == null || !isCurrent(request)) {
+                    return;
+                }
+                publishExecutor.execute(new Runnable() {
+                    @Override public void run() {
+                        final BitPosition displayed = BitPosition.of(boardSource.DisplayedPosition().board);
+                        if (isCurrent(request) && result.matches.position.equals(displayed)) {
+                            setMatches(result.matches, result.summary);
+                        }
+                    }
+                });
             }
-            this.matchingIndices = fi;
+        });
+    }
 
-            // set summary
-            summary = databaseData.summarize(pos, fi, fir);
-        } else {
-            // for performance reasons, don't look up games with very small number of empties.
-            matchingIndices.clear();
-            summary.clear();
+    private boolean isCurrent(int request) {
+        return request == latestRequest.get();
+    }
+
+    /**
+     * Find the games that match the position and pass the filters, and summarize them.
+     * <p/>
+     * Recent lookups are cached by canonical position hash and filters. A cached lookup of a
+     * reflection of the position is reflected onto the position.
+     *
+     * @param patternSquares squares to match in a pattern search, or 0 to look up the whole position
+     * @return the lookup, or null if it was superseded before it finished.
+     */
+    private @Nullable Lookup lookUp(final int request, DatabaseIndex index, String[] filters, long patternSquares
+            , Matches previous, COsBoard pos, @Nullable OsMoveListItem mli) {
+        final BitPosition position = BitPosition.of(pos);
+        if (patternSquares != 0) {
+            final PositionPattern pattern = new PositionPattern(position, patternSquares);
+            final PositionMatches found = PatternSearch.find(index, pattern, index.filter(filters), new PatternSearch.Cancellation() {
+                @Override public boolean isCancelled() {
+                    return !isCurrent(request);
+                }
+            });
+            if (found == null) {
+                return null;
+            }
+            // games reach the pattern at different points, so there are no next-move statistics
+            return new Lookup(new Matches(index, position, filters, found.index, found.iReflections, true), MoveSummary.EMPTY);
+        }
+        final long hash = position.canonicalHash();
+        final Lookup cached = lookupCache.get(hash, filters);
+        if (cached != null && cached.matches.index == index) {
+            return cached.reflectOnto(position, filters);
+        }
+        final Matches result = findMatches(request, index, filters, previous, pos, mli);
+        if (result == null) {
+            return null;
+        }
+        final Lookup lookup = new Lookup(result, summarize(result));
+        lookupCache.put(hash, filters, lookup);
+        return lookup;
+    }
+
+    /**
+     * @return number of lookups that were answered from the cache
+     */
+    public int getLookupCacheHits() {
+        return lookupCache.hits();
+    }
+
+    /**
+     * @return number of lookups that were not in the cache
+     */
+    public int getLookupCacheMisses() {
+        return lookupCache.misses();
+    }
+
+    /**
+     * Find the games that match the position and pass the filters.
+     * <p/>
+     * If the position is the previous position plus mli, no filters are set and the index counts matches
+     * exactly, the previous matches are narrowed. Games may reach the position by another move order, so the
+     * narrowed matches are kept only if they number as many as the games reaching the position; narrowing isn't
+     * tried when the previous matches are too few for that. In all other cases the search starts from whichever
+     * of the position and the filters is expected to match fewer games.
+     *
+     * @return the matches, or null if the lookup was superseded before it finished.
+     */
+    private @Nullable Matches findMatches(int request, DatabaseIndex index, String[] filters, Matches previous
+            , COsBoard pos, @Nullable OsMoveListItem mli) {
+        final BitPosition position = BitPosition.of(pos);
+        final PrefixFilter filter = index.filter(filters);
+        if (mli != null && !mli.move.isPass() && previous.position != null && previous.filters == filters
+                && previous.index == index && !previous.isPattern && filter.matchesAll()
+                && index.positions.countsExactly()) {
+            final int sq = BitBoards.square(mli.move.row(), mli.move.col());
+            final BitPosition next = previous.position.copy();
+            if (next.play(sq) && next.equals(position)) {
+                final int nReaching = index.positions.estimateMatches(position);
+                if (nReaching <= previous.indices.size()) {
+                    final Matches narrowed = narrowMatches(index, previous, position, filters, sq, nReaching);
+                    if (narrowed != null) {
+                        return narrowed;
+                    }
+                }
+            }
+        }
+
+        if (!filter.matchesAll() && filter.maxMatches(index.nGames()) < index.positions.estimateMatches(position)) {
+            return findFilteredFirst(request, index, filters, filter, position);
+        }
+
+        // look up position
+        final PositionMatches matchingPositions = index.positions.find(position);
+        final TIntArrayList positionMatches = matchingPositions.index;
+        final TIntArrayList iReflections = matchingPositions.iReflections;
+
+        // filter
+        if (filter.matchesAll()) {
+            return new Matches(index, position, filters, positionMatches, iReflections);
+        }
+        final int n = positionMatches.size();
+        TIntArrayList fi = new TIntArrayList();
+        TIntArrayList fir = new TIntArrayList();
+        for (int i = 0; i < n; i++) {
+            if ((i & 0xFFF) == 0 && !isCurrent(request)) {
+                return null;
+            }
+            final int ddGameId = positionMatches.get(i);
+            if (filter.matches(ddGameId)) {
+                fi.add(ddGameId);
+                fir.add(iReflections.get(i));
+            }
+        }
+        return new Matches(index, position, filters, fi, fir);
+    }
+
+    /**
+     * Find the games that pass the filters from the filters' posting lists, then keep those that reach the position.
+     * <p/>
+     * This is used when the filters match fewer games than the position does, for instance a player's games
+     * from an opening position.
+     *
+     * @return the matches, or null if the lookup was superseded before it finished.
+     */
+    private @Nullable Matches findFilteredFirst(int request, DatabaseIndex index, String[] filters, PrefixFilter filter
+            , BitPosition position) {
+        final int[] candidates = filter.matchingGames();
+        final TIntArrayList fi = new TIntArrayList();
+        final TIntArrayList fir = new TIntArrayList();
+        for (int i = 0; i < candidates.length; i++) {
+            if ((i & 0xFFF) == 0 && !isCurrent(request)) {
+                return null;
+            }
+            final int iReflection = index.positions.reflection(position, candidates[i]);
+            if (iReflection >= 0) {
+                fi.add(candidates[i]);
+                fir.add(iReflection);
+            }
         }
+        return new Matches(index, position, filters, fi, fir);
+    }
+
+    /**
+     * Keep only the previously matching games whose next move was sq.
+     * <p/>
+     * A game's next move may correspond to sq under any symmetry of the previous position, for instance
+     * a game that started D3 continues the displayed game F5 from the start position; its reflection is
+     * updated accordingly.
+     *
+     * @param position  new position
+     * @param filters   filters that were applied to the previous matches
+     * @param sq        square of the move that took the previous position to the new position
+     * @param nReaching number of games in the index that reach the new position
+     * @return the narrowed matches, or null if they don't include every game that reaches the position.
+     */
+    private static @Nullable Matches narrowMatches(DatabaseIndex index, Matches previous, BitPosition position
+            , String[] filters, int sq, int nReaching) {
+        final GameStore games = index.games;
+        final int iMove = 60 - previous.position.nEmpty();
+        final int symmetries = previous.position.symmetries();
+
+        final int n = previous.indices.size();
+        TIntArrayList fi = new TIntArrayList();
+        TIntArrayList fir = new TIntArrayList();
+        for (int i = 0; i < n; i++) {
+            final int ddGameId = previous.indices.get(i);
+            if (iMove < games.nMoves(ddGameId)) {
+                final int move = games.move(ddGameId, iMove);
+                for (int s = 0; s < Symmetry.N_REFLECTIONS; s++) {
+                    if ((symmetries & (1 << s)) != 0) {
+                        final int iReflection = Symmetry.compose(s, previous.reflections.get(i));
+                        if (Symmetry.reflectSquare(iReflection, move) == sq) {
+                            fi.add(ddGameId);
+                            fir.add(iReflection);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        // games that reach the position by a different move order aren't among the previous matches.
+        // If every game that reaches the position was found, there were none.
+        if (fi.size() != nReaching) {
+            return null;
+        }
+        return new Matches(index, position, filters, fi, fir);
+    }
+
+    /**
+     * Without filters, the summary of a frequently reached position is precomputed in the opening tree.
+     * Otherwise it is computed from the matching games.
+     */
+    private static MoveSummary summarize(Matches result) {
+        if (result.index.filter(result.filters).matchesAll()) {
+            final MoveSummary summary = result.index.openings.summarize(result.position);
+            if (summary != null) {
+                return summary;
+            }
+        }
+        return result.index.summarize(result.position, result.indices, result.reflections);
+    }
+
+    /**
+     * Set the matching games and summary, and signal that this has been done.
+     */
+    private void setMatches(Matches result, MoveSummary resultSummary) {
+        this.matches = result;
+        this.summary = resultSummary;
+        this.rowOrder = sortOrder(result);
         fireTableDataChanged();
     }
 
@@ -170,7 +519,35 @@ public class DatabaseTableModel extends GridTableModel {
         System.out.println("setting filter " + field + " to " + text);
         assert (field < 6);
         if (field < 6) {
-            filters[field] = text;
+            final String[] newFilters = filters.clone();
+            newFilters[field] = text;
+            filters = newFilters;
+            lookUpPosition();
+        }
+    }
+
+    /**
+     * @return the current filters. The array must not be modified.
+     */
+    String[] getFilters() {
+        return filters;
+    }
+
+    /**
+     * @return the position displayed on the board
+     */
+    BitPosition displayedPosition() {
+        return BitPosition.of(boardSource.DisplayedPosition().board);
+    }
+
+    /**
+     * Search for games that reach the displayed contents of some squares, instead of the whole position.
+     *
+     * @param squares squares to match, or 0 to go back to matching the whole position
+     */
+    void setPatternSquares(long squares) {
+        if (squares != patternSquares) {
+            patternSquares = squares;
             lookUpPosition();
         }
     }
@@ -179,21 +556,102 @@ public class DatabaseTableModel extends GridTableModel {
      * @return true if the item matches all filters set in the filter window
      */
     boolean filterMatches(int item) {
-        for (int field = 0; field < filters.length; field++) {
-            String sFilter = filters[field];
-            if (!sFilter.isEmpty() && !databaseData.GameItemText(item, field).startsWith(sFilter)) {
-                return false;
-            }
-        }
-        return true;
+        return database.getIndex().filter(filters).matches(item);
     }
 
     public int getRowCount() {
-        return matchingIndices.size();
+        return matches.indices.size();
     }
 
     public String getValueAt(int rowIndex, int columnIndex) {
-        return databaseData.GameItemText(matchingIndices.get(rowIndex), columnIndex);
+        return matches.index.text(gameAtRow(rowIndex), columnIndex);
+    }
+
+    /**
+     * The result of a lookup: the games that match a position and pass the filters.
+     * <p/>
+     * This is immutable so it can be handed between the lookup thread and the event thread.
+     */
+    private static class Matches {
+        static final Matches NONE = new Matches(DatabaseIndex.EMPTY, null, null, new TIntArrayList(), new TIntArrayList());
+
+        /**
+         * The games that were searched
+         */
+        final DatabaseIndex index;
+
+        /**
+         * The position that was looked up, or null if no lookup has been done
+         */
+        final @Nullable BitPosition position;
+
+        /**
+         * The filters that were applied, or null if no lookup has been done
+         */
+        final @Nullable String[] filters;
+
+        /**
+         * Game numbers in index of the matching games
+         */
+        final TIntArrayList indices;
+
+        /**
+         * For each game in indices, the reflection that takes the game onto the position
+         */
+        final TIntArrayList reflections;
+
+        /**
+         * True if the games match some squares of the position rather than the whole position
+         */
+        final boolean isPattern;
+
+        Matches(DatabaseIndex index, @Nullable BitPosition position, @Nullable String[] filters, TIntArrayList indices
+                , TIntArrayList reflections) {
+            this(index, position, filters, indices, reflections, false);
+        }
+
+        Matches(DatabaseIndex index, @Nullable BitPosition position, @Nullable String[] filters, TIntArrayList indices
+                , TIntArrayList reflections, boolean isPattern) {
+            this.index = index;
+            this.position = position;
+            this.filters = filters;
+            this.indices = indices;
+            this.reflections = reflections;
+            this.isPattern = isPattern;
+        }
+    }
+
+    /**
+     * Matching games together with their summary
+     */
+    private static class Lookup {
+        final Matches matches;
+        final MoveSummary summary;
+
+        Lookup(Matches matches, MoveSummary summary) {
+            this.matches = matches;
+            this.summary = summary;
+        }
+
+        /**
+         * @param position a reflection of the looked-up position
+         * @param filters  filters with the same contents as the looked-up filters
+         * @return this lookup, reflected onto position
+         */
+        Lookup reflectOnto(BitPosition position, String[] filters) {
+            final BitPosition from = matches.position;
+            if (from.equals(position) && matches.filters == filters) {
+                return this;
+            }
+            final int r = Symmetry.compose(Symmetry.inverse(position.canonicalReflection()), from.canonicalReflection());
+            final int n = matches.reflections.size();
+            final TIntArrayList reflections = new TIntArrayList(n);
+            for (int i = 0; i < n; i++) {
+                reflections.add(Symmetry.compose(r, matches.reflections.get(i)));
+            }
+            final Matches reflected = new Matches(matches.index, position, filters, matches.indices, reflections);
+            return new Lookup(reflected, summary.reflect(r));
+        }
     }
 
     public String getStatusString() {
@@ -18,6 +18,12 @@ package com.welty.nboard.thor;
 import com.welty.nboard.nboard.ReversiData;
 import com.welty.nboard.nboard.ReversiWindow;
 import com.welty.othello.thor.DatabaseData;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Create all database objects needed by the UI
@@ -29,8 +35,29 @@ public class DatabaseUiPack {
 
     public DatabaseUiPack(ReversiWindow reversiWindow, ReversiData reversiData) {
         final DatabaseData databaseData = new DatabaseData();
-        tableModel = new DatabaseTableModel(reversiWindow, reversiData, databaseData);
-        loader = new DatabaseLoader(reversiWindow.getFrame(), databaseData);
+        final GameDatabase gameDatabase = GameDatabase.following(databaseData);
+        tableModel = new DatabaseTableModel(reversiWindow, reversiData, gameDatabase, createLookupExecutor(), new EdtExecutor());
+        loader = new DatabaseLoader(reversiWindow.getFrame(), databaseData, gameDatabase);
         window = new DatabaseWindow(reversiWindow, reversiData, tableModel);
     }
+
+    /**
+     * Database lookups run on a single background thread so that the board stays responsive
+     * while the user steps through a game.
+     */
+    private static Executor createLookupExecutor() {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override public Thread newThread(@NotNull Runnable r) {
+                final Thread thread = new Thread(r, "Database lookup");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static class EdtExecutor implements Executor {
+        @Override public void execute(@NotNull Runnable command) {
+            SwingUtilities.invokeLater(command);
+        }
+    }
 }
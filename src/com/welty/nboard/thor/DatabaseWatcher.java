@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.orbanova.common.misc.Logger;
+import com.welty.othello.thor.IndeterminateProgressTracker;
+
+import javax.swing.*;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads a database directory when game files in it are added, changed or removed.
+ * <p/>
+ * Changes that arrive close together, such as the files of a nightly dump, are handled as a batch: once the
+ * directory has been quiet for a while it is reloaded through the DatabaseCache, which parses only the added
+ * and changed files, and the GameDatabase is updated once.
+ * <p/>
+ * Files are read on the watcher's own thread; the new games and any errors are published on the event
+ * dispatch thread.
+ */
+final class DatabaseWatcher implements Closeable {
+    private static final Logger log = Logger.logger(DatabaseWatcher.class);
+
+    /**
+     * Time the directory must be quiet before it is reloaded
+     */
+    static final long SETTLE_MILLIS = 2000;
+
+    static final IndeterminateProgressTracker NO_PROGRESS = new IndeterminateProgressTracker() {
+        @Override public void increment() {
+        }
+
+        @Override public void update() {
+        }
+
+        @Override public void complete() {
+        }
+    };
+
+    private final File directory;
+    private final GameDatabase database;
+    private final ErrorDisplayer errorDisplayer;
+    private final long settleMillis;
+    private final WatchService watchService;
+
+    /**
+     * Set when the watcher is closed, so that a reload in progress doesn't replace the database's games afterwards
+     */
+    private volatile boolean closed;
+
+    /**
+     * Start watching the directory.
+     *
+     * @param database       database to update when the directory changes
+     * @param errorDisplayer location to display errors in reloading; it is called on the event dispatch thread
+     * @throws IOException if the directory can't be watched
+     */
+    DatabaseWatcher(File directory, GameDatabase database, final ErrorDisplayer errorDisplayer, long settleMillis) throws IOException {
+        this.directory = directory;
+        this.database = database;
+        this.errorDisplayer = new ErrorDisplayer() {
+            @Override public void notify(final String operation, final String error) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override public void run() {
+                        errorDisplayer.notify(operation, error);
+                    }
+                });
+            }
+        };
+        this.settleMillis = settleMillis;
+        watchService = directory.toPath().getFileSystem().newWatchService();
+        directory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE
+                , StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        final Thread thread = new Thread(new Runnable() {
+            @Override public void run() {
+                watch();
+            }
+        }, "Database watcher " + directory);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop watching the directory.
+     * <p/>
+     * A reload that is in progress finishes, but its games are discarded.
+     */
+    @Override public void close() {
+        closed = true;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("Unable to stop watching " + directory + ": " + e);
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                if (!isDatabaseChange(watchService.take())) {
+                    continue;
+                }
+                // wait until the batch is complete
+                WatchKey key;
+                while ((key = watchService.poll(settleMillis, TimeUnit.MILLISECONDS)) != null) {
+                    isDatabaseChange(key);
+                }
+                reload();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // stopped watching
+        }
+    }
+
+    /**
+     * Reset the key and check its events.
+     * <p/>
+     * Events for other files, such as the cache files that reloading writes to the directory, are ignored.
+     *
+     * @return true if any of the events might have changed the games in the directory
+     */
+    private static boolean isDatabaseChange(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || DatabaseCache.isDatabaseFile(event.context().toString())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    private void reload() {
+        if (closed) {
+            return;
+        }
+        log.info("Reloading database " + directory);
+        try {
+            final DatabaseIndex index = DatabaseCache.load(directory, errorDisplayer, NO_PROGRESS);
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override public void run() {
+                    if (!closed) {
+                        database.setIndex(index);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            errorDisplayer.notify("reloading database", e.toString());
+        }
+    }
+}
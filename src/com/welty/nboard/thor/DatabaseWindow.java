@@ -44,6 +44,7 @@ class DatabaseWindow extends JFrame implements TableModelListener {
 
         add(JSwingBuilder.vBox(1,
                 createFilterBoxes(),
+                createPatternBox(),
                 table
         )
         );
@@ -66,10 +67,31 @@ class DatabaseWindow extends JFrame implements TableModelListener {
         final int width = tableModel.getColumnWidth(field);
         input.setPreferredSize(new Dimension(width, 24));
         input.setFont(table.getFont());
+        if (field == DatabaseTableModel.YEAR || field == DatabaseTableModel.RESULT) {
+            input.setToolTipText("Text to match, or a range such as 1995..2005, >=10 or <0");
+        }
         input.getDocument().addDocumentListener(new FilterBoxListener(tableModel, field, input));
         return input;
     }
 
+    /**
+     * Create the box for pattern searches.
+     * <p/>
+     * If the user lists some squares, the window displays the games that reach the displayed contents of those
+     * squares rather than the whole displayed position.
+     */
+    private Grid<Component> createPatternBox() {
+        final JTextField input = new JTextField();
+        input.setPreferredSize(new Dimension(300, 24));
+        input.setFont(table.getFont());
+        input.setToolTipText("Squares that must match the board, for example a1:h1 or a1:b2 g7. Leave empty to match the whole board.");
+        input.getDocument().addDocumentListener(new PatternBoxListener(tableModel, input));
+        final Grid<Component> patternBox = JSwingBuilder.hBox();
+        patternBox.add(new JLabel("Match squares: "));
+        patternBox.add(input);
+        return patternBox;
+    }
+
     /**
      * Invalidate the data area. If all data files have been loaded, show the window
      */
@@ -114,4 +136,40 @@ class DatabaseWindow extends JFrame implements TableModelListener {
             dtm.setFilter(input.getText(), field);
         }
     }
+
+    private static class PatternBoxListener implements DocumentListener {
+        private final DatabaseTableModel dtm;
+        private final JTextField input;
+
+        private PatternBoxListener(DatabaseTableModel dtm, JTextField input) {
+            this.dtm = dtm;
+            this.input = input;
+        }
+
+        @Override public void insertUpdate(DocumentEvent e) {
+            handle();
+        }
+
+        @Override public void removeUpdate(DocumentEvent e) {
+            handle();
+        }
+
+        @Override public void changedUpdate(DocumentEvent e) {
+            handle();
+        }
+
+        /**
+         * Search for the pattern if the text is a valid list of squares; otherwise show it in red and leave the
+         * search unchanged.
+         */
+        private void handle() {
+            try {
+                final long squares = PositionPattern.parseSquares(input.getText());
+                input.setForeground(Color.BLACK);
+                dtm.setPatternSquares(squares);
+            } catch (IllegalArgumentException e) {
+                input.setForeground(Color.RED);
+            }
+        }
+    }
 }
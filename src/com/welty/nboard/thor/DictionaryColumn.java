@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A text column stored as one int per game plus a sorted dictionary of the distinct values.
+ * <p/>
+ * Because the dictionary is sorted, all values that start with a given prefix have consecutive ids,
+ * so a prefix filter resolves to a range of ids and testing a game is an integer comparison.
+ * <p/>
+ * The column can also be inverted into posting lists, from each id to the games that have it, so that the
+ * games matching a filter can be listed without testing every game.
+ */
+final class DictionaryColumn {
+    private final String[] dictionary;
+    private final IntBuffer ids;
+
+    /**
+     * The games with id i are postingGames[postingStarts[i]] ... postingGames[postingStarts[i+1]-1], in
+     * increasing order. Null until the postings are first needed.
+     */
+    private int[] postingStarts;
+    private int[] postingGames;
+
+    /**
+     * Null until numeric order is first needed
+     */
+    private NumericOrder numericOrder;
+
+    DictionaryColumn(String[] dictionary, IntBuffer ids) {
+        this.dictionary = dictionary;
+        this.ids = ids;
+    }
+
+    /**
+     * @param values value of the column for each game
+     */
+    static DictionaryColumn of(String[] values) {
+        // number the distinct values in order of appearance
+        final Map<String, Integer> firstIds = new HashMap<>();
+        final int[] ids = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            Integer id = firstIds.get(values[i]);
+            if (id == null) {
+                id = firstIds.size();
+                firstIds.put(values[i], id);
+            }
+            ids[i] = id;
+        }
+
+        // renumber in sorted order
+        final String[] dictionary = firstIds.keySet().toArray(new String[firstIds.size()]);
+        Arrays.sort(dictionary);
+        final int[] sortedIds = new int[dictionary.length];
+        for (int sortedId = 0; sortedId < dictionary.length; sortedId++) {
+            sortedIds[firstIds.get(dictionary[sortedId])] = sortedId;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = sortedIds[ids[i]];
+        }
+        return new DictionaryColumn(dictionary, IntBuffer.wrap(ids));
+    }
+
+    int nGames() {
+        return ids.limit();
+    }
+
+    int id(int game) {
+        return ids.get(game);
+    }
+
+    String text(int game) {
+        return dictionary[ids.get(game)];
+    }
+
+    int dictionarySize() {
+        return dictionary.length;
+    }
+
+    String dictionaryText(int id) {
+        return dictionary[id];
+    }
+
+    /**
+     * The game ids, for GameStoreFile.
+     */
+    IntBuffer ids() {
+        return ids.duplicate();
+    }
+
+    /**
+     * @return number of games with ids in [startId, endId)
+     */
+    int nGames(int startId, int endId) {
+        final int[] starts = postingStarts();
+        return starts[endId] - starts[startId];
+    }
+
+    /**
+     * Add the games with ids in [startId, endId) to games. They are in increasing order for each id,
+     * but not overall.
+     */
+    void addGames(int startId, int endId, TIntArrayList games) {
+        final int[] starts = postingStarts();
+        games.add(postingGames, starts[startId], starts[endId] - starts[startId]);
+    }
+
+    private synchronized int[] postingStarts() {
+        if (postingStarts == null) {
+            final int nGames = nGames();
+            final int[] starts = new int[dictionary.length + 1];
+            for (int game = 0; game < nGames; game++) {
+                starts[ids.get(game) + 1]++;
+            }
+            for (int id = 0; id < dictionary.length; id++) {
+                starts[id + 1] += starts[id];
+            }
+            final int[] next = Arrays.copyOf(starts, dictionary.length);
+            final int[] games = new int[nGames];
+            for (int game = 0; game < nGames; game++) {
+                games[next[ids.get(game)]++] = game;
+            }
+            postingGames = games;
+            postingStarts = starts;
+        }
+        return postingStarts;
+    }
+
+    /**
+     * Rank of each id when the dictionary is ordered by numeric value.
+     * <p/>
+     * Text that is not a number sorts before all numbers; equal values keep their text order.
+     *
+     * @return rank of each id, in [0, dictionarySize()). The array must not be modified.
+     */
+    int[] numericRanks() {
+        return numericOrder().ranks;
+    }
+
+    /**
+     * @return the id with the given rank in numeric order
+     */
+    int idByNumericRank(int rank) {
+        return numericOrder().ids[rank];
+    }
+
+    /**
+     * @return the first rank in numeric order whose value is at least value, or dictionarySize() if there is none.
+     */
+    int numericRankStart(double value) {
+        final NumericOrder order = numericOrder();
+        return PrimitiveSort.lowerBound(order.keys, order.keys.length, sortableBits(value));
+    }
+
+    private synchronized NumericOrder numericOrder() {
+        if (numericOrder == null) {
+            numericOrder = new NumericOrder(dictionary);
+        }
+        return numericOrder;
+    }
+
+    /**
+     * The dictionary sorted by numeric value
+     */
+    private static final class NumericOrder {
+        /**
+         * sortableBits of the values, in increasing order
+         */
+        final long[] keys;
+        /**
+         * ids, in order of value
+         */
+        final int[] ids;
+        /**
+         * rank of each id
+         */
+        final int[] ranks;
+
+        NumericOrder(String[] dictionary) {
+            keys = new long[dictionary.length];
+            ids = new int[dictionary.length];
+            for (int id = 0; id < dictionary.length; id++) {
+                keys[id] = sortableBits(parse(dictionary[id]));
+                ids[id] = id;
+            }
+            PrimitiveSort.sort(keys, ids, ids.length);
+            ranks = new int[dictionary.length];
+            for (int rank = 0; rank < ids.length; rank++) {
+                ranks[ids[rank]] = rank;
+            }
+        }
+    }
+
+    /**
+     * @return the value of the text, or negative infinity if it isn't a number
+     */
+    private static double parse(String text) {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * @return a long whose signed order is the numeric order of the value
+     */
+    private static long sortableBits(double value) {
+        final long bits = Double.doubleToLongBits(value);
+        return bits < 0 ? bits ^ Long.MAX_VALUE : bits;
+    }
+
+    /**
+     * @return the smallest id whose text starts with prefix, or the first id after them if there are none.
+     */
+    int prefixStart(String prefix) {
+        int lo = 0;
+        int hi = dictionary.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (dictionary[mid].compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return one more than the largest id whose text starts with prefix.
+     */
+    int prefixEnd(String prefix) {
+        int lo = prefixStart(prefix);
+        int hi = dictionary.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (dictionary[mid].startsWith(prefix)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
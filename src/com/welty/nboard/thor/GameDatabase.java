@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.welty.othello.thor.DatabaseData;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The games displayed in the database window.
+ * <p/>
+ * The games either follow a DatabaseData, in which case they are re-indexed whenever it changes,
+ * or are read from a GameStoreFile.
+ * <p/>
+ * The index is immutable and is replaced as a whole, so lookups read whichever index was current when they
+ * started without taking a lock. Listeners are notified on the event dispatch thread, whichever thread
+ * replaced the index.
+ */
+final class GameDatabase {
+    /**
+     * The GameDatabase following each DatabaseData, so that the loader and the database window share it
+     */
+    private static final Map<DatabaseData, WeakReference<GameDatabase>> followers = new WeakHashMap<>();
+
+    private volatile DatabaseIndex index = DatabaseIndex.EMPTY;
+    private final List<DatabaseData.Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The DatabaseData this follows, or null if it doesn't follow one
+     */
+    private final @Nullable DatabaseData source;
+
+    /**
+     * True while the source is being changed by update(); its change notifications are ignored until then.
+     */
+    private volatile boolean updating = false;
+
+    GameDatabase() {
+        this(null);
+    }
+
+    private GameDatabase(@Nullable DatabaseData source) {
+        this.source = source;
+    }
+
+    /**
+     * Get the GameDatabase that is re-indexed whenever databaseData changes, creating it if there is none.
+     */
+    static synchronized GameDatabase following(final DatabaseData databaseData) {
+        final WeakReference<GameDatabase> existing = followers.get(databaseData);
+        if (existing != null && existing.get() != null) {
+            return existing.get();
+        }
+        final GameDatabase gameDatabase = new GameDatabase(databaseData);
+        gameDatabase.index = DatabaseIndex.of(databaseData);
+        databaseData.addListener(new DatabaseData.Listener() {
+            @Override public void databaseChanged() {
+                if (!gameDatabase.updating) {
+                    gameDatabase.setIndex(DatabaseIndex.of(databaseData));
+                }
+            }
+        });
+        followers.put(databaseData, new WeakReference<>(gameDatabase));
+        return gameDatabase;
+    }
+
+    /**
+     * Change the DatabaseData that this follows, and publish the result with a single notification.
+     * <p/>
+     * Until the change is complete, lookups keep using the previous index. It is detached from the DatabaseData
+     * first so that it doesn't read games that are being replaced.
+     *
+     * @param change code that changes the DatabaseData
+     */
+    void update(Runnable change) {
+        update(change, null);
+    }
+
+    /**
+     * Change the DatabaseData that this follows, and publish the result with a single notification.
+     *
+     * @param change  code that changes the DatabaseData
+     * @param sources the files that the new games came from, if known
+     */
+    void update(Runnable change, @Nullable GameSources sources) {
+        if (source == null) {
+            throw new IllegalStateException("This GameDatabase doesn't follow a DatabaseData");
+        }
+        index.detachSource();
+        updating = true;
+        try {
+            change.run();
+        } finally {
+            updating = false;
+        }
+        final DatabaseIndex updated = DatabaseIndex.of(source);
+        if (sources != null) {
+            updated.setSources(sources.sources(updated.games, updated.columns[DatabaseIndex.RESULT]));
+        }
+        setIndex(updated);
+    }
+
+    DatabaseIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Replace the games and notify listeners on the event dispatch thread.
+     * <p/>
+     * The games are replaced immediately, so getIndex() returns the new games before the listeners run.
+     */
+    void setIndex(DatabaseIndex index) {
+        this.index = index;
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override public void run() {
+                for (DatabaseData.Listener listener : listeners) {
+                    listener.databaseChanged();
+                }
+            }
+        });
+    }
+
+    void addListener(DatabaseData.Listener listener) {
+        listeners.add(listener);
+    }
+}
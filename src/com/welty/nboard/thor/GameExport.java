@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+package com.welty.nboard.thor;
+
+import com.welty.othello.gdk.OsMoveListItem;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a selection of games from a DatabaseIndex as GGF text or as Thor binary files.
+ * <p/>
+ * Records are encoded directly from the compact GameStore and the dictionary columns and written through a
+ * BufferedChannelWriter, rather than building a COsGame and its text for each game.
+ * <p/>
+ * The Thor format can only hold games from the standard start position, so other games are left out of Thor
+ * files. Evals and times of moves are not written.
+ */
+final class GameExport {
+    /**
+     * Size of the header of all Thor files
+     */
+    static final int THOR_HEADER_SIZE = 16;
+    /**
+     * Size of a game record in a Thor games (.wtb) file
+     */
+    static final int THOR_GAME_SIZE = 68;
+    /**
+     * Size of a name in a Thor players (.jou) file, including the terminating 0
+     */
+    static final int THOR_PLAYER_SIZE = 20;
+    /**
+     * Size of a name in a Thor tournaments (.trn) file, including the terminating 0
+     */
+    static final int THOR_TOURNAMENT_SIZE = 26;
+    /**
+     * Thor players and tournaments are numbered by unsigned 16-bit integers
+     */
+    private static final int MAX_THOR_NAMES = 0xFFFF;
+
+    private final DatabaseIndex index;
+    private final int[] games;
+    private final StringBuilder record = new StringBuilder();
+
+    /**
+     * @param games the games to write, in the order they are written
+     */
+    GameExport(DatabaseIndex index, int[] games) {
+        this.index = index;
+        this.games = games;
+    }
+
+    /**
+     * Write the games to a GGF file, one game per line
+     *
+     * @return number of games written
+     */
+    int writeGgf(WritableByteChannel channel) throws IOException {
+        final BufferedChannelWriter out = new BufferedChannelWriter(channel);
+        for (int game : games) {
+            ggfRecord(game);
+            out.utf8(record);
+        }
+        out.flush();
+        return games.length;
+    }
+
+    /**
+     * Fill record with the GGF text of a game, including the line feed
+     */
+    private void ggfRecord(int game) {
+        record.setLength(0);
+        appendGgf(record, index, game, false);
+        record.append('\n');
+    }
+
+    /**
+     * Generate GGF text for a game from the compact store and the text columns, for games whose original
+     * text isn't available. The text includes the evals and elapsed times of the moves, if the store has them.
+     */
+    static String ggfText(DatabaseIndex index, int game) {
+        final StringBuilder text = new StringBuilder();
+        appendGgf(text, index, game, true);
+        return text.toString();
+    }
+
+    /**
+     * @param sideColumns if true, and the store has them, moves are written with their evals and elapsed times
+     */
+    private static void appendGgf(StringBuilder record, DatabaseIndex index, int game, boolean sideColumns) {
+        record.append("(;GM[Othello]");
+        ggfField(record, "PC", index.text(game, DatabaseIndex.PLACE));
+        final int year = year(index, game);
+        if (year > 0) {
+            // GGF has no field for the year alone
+            record.append("DT[").append(year).append(".01.01_00:00:00.GMT]");
+        }
+        ggfField(record, "PB", index.text(game, DatabaseIndex.BLACK));
+        ggfField(record, "PW", index.text(game, DatabaseIndex.WHITE));
+        final int result = index.result(game);
+        record.append("RE[").append(result >= 0 ? "+" : "").append(result).append(".000]");
+        final GameStore store = index.games;
+        final BitPosition start = store.start(game);
+        record.append("TY[8]BO[8");
+        final String board = start.boardText();
+        for (int row = 0; row < 8; row++) {
+            record.append(' ').append(board, 8 * row, 8 * row + 8);
+        }
+        record.append(start.isBlackToMove() ? " *]" : " O]");
+
+        // stored games don't record passes, so replay the game to find them.
+        final boolean withSideColumns = sideColumns && store.hasSideColumns();
+        boolean blackToMove = start.isBlackToMove();
+        long mover = blackToMove ? start.black() : start.white();
+        long enemy = blackToMove ? start.white() : start.black();
+        final int nMoves = store.nMoves(game);
+        for (int i = 0; i < nMoves; i++) {
+            final int sq = store.move(game, i);
+            long flips = BitBoards.flips(mover, enemy, sq);
+            if (flips == 0) {
+                record.append(blackToMove ? "B" : "W").append("[PA]");
+                final long swap = mover;
+                mover = enemy;
+                enemy = swap;
+                blackToMove = !blackToMove;
+                flips = BitBoards.flips(mover, enemy, sq);
+                if (flips == 0) {
+                    break;
+                }
+            }
+            record.append(blackToMove ? "B[" : "W[").append(BitBoards.squareName(sq));
+            if (withSideColumns) {
+                final OsMoveListItem mli = store.moveListItem(game, i);
+                record.append('/').append(mli.hasEval() ? decimal(mli.getEval()) : "");
+                record.append('/').append(decimal(mli.getElapsedTime()));
+            }
+            record.append(']');
+            final long newMover = mover | flips | (1L << sq);
+            mover = enemy & ~flips;
+            enemy = newMover;
+            blackToMove = !blackToMove;
+        }
+        record.append(";)");
+    }
+
+    /**
+     * @return the number as a plain decimal, without an exponent, or "" if it is not finite
+     */
+    private static String decimal(double x) {
+        if (Double.isNaN(x) || Double.isInfinite(x)) {
+            return "";
+        }
+        // evals and times are stored as floats; Float.toString gives the shortest text that reads back the same
+        return new BigDecimal(Float.toString((float) x)).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Append a GGF text field. ']' would end the field early so it is left out.
+     */
+    private static void ggfField(StringBuilder record, String tag, String text) {
+        record.append(tag).append('[');
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c != ']') {
+                record.append(c);
+            }
+        }
+        record.append(']');
+    }
+
+    /**
+     * Write the games as a Thor database: a games file and the players and tournaments files it refers to.
+     * <p/>
+     * Players and tournaments are numbered in order of first appearance in the exported games. Thor files have no
+     * place for the theoretical score, so it is set to the actual score, as Thor does for unsolved games. The
+     * header's year is the year of the first game.
+     *
+     * @return number of games written
+     * @throws IOException if the games can't be written or have more than 65535 distinct players or tournaments
+     */
+    int writeThor(WritableByteChannel wtb, WritableByteChannel players, WritableByteChannel tournaments) throws IOException {
+        final ThorNames playerNames = new ThorNames(index.columns[DatabaseIndex.BLACK], index.columns[DatabaseIndex.WHITE]);
+        final ThorNames tournamentNames = new ThorNames(index.columns[DatabaseIndex.PLACE]);
+        int nWritten = 0;
+        int year = 0;
+        for (int game : games) {
+            if (index.games.isRegular(game)) {
+                playerNames.add(0, game);
+                playerNames.add(1, game);
+                tournamentNames.add(0, game);
+                if (nWritten == 0) {
+                    year = Math.max(0, year(index, game));
+                }
+                nWritten++;
+            }
+        }
+
+        final BufferedChannelWriter out = new BufferedChannelWriter(wtb);
+        writeThorHeader(out, nWritten, 0, year);
+        final GameStore store = index.games;
+        for (int game : games) {
+            if (store.isRegular(game)) {
+                out.putShort(tournamentNames.number(0, game));
+                out.putShort(playerNames.number(0, game));
+                out.putShort(playerNames.number(1, game));
+                final int blackDiscs = Math.max(0, Math.min(64, (64 + index.result(game)) / 2));
+                out.putByte(blackDiscs);
+                out.putByte(blackDiscs);
+                final int nMoves = Math.min(store.nMoves(game), 60);
+                for (int i = 0; i < nMoves; i++) {
+                    final int sq = store.move(game, i);
+                    out.putByte(10 * ((sq >> 3) + 1) + (sq & 7) + 1);
+                }
+                for (int i = nMoves; i < 60; i++) {
+                    out.putByte(0);
+                }
+            }
+        }
+        out.flush();
+
+        playerNames.write(players, THOR_PLAYER_SIZE);
+        tournamentNames.write(tournaments, THOR_TOURNAMENT_SIZE);
+        return nWritten;
+    }
+
+    /**
+     * @return the year the game was played, or 0 if it isn't known
+     */
+    private static int year(DatabaseIndex index, int game) {
+        try {
+            return Integer.parseInt(index.text(game, DatabaseIndex.YEAR).trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Write the header shared by all Thor files
+     *
+     * @param nGames   number of records in a games file, 0 in other files
+     * @param nRecords number of records in a players or tournaments file, 0 in a games file
+     * @param year     year the games were played
+     */
+    private static void writeThorHeader(BufferedChannelWriter out, int nGames, int nRecords, int year) throws IOException {
+        final Calendar now = Calendar.getInstance();
+        out.putByte(now.get(Calendar.YEAR) / 100);
+        out.putByte(now.get(Calendar.YEAR) % 100);
+        out.putByte(now.get(Calendar.MONTH) + 1);
+        out.putByte(now.get(Calendar.DAY_OF_MONTH));
+        out.putInt(nGames);
+        out.putShort(nRecords);
+        out.putShort(year);
+        out.putByte(8); // board size
+        out.putByte(0); // game type
+        out.putByte(0); // depth of the theoretical score
+        out.putByte(0); // reserved
+    }
+
+    /**
+     * Numbers the distinct names of one or more columns, for a Thor players or tournaments file
+     */
+    private static final class ThorNames {
+        private final DictionaryColumn[] columns;
+        /**
+         * For each column, the Thor number of each id in the column's dictionary, or -1 if it hasn't been used
+         */
+        private final int[][] numbers;
+        private final Map<String, Integer> numbersByName = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+
+        ThorNames(DictionaryColumn... columns) {
+            this.columns = columns;
+            numbers = new int[columns.length][];
+            for (int c = 0; c < columns.length; c++) {
+                numbers[c] = new int[columns[c].dictionarySize()];
+                Arrays.fill(numbers[c], -1);
+            }
+        }
+
+        void add(int iColumn, int game) throws IOException {
+            final int id = columns[iColumn].id(game);
+            if (numbers[iColumn][id] < 0) {
+                final String name = columns[iColumn].dictionaryText(id);
+                Integer number = numbersByName.get(name);
+                if (number == null) {
+                    if (names.size() == MAX_THOR_NAMES) {
+                        throw new IOException("Too many distinct names for a Thor file: more than " + MAX_THOR_NAMES);
+                    }
+                    number = names.size();
+                    numbersByName.put(name, number);
+                    names.add(name);
+                }
+                numbers[iColumn][id] = number;
+            }
+        }
+
+        int number(int iColumn, int game) {
+            return numbers[iColumn][columns[iColumn].id(game)];
+        }
+
+        /**
+         * Write the names as fixed-size, zero-terminated Latin-1 records. Names that don't fit are truncated.
+         */
+        void write(WritableByteChannel channel, int recordSize) throws IOException {
+            final BufferedChannelWriter out = new BufferedChannelWriter(channel);
+            writeThorHeader(out, 0, names.size(), 0);
+            for (String name : names) {
+                final byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+                final int n = Math.min(bytes.length, recordSize - 1);
+                for (int i = 0; i < recordSize; i++) {
+                    out.putByte(i < n ? bytes[i] : 0);
+                }
+            }
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+package com.welty.nboard.thor;
+
+import com.welty.othello.thor.DatabaseData;
+import com.welty.othello.thor.GgfGameText;
+import com.welty.othello.thor.ThorGameInternal;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Removes duplicate games while files are loaded, and remembers which files each remaining game came from.
+ * <p/>
+ * Two games are duplicates if they have the same result and the same moves up to a reflection of the board,
+ * since Thor games always start F5 while GGS games may start with any of the four opening moves. Games that
+ * don't start from the standard start position are never treated as duplicates.
+ * <p/>
+ * The sources of a game are a bitmask with bit i set if the game was in the i'th file loaded. Files after the
+ * 63rd share bit 63.
+ */
+final class GameSources {
+    /**
+     * Sources of each distinct game seen so far, by key()
+     */
+    private final Map<String, Long> sources = new HashMap<>();
+    private int nDuplicates;
+
+    /**
+     * @return the Thor games in the file that haven't been seen before
+     */
+    List<ThorGameInternal> removeDuplicateThorGames(List<ThorGameInternal> games, int iSource) {
+        final DatabaseData probe = new DatabaseData();
+        probe.setThorGames(new ArrayList<>(games));
+        final boolean[] isNew = add(probe, games.size(), iSource);
+        final List<ThorGameInternal> unique = new ArrayList<>();
+        for (int i = 0; i < games.size(); i++) {
+            if (isNew[i]) {
+                unique.add(games.get(i));
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * @return the GGF games in the file that haven't been seen before
+     */
+    ArrayList<GgfGameText> removeDuplicateGgfGames(ArrayList<GgfGameText> gameTexts, int iSource) {
+        final DatabaseData probe = new DatabaseData();
+        probe.addGgfGames(gameTexts);
+        final boolean[] isNew = add(probe, gameTexts.size(), iSource);
+        final ArrayList<GgfGameText> unique = new ArrayList<>();
+        for (int i = 0; i < gameTexts.size(); i++) {
+            if (isNew[i]) {
+                unique.add(gameTexts.get(i));
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Record the games of a file, read through a DatabaseData that holds only that file's games.
+     *
+     * @return for each game, true if it hasn't been seen before. If the DatabaseData doesn't hold exactly nGames
+     * games, they can't be matched up with the file's games, so all of them are kept.
+     */
+    private boolean[] add(DatabaseData probe, int nGames, int iSource) {
+        final boolean[] isNew = new boolean[nGames];
+        if (probe.NGames() != nGames) {
+            Arrays.fill(isNew, true);
+            return isNew;
+        }
+        final GameStore games = GameStore.of(probe, false);
+        for (int game = 0; game < nGames; game++) {
+            isNew[game] = add(games, game, DatabaseIndex.parseResult(probe.GameItemText(game, DatabaseIndex.RESULT)), iSource);
+        }
+        return isNew;
+    }
+
+    /**
+     * Record a game of the iSource'th file
+     *
+     * @param result black discs - white discs at the end of the game
+     * @return true if the game hasn't been seen before
+     */
+    boolean add(GameStore games, int game, int result, int iSource) {
+        return add(key(games, game, result), iSource);
+    }
+
+    /**
+     * Record a game of the iSource'th file
+     *
+     * @param key the game's key(), or null if it isn't checked for duplicates
+     * @return true if the game hasn't been seen before
+     */
+    boolean add(@Nullable String key, int iSource) {
+        if (key == null) {
+            return true;
+        }
+        final long bit = bit(iSource);
+        final Long previous = sources.get(key);
+        if (previous == null) {
+            sources.put(key, bit);
+            return true;
+        }
+        sources.put(key, previous | bit);
+        nDuplicates++;
+        return false;
+    }
+
+    /**
+     * @return the bit for the iSource'th file in a game's sources
+     */
+    static long bit(int iSource) {
+        return 1L << Math.min(iSource, 63);
+    }
+
+    /**
+     * @return number of games that were removed because an earlier copy had been seen
+     */
+    int nDuplicates() {
+        return nDuplicates;
+    }
+
+    /**
+     * @return the sources of each game in the store, 0 for games that weren't recorded here
+     */
+    long[] sources(GameStore games, DictionaryColumn results) {
+        final long[] gameSources = new long[games.nGames()];
+        for (int game = 0; game < gameSources.length; game++) {
+            gameSources[game] = sources(key(games, game, DatabaseIndex.parseResult(results.text(game))));
+        }
+        return gameSources;
+    }
+
+    /**
+     * @param key a game's key()
+     * @return the sources of the game, 0 if it wasn't recorded here
+     */
+    long sources(@Nullable String key) {
+        final Long bits = key == null ? null : sources.get(key);
+        return bits == null ? 0 : bits;
+    }
+
+    /**
+     * The moves are reflected by whichever of the 8 reflections makes the move sequence smallest, so that
+     * reflected copies of a game get the same key.
+     *
+     * @param result black discs - white discs at the end of the game
+     * @return a key that is equal for duplicate games, or null if the game doesn't start from the start position
+     */
+    static @Nullable String key(GameStore games, int game, int result) {
+        if (!games.isRegular(game)) {
+            return null;
+        }
+        final int nMoves = games.nMoves(game);
+        int best = Symmetry.IDENTITY;
+        for (int r = 0; r < Symmetry.N_REFLECTIONS; r++) {
+            for (int i = 0; i < nMoves; i++) {
+                final int diff = Symmetry.reflectSquare(r, games.move(game, i)) - Symmetry.reflectSquare(best, games.move(game, i));
+                if (diff != 0) {
+                    if (diff < 0) {
+                        best = r;
+                    }
+                    break;
+                }
+            }
+        }
+        final StringBuilder sb = new StringBuilder(nMoves + 8);
+        for (int i = 0; i < nMoves; i++) {
+            sb.append((char) Symmetry.reflectSquare(best, games.move(game, i)));
+        }
+        return sb.append('\t').append(result).toString();
+    }
+}
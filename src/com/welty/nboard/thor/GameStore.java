@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.welty.othello.gdk.COsGame;
+import com.welty.othello.gdk.OsMove;
+import com.welty.othello.gdk.OsMoveListItem;
+import com.welty.othello.thor.DatabaseData;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Compact copy of the move lists of all games in a database.
+ * <p/>
+ * Each move takes one byte, the square number as defined in BitBoards. Passes are not stored; BitPosition.play()
+ * recovers them when the game is replayed. Game numbers are the same as the DatabaseData game indices.
+ * <p/>
+ * Games that don't start from the standard start position are marked irregular, and their start position is stored
+ * with their moves. Lookups only index regular games, but irregular games keep their moves so that they can be
+ * displayed, saved and exported.
+ * <p/>
+ * The evals and elapsed times of the moves are optional side columns with one float per stored move. They are
+ * only kept when the store is going to be saved, since they take 8 times as much space as the moves themselves.
+ * <p/>
+ * The data is held in buffers so that a store can be used directly from a memory-mapped GameStoreFile.
+ */
+final class GameStore {
+    private final ByteBuffer moves;
+    /**
+     * Moves for game g are stored in moves[offsets[g]] ... moves[offsets[g+1]-1]
+     */
+    private final IntBuffer offsets;
+    private final BitSet irregular;
+    /**
+     * Start positions of the irregular games, in game order: black discs, white discs, and 1 if black is to move
+     */
+    private final LongBuffer starts;
+    /**
+     * Numbers of the irregular games, in increasing order; irregularGames[i] starts from the i'th start position
+     */
+    private final int[] irregularGames;
+    /**
+     * Eval of each stored move, NaN if the move has no eval. Null if evals were not kept.
+     */
+    private final @Nullable FloatBuffer evals;
+    /**
+     * Elapsed time of each stored move, in seconds. Null if times were not kept.
+     */
+    private final @Nullable FloatBuffer times;
+
+    GameStore(ByteBuffer moves, IntBuffer offsets, BitSet irregular, LongBuffer starts, @Nullable FloatBuffer evals
+            , @Nullable FloatBuffer times) {
+        this.moves = moves;
+        this.offsets = offsets;
+        this.irregular = irregular;
+        this.starts = starts;
+        this.irregularGames = new int[irregular.cardinality()];
+        for (int i = 0, game = irregular.nextSetBit(0); game >= 0; i++, game = irregular.nextSetBit(game + 1)) {
+            irregularGames[i] = game;
+        }
+        if (starts.limit() != 3 * irregularGames.length) {
+            throw new IllegalArgumentException("Expected " + irregularGames.length + " start positions, got " + starts.limit() / 3);
+        }
+        this.evals = evals;
+        this.times = times;
+    }
+
+    /**
+     * Copy the move lists of all games out of the database
+     *
+     * @param keepSideColumns if true, the evals and elapsed times of the moves are copied as well
+     */
+    static GameStore of(DatabaseData databaseData, boolean keepSideColumns) {
+        final int nGames = databaseData.NGames();
+        final Builder builder = new Builder(keepSideColumns);
+        for (int i = 0; i < nGames; i++) {
+            builder.add(databaseData.GameFromIndex(i));
+        }
+        return builder.build();
+    }
+
+    int nGames() {
+        return offsets.limit() - 1;
+    }
+
+    /**
+     * @return total number of moves stored, in all games
+     */
+    int nStoredMoves() {
+        return offsets.get(nGames());
+    }
+
+    int nMoves(int game) {
+        return offsets.get(game + 1) - offsets.get(game);
+    }
+
+    /**
+     * @return square of the iMove'th disc placed in the game
+     */
+    int move(int game, int iMove) {
+        return moves.get(offsets.get(game) + iMove);
+    }
+
+    /**
+     * @return true if the game starts from the standard start position
+     */
+    boolean isRegular(int game) {
+        return !irregular.get(game);
+    }
+
+    /**
+     * @return the position the game starts from
+     */
+    BitPosition start(int game) {
+        if (!irregular.get(game)) {
+            return BitPosition.start();
+        }
+        final int i = 3 * Arrays.binarySearch(irregularGames, game);
+        return new BitPosition(starts.get(i), starts.get(i + 1), starts.get(i + 2) != 0);
+    }
+
+    /**
+     * @return number of games that don't start from the standard start position
+     */
+    int nIrregular() {
+        return irregularGames.length;
+    }
+
+    boolean hasSideColumns() {
+        return evals != null;
+    }
+
+    /**
+     * @return the iMove'th disc placed in the game, with its eval and elapsed time if they were kept.
+     */
+    OsMoveListItem moveListItem(int game, int iMove) {
+        final int sq = move(game, iMove);
+        final OsMove move = new OsMove(sq >> 3, sq & 7);
+        if (evals == null || times == null) {
+            return new OsMoveListItem(move);
+        }
+        final int i = offsets.get(game) + iMove;
+        return new OsMoveListItem(move, evals.get(i), times.get(i));
+    }
+
+    /**
+     * @return eval of the iMove'th disc placed in the game, or NaN if it has none or the store has no evals
+     */
+    float eval(int game, int iMove) {
+        return evals == null ? Float.NaN : evals.get(offsets.get(game) + iMove);
+    }
+
+    /**
+     * @return elapsed time of the iMove'th disc placed in the game, or 0 if the store has no times
+     */
+    float time(int game, int iMove) {
+        return times == null ? 0 : times.get(offsets.get(game) + iMove);
+    }
+
+    /**
+     * The underlying buffers, for GameStoreFile.
+     */
+    ByteBuffer moves() {
+        return moves.duplicate();
+    }
+
+    IntBuffer offsets() {
+        return offsets.duplicate();
+    }
+
+    BitSet irregular() {
+        return irregular;
+    }
+
+    LongBuffer starts() {
+        return starts.duplicate();
+    }
+
+    @Nullable FloatBuffer evals() {
+        return evals == null ? null : evals.duplicate();
+    }
+
+    @Nullable FloatBuffer times() {
+        return times == null ? null : times.duplicate();
+    }
+
+    static class Builder {
+        private final boolean keepSideColumns;
+        private byte[] moves = new byte[1024];
+        private float[] evals;
+        private float[] times;
+        private int nMoves = 0;
+        private int[] offsets = new int[64];
+        private int nGames = 0;
+        private final BitSet irregular = new BitSet();
+        private long[] starts = new long[0];
+        private int nStarts = 0;
+
+        Builder() {
+            this(false);
+        }
+
+        /**
+         * @param keepSideColumns if true, the store keeps the eval and elapsed time of each move added by add(COsGame)
+         */
+        Builder(boolean keepSideColumns) {
+            this.keepSideColumns = keepSideColumns;
+            if (keepSideColumns) {
+                evals = new float[moves.length];
+                times = new float[moves.length];
+            }
+        }
+
+        /**
+         * Add a game from the standard start position
+         *
+         * @param squares squares of the moves, not including passes
+         */
+        Builder add(int... squares) {
+            ensureCapacity(squares.length);
+            for (int sq : squares) {
+                if (keepSideColumns) {
+                    evals[nMoves] = Float.NaN;
+                }
+                moves[nMoves++] = (byte) sq;
+            }
+            endGame();
+            return this;
+        }
+
+        /**
+         * Add a game from any start position
+         *
+         * @param squares squares of the moves, not including passes
+         */
+        Builder add(BitPosition start, int... squares) {
+            if (!start.equals(BitPosition.start())) {
+                addStart(start);
+            }
+            return add(squares);
+        }
+
+        Builder add(COsGame game) {
+            final BitPosition start = BitPosition.of(game.getStartPosition().board);
+            if (!start.equals(BitPosition.start())) {
+                addStart(start);
+            }
+            final int n = game.nMoves();
+            ensureCapacity(n);
+            for (int i = 0; i < n; i++) {
+                final OsMoveListItem mli = game.getMli(i);
+                final OsMove move = mli.move;
+                if (!move.isPass()) {
+                    if (keepSideColumns) {
+                        evals[nMoves] = mli.hasEval() ? (float) mli.getEval() : Float.NaN;
+                        times[nMoves] = (float) mli.getElapsedTime();
+                    }
+                    moves[nMoves++] = (byte) BitBoards.square(move.row(), move.col());
+                }
+            }
+            endGame();
+            return this;
+        }
+
+        /**
+         * Add a copy of a game from another store
+         */
+        Builder add(GameStore store, int game) {
+            if (!store.isRegular(game)) {
+                addStart(store.start(game));
+            }
+            final int n = store.nMoves(game);
+            ensureCapacity(n);
+            final int offset = store.offsets.get(game);
+            for (int i = 0; i < n; i++) {
+                if (keepSideColumns) {
+                    evals[nMoves] = store.evals == null ? Float.NaN : store.evals.get(offset + i);
+                    times[nMoves] = store.times == null ? 0 : store.times.get(offset + i);
+                }
+                moves[nMoves++] = store.moves.get(offset + i);
+            }
+            endGame();
+            return this;
+        }
+
+        /**
+         * Mark the game being added as irregular, starting from the given position
+         */
+        private void addStart(BitPosition start) {
+            irregular.set(nGames);
+            if (3 * nStarts + 3 > starts.length) {
+                starts = Arrays.copyOf(starts, Math.max(3 * nStarts + 3, starts.length * 2));
+            }
+            starts[3 * nStarts] = start.black();
+            starts[3 * nStarts + 1] = start.white();
+            starts[3 * nStarts + 2] = start.isBlackToMove() ? 1 : 0;
+            nStarts++;
+        }
+
+        private void endGame() {
+            if (nGames + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            nGames++;
+            offsets[nGames] = nMoves;
+        }
+
+        private void ensureCapacity(int n) {
+            if (nMoves + n > moves.length) {
+                final int capacity = Math.max(moves.length * 2, nMoves + n);
+                moves = Arrays.copyOf(moves, capacity);
+                if (keepSideColumns) {
+                    evals = Arrays.copyOf(evals, capacity);
+                    times = Arrays.copyOf(times, capacity);
+                }
+            }
+        }
+
+        GameStore build() {
+            final FloatBuffer evalBuffer = keepSideColumns ? FloatBuffer.wrap(Arrays.copyOf(evals, nMoves)) : null;
+            final FloatBuffer timeBuffer = keepSideColumns ? FloatBuffer.wrap(Arrays.copyOf(times, nMoves)) : null;
+            return new GameStore(ByteBuffer.wrap(Arrays.copyOf(moves, nMoves)), IntBuffer.wrap(Arrays.copyOf(offsets, nGames + 1))
+                    , irregular, LongBuffer.wrap(Arrays.copyOf(starts, 3 * nStarts)), evalBuffer, timeBuffer);
+        }
+    }
+}
@@ -0,0 +1,563 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.welty.othello.thor.DatabaseData;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Binary file holding a DatabaseIndex's games: one byte per move, dictionary-encoded text columns,
+ * and the optional eval and elapsed time columns.
+ * <p/>
+ * The file is memory-mapped when read. The moves, offsets, column ids, side columns, GGF texts and position index
+ * are used in place, so opening a database is quick and the bulk of it stays off the Java heap; only the column
+ * dictionaries are decoded. All numbers are big-endian, and every section starts on a 4-byte boundary.
+ * <p/>
+ * The file is mapped as a single buffer and its offsets are ints, so it can be at most MAX_SIZE bytes. Writing a
+ * larger store fails with an IOException rather than producing a file that can't be read.
+ * <p/>
+ * Layout:
+ * <pre>
+ * int magic, int version
+ * int nGames, int nStoredMoves,
+ * int flags (1 = side columns present, 2 = sources present, 4 = GGF texts present, 8 = position index present)
+ * int[nGames+1] offsets
+ * int nWords, long[nWords] irregular game bitset
+ * long[3 * number of irregular games] start positions of the irregular games: black, white, 1 if black to move
+ * byte[nStoredMoves] moves, padded to a multiple of 4
+ * float[nStoredMoves] evals, float[nStoredMoves] times (if flags & 1)
+ * for each of the N_FIELDS columns:
+ *   int dictionarySize, then for each entry int length + UTF-8 bytes, padded to a multiple of 4
+ *   int[nGames] ids
+ * long[nGames] sources of each game, as in DatabaseIndex.sources() (if flags & 2)
+ * int[nGames+1] text offsets, byte[] UTF-8 GGF text of the games, padded to a multiple of 4 (if flags & 4)
+ * int nPostings, long[nPostings] hashes, int[nPostings] postings of the PositionIndex (if flags & 8)
+ * </pre>
+ */
+final class GameStoreFile {
+    private static final int MAGIC = 0x4e42474d; // "NBGM"
+    private static final int VERSION = 2;
+    private static final int SIDE_COLUMNS = 1;
+    private static final int SOURCES = 2;
+    private static final int TEXTS = 4;
+    private static final int POSITIONS = 8;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Largest store file that can be mapped as a single buffer
+     */
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * Number of games converted from a DatabaseData at a time by spill()
+     */
+    private static final int SPILL_CHUNK_SIZE = 4096;
+
+    private GameStoreFile() {
+    }
+
+    /**
+     * Write games and their text columns to a file
+     *
+     * @param columns text columns, indexed by field as in DatabaseIndex
+     */
+    static void write(File file, GameStore games, DictionaryColumn[] columns) throws IOException {
+        write(file, games, columns, null);
+    }
+
+    /**
+     * Write games, their text columns and the files they came from to a file
+     *
+     * @param columns text columns, indexed by field as in DatabaseIndex
+     * @param sources for each game, a bitmask of the files it was loaded from, or null if that isn't known
+     */
+    static void write(File file, GameStore games, DictionaryColumn[] columns, @Nullable long[] sources) throws IOException {
+        write(file, games, columns, sources, null);
+    }
+
+    /**
+     * Write games, their text columns, the files they came from and their GGF text to a file
+     *
+     * @param columns text columns, indexed by field as in DatabaseIndex
+     * @param sources for each game, a bitmask of the files it was loaded from, or null if that isn't known
+     * @param texts   GGF text of each game, or null if the games have none
+     */
+    static void write(File file, GameStore games, DictionaryColumn[] columns, @Nullable long[] sources
+            , @Nullable GameTexts texts) throws IOException {
+        try (Writer writer = new Writer(file, games.hasSideColumns(), texts != null)) {
+            final String[] values = new String[DatabaseIndex.N_FIELDS];
+            for (int game = 0; game < games.nGames(); game++) {
+                for (int field = 0; field < values.length; field++) {
+                    values[field] = columns[field].text(game);
+                }
+                writer.add(games, game, values, texts == null ? "" : texts.text(game));
+            }
+            writer.finish(sources);
+        }
+    }
+
+    private static void pad(DataOutputStream out, int length) throws IOException {
+        for (int i = length; (i & 3) != 0; i++) {
+            out.writeByte(0);
+        }
+    }
+
+    /**
+     * Writes a game store file one game at a time, so that a database can be written as it is loaded rather than
+     * being built on the heap first.
+     * <p/>
+     * Each section is written to its own temporary file next to the store file, and finish() joins them. Only the
+     * distinct values of the text columns, the irregular game bitset and, while it is sorted, the position index
+     * are held on the heap.
+     */
+    static final class Writer implements Closeable {
+        private final File file;
+        private final boolean sideColumns;
+        private final boolean texts;
+        private final long maxSize;
+        private final List<Section> sections = new ArrayList<>();
+        private final Section offsets;
+        private final Section starts;
+        private final Section moves;
+        private final Section evals;
+        private final Section times;
+        private final Section textOffsets;
+        private final Section textBytes;
+        /**
+         * For each field, the id of each game's value in order of first appearance; finish() renumbers them
+         */
+        private final Section[] ids = new Section[DatabaseIndex.N_FIELDS];
+        private final List<Map<String, Integer>> firstIds = new ArrayList<>();
+        private final BitSet irregular = new BitSet();
+        private int nGames = 0;
+        private int nStoredMoves = 0;
+        private int nTextBytes = 0;
+        private boolean finished = false;
+
+        /**
+         * @param sideColumns if true, the evals and elapsed times of the moves are written
+         * @param texts       if true, the GGF text of the games is written
+         * @throws IOException if the temporary files can't be created next to the store file
+         */
+        Writer(File file, boolean sideColumns, boolean texts) throws IOException {
+            this(file, sideColumns, texts, MAX_SIZE);
+        }
+
+        /**
+         * @param maxSize largest store file to write, in bytes
+         */
+        Writer(File file, boolean sideColumns, boolean texts, long maxSize) throws IOException {
+            this.file = file;
+            this.sideColumns = sideColumns;
+            this.texts = texts;
+            this.maxSize = maxSize;
+            try {
+                offsets = section();
+                starts = section();
+                moves = section();
+                evals = section();
+                times = section();
+                textOffsets = section();
+                textBytes = section();
+                for (int field = 0; field < ids.length; field++) {
+                    ids[field] = section();
+                    firstIds.add(new HashMap<String, Integer>());
+                }
+                offsets.out.writeInt(0);
+                textOffsets.out.writeInt(0);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private Section section() throws IOException {
+            final Section section = new Section(file.getAbsoluteFile().getParentFile());
+            sections.add(section);
+            return section;
+        }
+
+        int nGames() {
+            return nGames;
+        }
+
+        /**
+         * Add a copy of a game from a store
+         *
+         * @param values value of each text column for the game, indexed by field as in DatabaseIndex
+         * @param text   GGF text of the game, or "" if it has none
+         * @throws IOException if the games added so far don't fit in a store file
+         */
+        void add(GameStore store, int game, String[] values, String text) throws IOException {
+            if (!store.isRegular(game)) {
+                irregular.set(nGames);
+                final BitPosition start = store.start(game);
+                starts.out.writeLong(start.black());
+                starts.out.writeLong(start.white());
+                starts.out.writeLong(start.isBlackToMove() ? 1 : 0);
+            }
+            final int nMoves = store.nMoves(game);
+            for (int i = 0; i < nMoves; i++) {
+                moves.out.writeByte(store.move(game, i));
+                if (sideColumns) {
+                    evals.out.writeFloat(store.eval(game, i));
+                    times.out.writeFloat(store.time(game, i));
+                }
+            }
+            nStoredMoves += nMoves;
+            offsets.out.writeInt(nStoredMoves);
+
+            for (int field = 0; field < ids.length; field++) {
+                final Map<String, Integer> fieldIds = firstIds.get(field);
+                Integer id = fieldIds.get(values[field]);
+                if (id == null) {
+                    id = fieldIds.size();
+                    fieldIds.put(values[field], id);
+                }
+                ids[field].out.writeInt(id);
+            }
+
+            if (texts) {
+                final byte[] bytes = text.getBytes(UTF_8);
+                textBytes.out.write(bytes);
+                nTextBytes += bytes.length;
+                textOffsets.out.writeInt(nTextBytes);
+            }
+            nGames++;
+            if (sectionBytes() > maxSize) {
+                throw tooLarge();
+            }
+        }
+
+        /**
+         * @return number of bytes written to the sections so far
+         */
+        private long sectionBytes() {
+            long size = 0;
+            for (Section section : sections) {
+                size += section.out.size();
+            }
+            return size;
+        }
+
+        private IOException tooLarge() {
+            return new IOException("Too many games for game store file " + file + ", which is limited to "
+                    + maxSize + " bytes");
+        }
+
+        /**
+         * Join the sections into the store file, adding the position index of the games if it fits on the heap
+         * while it is built.
+         *
+         * @param sources for each game, a bitmask of the files it was loaded from, or null if that isn't known
+         * @throws IOException if the store file would be too large; it is deleted by close()
+         */
+        void finish(@Nullable long[] sources) throws IOException {
+            for (Section section : sections) {
+                section.out.close();
+            }
+            final GameStore games = new GameStore(moves.map(), offsets.map().asIntBuffer(), irregular
+                    , starts.map().asLongBuffer(), null, null);
+            final PositionIndex positions = DatabaseIndex.positionIndex(games);
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(nGames);
+                out.writeInt(nStoredMoves);
+                out.writeInt((sideColumns ? SIDE_COLUMNS : 0) | (sources != null ? SOURCES : 0) | (texts ? TEXTS : 0)
+                        | (positions != null ? POSITIONS : 0));
+
+                offsets.copyTo(out);
+                final long[] words = irregular.toLongArray();
+                out.writeInt(words.length);
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+                starts.copyTo(out);
+                moves.copyTo(out);
+                pad(out, nStoredMoves);
+                if (sideColumns) {
+                    evals.copyTo(out);
+                    times.copyTo(out);
+                }
+
+                for (int field = 0; field < ids.length; field++) {
+                    writeColumn(out, firstIds.get(field), ids[field]);
+                }
+
+                if (sources != null) {
+                    for (int i = 0; i < nGames; i++) {
+                        out.writeLong(sources[i]);
+                    }
+                }
+
+                if (texts) {
+                    textOffsets.copyTo(out);
+                    textBytes.copyTo(out);
+                    pad(out, nTextBytes);
+                }
+
+                if (positions != null) {
+                    out.writeInt(positions.size());
+                    final LongBuffer hashes = positions.hashes();
+                    while (hashes.hasRemaining()) {
+                        out.writeLong(hashes.get());
+                    }
+                    final IntBuffer postings = positions.postings();
+                    while (postings.hasRemaining()) {
+                        out.writeInt(postings.get());
+                    }
+                }
+            }
+            if (file.length() > maxSize) {
+                throw tooLarge();
+            }
+            finished = true;
+        }
+
+        /**
+         * Write a column's dictionary, sorted, and its ids renumbered to match
+         */
+        private void writeColumn(DataOutputStream out, Map<String, Integer> fieldIds, Section idSection) throws IOException {
+            final String[] dictionary = fieldIds.keySet().toArray(new String[fieldIds.size()]);
+            Arrays.sort(dictionary);
+            final int[] sortedIds = new int[dictionary.length];
+            out.writeInt(dictionary.length);
+            for (int sortedId = 0; sortedId < dictionary.length; sortedId++) {
+                sortedIds[fieldIds.get(dictionary[sortedId])] = sortedId;
+                final byte[] bytes = dictionary[sortedId].getBytes(UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                pad(out, bytes.length);
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(idSection.file), 1 << 16))) {
+                for (int i = 0; i < nGames; i++) {
+                    out.writeInt(sortedIds[in.readInt()]);
+                }
+            }
+        }
+
+        /**
+         * Delete the temporary files, and the store file if it wasn't finished
+         */
+        @Override public void close() {
+            for (Section section : sections) {
+                section.close();
+            }
+            if (!finished && file.exists() && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * A section of a store file being written, held in a temporary file
+     */
+    private static final class Section {
+        final File file;
+        final DataOutputStream out;
+
+        Section(File directory) throws IOException {
+            file = File.createTempFile("nboard-section-", ".tmp", directory);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        }
+
+        void copyTo(OutputStream target) throws IOException {
+            Files.copy(file.toPath(), target);
+        }
+
+        /**
+         * @return the contents of the section, memory-mapped. The section must have been closed.
+         */
+        ByteBuffer map() throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+
+        void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Map a file written by write() and create an index of its games.
+     *
+     * @throws IOException if the file can't be read or is not a game store file
+     */
+    static DatabaseIndex read(File file) throws IOException {
+        return read(file, null);
+    }
+
+    /**
+     * Copy the games of a DatabaseData into a temporary file and map it, so that the copy is held off the Java heap.
+     * <p/>
+     * Games are converted a chunk at a time and streamed into the file, so the copy is never built on the heap.
+     * The file is deleted as soon as it is mapped, or on exit if the operating system doesn't allow deleting a
+     * mapped file.
+     */
+    static DatabaseIndex spill(DatabaseData databaseData) throws IOException {
+        final File file = File.createTempFile("nboard-games-", ".nbg");
+        try {
+            try (Writer writer = new Writer(file, false, false)) {
+                final int nGames = databaseData.NGames();
+                final String[] values = new String[DatabaseIndex.N_FIELDS];
+                for (int first = 0; first < nGames; first += SPILL_CHUNK_SIZE) {
+                    final int end = Math.min(nGames, first + SPILL_CHUNK_SIZE);
+                    final GameStore.Builder builder = new GameStore.Builder();
+                    for (int game = first; game < end; game++) {
+                        builder.add(databaseData.GameFromIndex(game));
+                    }
+                    final GameStore chunk = builder.build();
+                    for (int game = first; game < end; game++) {
+                        for (int field = 0; field < values.length; field++) {
+                            values[field] = databaseData.GameItemText(game, field);
+                        }
+                        writer.add(chunk, game - first, values, "");
+                    }
+                }
+                writer.finish(null);
+            }
+            return read(file, databaseData);
+        } finally {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    private static DatabaseIndex read(File file, @Nullable DatabaseData source) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > MAX_SIZE) {
+                throw new IOException("Game store file " + file + " is larger than " + MAX_SIZE + " bytes");
+            }
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            return read(buffer, source);
+        } catch (RuntimeException e) {
+            // BufferUnderflowException, IllegalArgumentException, ... from a truncated or corrupt file
+            throw new IOException("Corrupt game store file " + file + ": " + e, e);
+        }
+    }
+
+    private static DatabaseIndex read(ByteBuffer buffer, @Nullable DatabaseData source) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a game store file");
+        }
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported game store version " + version);
+        }
+        final int nGames = buffer.getInt();
+        final int nStoredMoves = buffer.getInt();
+        final int flags = buffer.getInt();
+
+        final IntBuffer offsets = slice(buffer, 4 * (nGames + 1)).asIntBuffer();
+
+        final int nWords = buffer.getInt();
+        final LongBuffer words = slice(buffer, 8 * nWords).asLongBuffer();
+        final BitSet irregular = BitSet.valueOf(words);
+        final LongBuffer starts = slice(buffer, 8 * 3 * irregular.cardinality()).asLongBuffer();
+
+        final ByteBuffer moves = slice(buffer, nStoredMoves);
+        skipPadding(buffer, nStoredMoves);
+
+        @Nullable FloatBuffer evals = null;
+        @Nullable FloatBuffer times = null;
+        if ((flags & SIDE_COLUMNS) != 0) {
+            evals = slice(buffer, 4 * nStoredMoves).asFloatBuffer();
+            times = slice(buffer, 4 * nStoredMoves).asFloatBuffer();
+        }
+
+        final DictionaryColumn[] columns = new DictionaryColumn[DatabaseIndex.N_FIELDS];
+        for (int field = 0; field < columns.length; field++) {
+            final String[] dictionary = new String[buffer.getInt()];
+            for (int id = 0; id < dictionary.length; id++) {
+                final byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                skipPadding(buffer, bytes.length);
+                dictionary[id] = new String(bytes, UTF_8);
+            }
+            columns[field] = new DictionaryColumn(dictionary, slice(buffer, 4 * nGames).asIntBuffer());
+        }
+
+        @Nullable long[] sources = null;
+        if ((flags & SOURCES) != 0) {
+            sources = new long[nGames];
+            slice(buffer, 8 * nGames).asLongBuffer().get(sources);
+        }
+        @Nullable GameTexts texts = null;
+        if ((flags & TEXTS) != 0) {
+            final IntBuffer textOffsets = slice(buffer, 4 * (nGames + 1)).asIntBuffer();
+            final int nTextBytes = textOffsets.get(nGames);
+            texts = new GameTexts(textOffsets, slice(buffer, nTextBytes));
+            skipPadding(buffer, nTextBytes);
+        }
+        @Nullable PositionIndex positions = null;
+        if ((flags & POSITIONS) != 0) {
+            final int nPostings = buffer.getInt();
+            final LongBuffer hashes = slice(buffer, 8 * nPostings).asLongBuffer();
+            positions = new PositionIndex(hashes, slice(buffer, 4 * nPostings).asIntBuffer());
+        }
+
+        final GameStore games = new GameStore(moves, offsets, irregular, starts, evals, times);
+        final DatabaseIndex index = new DatabaseIndex(games, columns, source, positions);
+        if (sources != null) {
+            index.setSources(sources);
+        }
+        if (texts != null) {
+            index.setTexts(texts);
+        }
+        return index;
+    }
+
+    /**
+     * @return the next length bytes of the buffer, advancing the buffer past them
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        final ByteBuffer slice = buffer.duplicate();
+        slice.limit(slice.position() + length);
+        buffer.position(buffer.position() + length);
+        return slice.slice();
+    }
+
+    private static void skipPadding(ByteBuffer buffer, int length) {
+        buffer.position(buffer.position() + ((-length) & 3));
+    }
+}
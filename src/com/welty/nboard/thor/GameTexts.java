@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The original GGF text of each game, stored as UTF-8 bytes so that it can be memory-mapped from a GameStoreFile.
+ * <p/>
+ * The compact GameStore and the text columns don't hold everything in a GGF game: the full date, clocks,
+ * ratings and the exact result are only in its text. Games that weren't loaded from GGF, such as Thor games,
+ * have an empty text.
+ */
+final class GameTexts {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The text of game i is bytes[offsets[i]] ... bytes[offsets[i+1]-1]
+     */
+    private final IntBuffer offsets;
+    private final ByteBuffer bytes;
+
+    GameTexts(IntBuffer offsets, ByteBuffer bytes) {
+        this.offsets = offsets;
+        this.bytes = bytes;
+    }
+
+    int nGames() {
+        return offsets.limit() - 1;
+    }
+
+    /**
+     * @return the GGF text of the game, or "" if it doesn't have one
+     */
+    String text(int game) {
+        final int start = offsets.get(game);
+        final byte[] text = new byte[offsets.get(game + 1) - start];
+        final ByteBuffer buffer = bytes.duplicate();
+        buffer.position(start);
+        buffer.get(text);
+        return new String(text, UTF_8);
+    }
+
+    /**
+     * The underlying buffers, for GameStoreFile.
+     */
+    IntBuffer offsets() {
+        return offsets.duplicate();
+    }
+
+    ByteBuffer bytes() {
+        return bytes.duplicate();
+    }
+
+    static class Builder {
+        private byte[] bytes = new byte[1 << 12];
+        private int nBytes = 0;
+        private int[] offsets = new int[64];
+        private int nGames = 0;
+
+        /**
+         * @param text GGF text of the next game, or "" if it doesn't have one
+         */
+        Builder add(String text) {
+            final byte[] utf8 = text.getBytes(UTF_8);
+            if (nBytes + utf8.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, nBytes + utf8.length));
+            }
+            System.arraycopy(utf8, 0, bytes, nBytes, utf8.length);
+            nBytes += utf8.length;
+            if (nGames + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * offsets.length);
+            }
+            nGames++;
+            offsets[nGames] = nBytes;
+            return this;
+        }
+
+        GameTexts build() {
+            return new GameTexts(IntBuffer.wrap(Arrays.copyOf(offsets, nGames + 1)), ByteBuffer.wrap(Arrays.copyOf(bytes, nBytes)));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.orbanova.common.feed.Handler;
+import com.orbanova.common.misc.Logger;
+import com.welty.othello.thor.IndeterminateProgressTracker;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.welty.othello.thor.ThorOpeningMap.OpeningCodeFromGgf;
+import static com.welty.othello.thor.ThorOpeningMap.OpeningName;
+
+/**
+ * The location of each game in a GGF file plus a few summary fields, for browsing large files.
+ * <p/>
+ * Building the index reads the file once. The players, date and result are scanned from each game's tags
+ * without parsing the game, and only they and the game's offset are kept. A game is parsed only when its
+ * opening is displayed, and its full text is read back from the file when it is needed.
+ */
+public final class GgfIndex {
+    private static final Logger log = Logger.logger(GgfIndex.class);
+
+    public static final int BLACK = 0;
+    public static final int WHITE = 1;
+    public static final int DATE = 2;
+    public static final int RESULT = 3;
+    public static final int OPENING = 4;
+    public static final int N_FIELDS = 5;
+
+    /**
+     * GGF tags of the fields that are scanned from the game text; the opening comes from the moves.
+     */
+    private static final String[] TAGS = {"PB", "PW", "DT", "RE"};
+
+    private final File file;
+    private int nGames = 0;
+    private long[] offsets = new long[256];
+    private int[] lengths = new int[256];
+    /**
+     * fields[field][game] is the field of the game. Openings are null until they are first requested.
+     */
+    private final String[][] fields = new String[N_FIELDS][offsets.length];
+
+    private GgfIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @param tracker incremented for each game and updated as the file is read
+     */
+    public static GgfIndex of(File file, final IndeterminateProgressTracker tracker) throws IOException {
+        final GgfIndex index = new GgfIndex(file);
+        // Player names and dates repeat a lot, so equal field values share a String.
+        final Map<String, String> interned = new HashMap<>();
+        GgfReader.read(file, new Handler<List<GgfReader.GameText>>() {
+            @Override public void handle(@NotNull List<GgfReader.GameText> chunk) {
+                for (GgfReader.GameText gameText : chunk) {
+                    index.add(gameText, scanTags(gameText.text), interned);
+                    tracker.increment();
+                }
+            }
+        }, GgfReader.progress(tracker));
+        tracker.complete();
+        return index;
+    }
+
+    /**
+     * Find the values of the first occurrence of each of TAGS in a game, without parsing the game
+     *
+     * @return the values, in the order of TAGS; "" for tags that aren't in the game
+     */
+    static String[] scanTags(String text) {
+        final String[] values = new String[TAGS.length];
+        Arrays.fill(values, "");
+        final boolean[] found = new boolean[TAGS.length];
+        int nFound = 0;
+        int i = 0;
+        while (nFound < TAGS.length) {
+            final int open = text.indexOf('[', i);
+            if (open < 0) {
+                break;
+            }
+            int nameStart = open;
+            while (nameStart > i && Character.isLetter(text.charAt(nameStart - 1))) {
+                nameStart--;
+            }
+            final int iTag = Arrays.asList(TAGS).indexOf(text.substring(nameStart, open));
+            final boolean wanted = iTag >= 0 && !found[iTag];
+            final StringBuilder value = new StringBuilder();
+            int j = open + 1;
+            for (; j < text.length() && text.charAt(j) != ']'; j++) {
+                if (text.charAt(j) == '\\' && j + 1 < text.length()) {
+                    j++;
+                }
+                if (wanted) {
+                    value.append(text.charAt(j));
+                }
+            }
+            if (wanted) {
+                values[iTag] = value.toString();
+                found[iTag] = true;
+                nFound++;
+            }
+            i = j + 1;
+        }
+        return values;
+    }
+
+    private void add(GgfReader.GameText gameText, String[] tagValues, Map<String, String> interned) {
+        if (nGames == offsets.length) {
+            final int capacity = nGames * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = Arrays.copyOf(fields[i], capacity);
+            }
+        }
+        offsets[nGames] = gameText.offset;
+        lengths[nGames] = gameText.length;
+        for (int i = 0; i < tagValues.length; i++) {
+            final String value = tagValues[i];
+            String shared = interned.get(value);
+            if (shared == null) {
+                shared = value;
+                interned.put(value, value);
+            }
+            fields[i][nGames] = shared;
+        }
+        nGames++;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int nGames() {
+        return nGames;
+    }
+
+    /**
+     * The opening is found the first time it is requested, by reading and parsing the game.
+     *
+     * @param field one of BLACK, WHITE, DATE, RESULT, and OPENING
+     * @return the text of the field for the game
+     */
+    public String field(int game, int field) {
+        if (field == OPENING && fields[OPENING][game] == null) {
+            try {
+                fields[OPENING][game] = OpeningName(OpeningCodeFromGgf(text(game)));
+            } catch (IOException e) {
+                log.warn("Can't read game " + game + " from " + file + ": " + e);
+                return "";
+            }
+        }
+        return fields[field][game];
+    }
+
+    /**
+     * Read the full GGF text of a game from the file
+     */
+    public String text(int game) throws IOException {
+        return GgfReader.readText(file, offsets[game], lengths[game]);
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.orbanova.common.feed.Handler;
+import com.welty.othello.thor.GgfGameText;
+import com.welty.othello.thor.IndeterminateProgressTracker;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the games in a GGF file without reading the whole file into memory.
+ * <p/>
+ * The file is memory-mapped a window at a time and scanned for game boundaries: a game starts with "(;" and ends
+ * with ";)", ignoring anything inside [] tags. The text of each game is passed to a handler in chunks of games,
+ * so reading and parsing are interleaved and progress is reported while the file is still being read.
+ */
+public final class GgfReader {
+    /**
+     * Number of bytes mapped at a time
+     */
+    static final int WINDOW_SIZE = 1 << 24;
+
+    /**
+     * Number of games passed to the handler at a time
+     */
+    static final int CHUNK_SIZE = 256;
+
+    /**
+     * GGF files are ASCII; Latin-1 decodes any byte without loss.
+     */
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+    private GgfReader() {
+    }
+
+    /**
+     * Receives progress reports while a file is read
+     */
+    public interface Progress {
+        /**
+         * @param bytesRead  number of bytes of the file scanned so far
+         * @param totalBytes size of the file
+         * @param nGames     number of games found so far
+         */
+        void update(long bytesRead, long totalBytes, int nGames);
+    }
+
+    /**
+     * The text of a game and its location in the file
+     */
+    public static final class GameText {
+        /**
+         * Byte offset of the game's "(;" in the file
+         */
+        public final long offset;
+        /**
+         * Length of the game in bytes, including "(;" and ";)"
+         */
+        public final int length;
+        public final String text;
+
+        GameText(long offset, int length, String text) {
+            this.offset = offset;
+            this.length = length;
+            this.text = text;
+        }
+    }
+
+    /**
+     * A game parsed from the file, and where it is in the file
+     */
+    public static final class ParsedGame {
+        public final GameText location;
+        public final GgfGameText gameText;
+
+        ParsedGame(GameText location, GgfGameText gameText) {
+            this.location = location;
+            this.gameText = gameText;
+        }
+    }
+
+    /**
+     * Parse the games in the file, passing them to the consumer as they are read.
+     * <p/>
+     * This is a replacement for GgfGameText.Load() that doesn't hold the file's games: each chunk of games is
+     * parsed and handed to the consumer before the next chunk is read.
+     *
+     * @param consumer receives the parsed games, CHUNK_SIZE games at a time (the last chunk may be smaller)
+     * @param progress receives the number of bytes read after each chunk and when the file has been read
+     * @throws IllegalArgumentException if the file can't be read or a game can't be parsed.
+     */
+    public static void load(File file, final Handler<List<ParsedGame>> consumer, Progress progress) {
+        final Handler<List<GameText>> parser = new Handler<List<GameText>>() {
+            @Override public void handle(@NotNull List<GameText> chunk) {
+                final List<ParsedGame> games = new ArrayList<>(chunk.size());
+                for (GameText gameText : chunk) {
+                    games.add(new ParsedGame(gameText, new GgfGameText(gameText.text)));
+                }
+                consumer.handle(games);
+            }
+        };
+        try {
+            read(file, parser, progress);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't read " + file + ": " + e, e);
+        }
+    }
+
+    /**
+     * Progress that updates the tracker each time another percent of the file has been read
+     */
+    public static Progress progress(final IndeterminateProgressTracker tracker) {
+        return new Progress() {
+            private long nextUpdate = 0;
+
+            @Override public void update(long bytesRead, long totalBytes, int nGames) {
+                if (bytesRead >= nextUpdate) {
+                    tracker.update();
+                    nextUpdate = bytesRead + Math.max(1, totalBytes / 100);
+                }
+            }
+        };
+    }
+
+    /**
+     * Scan the file for games and pass them to the handler
+     *
+     * @param handler  receives the games, CHUNK_SIZE games at a time (the last chunk may be smaller)
+     * @param progress receives a progress report after each chunk and when the file has been read
+     */
+    public static void read(File file, Handler<List<GameText>> handler, Progress progress) throws IOException {
+        read(file, handler, progress, WINDOW_SIZE, CHUNK_SIZE);
+    }
+
+    static void read(File file, Handler<List<GameText>> handler, Progress progress, int windowSize, int chunkSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final Scanner scanner = new Scanner(handler, chunkSize);
+            for (long start = 0; start < size; start += windowSize) {
+                final int length = (int) Math.min(windowSize, size - start);
+                final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                for (int i = 0; i < length; i++) {
+                    if (scanner.scan(window.get(i))) {
+                        progress.update(start + i + 1, size, scanner.nGames);
+                    }
+                }
+            }
+            scanner.flush();
+            progress.update(size, size, scanner.nGames);
+        }
+    }
+
+    /**
+     * Read the text of a single game
+     *
+     * @param offset offset of the game in the file, as given by GameText.offset
+     * @param length length of the game in bytes, as given by GameText.length
+     */
+    public static String readText(File file, long offset, int length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("Game at offset " + offset + " extends past the end of " + file);
+                }
+            }
+            return new String(buffer.array(), LATIN_1);
+        }
+    }
+
+    /**
+     * State machine that splits a byte stream into games
+     */
+    private static class Scanner {
+        private final Handler<List<GameText>> handler;
+        private final int chunkSize;
+        private List<GameText> chunk = new ArrayList<>();
+        private int nGames = 0;
+        private long position = 0;
+        private long gameStart;
+
+        private byte[] game = new byte[4096];
+        private int length = 0;
+        private boolean inGame = false;
+        private boolean inTag = false;
+        private boolean escaped = false;
+        private byte previous = 0;
+
+        Scanner(Handler<List<GameText>> handler, int chunkSize) {
+            this.handler = handler;
+            this.chunkSize = chunkSize;
+        }
+
+        /**
+         * @return true if a chunk of games was passed to the handler
+         */
+        boolean scan(byte b) {
+            boolean handled = false;
+            if (!inGame) {
+                if (previous == '(' && b == ';') {
+                    inGame = true;
+                    gameStart = position - 1;
+                    length = 0;
+                    append((byte) '(');
+                    append(b);
+                    b = 0; // so that "(;)" doesn't end the game
+                }
+            } else {
+                append(b);
+                if (inTag) {
+                    if (escaped) {
+                        escaped = false;
+                    } else if (b == '\\') {
+                        escaped = true;
+                    } else if (b == ']') {
+                        inTag = false;
+                    }
+                } else if (b == '[') {
+                    inTag = true;
+                } else if (previous == ';' && b == ')') {
+                    inGame = false;
+                    handled = endGame();
+                }
+            }
+            previous = b;
+            position++;
+            return handled;
+        }
+
+        private void append(byte b) {
+            if (length == game.length) {
+                game = Arrays.copyOf(game, length * 2);
+            }
+            game[length++] = b;
+        }
+
+        private boolean endGame() {
+            chunk.add(new GameText(gameStart, length, new String(game, 0, length, LATIN_1)));
+            nGames++;
+            if (chunk.size() >= chunkSize) {
+                flush();
+                return true;
+            }
+            return false;
+        }
+
+        void flush() {
+            if (!chunk.isEmpty()) {
+                handler.handle(chunk);
+                chunk = new ArrayList<>();
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded least-recently-used cache of database lookups, keyed by canonical position hash and filters.
+ * <p/>
+ * Hits and misses are counted so that the capacity can be tuned.
+ */
+final class LookupCache<V> {
+    static final int DEFAULT_CAPACITY = 64;
+
+    private final Map<Key, V> map;
+    private int hits = 0;
+    private int misses = 0;
+
+    LookupCache(final int capacity) {
+        map = new LinkedHashMap<Key, V>(16, 0.75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the cached value, or null if there is none
+     */
+    synchronized @Nullable V get(long canonicalHash, String[] filters) {
+        final V value = map.get(new Key(canonicalHash, filters));
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    synchronized void put(long canonicalHash, String[] filters, V value) {
+        map.put(new Key(canonicalHash, filters), value);
+    }
+
+    synchronized void clear() {
+        map.clear();
+    }
+
+    synchronized int size() {
+        return map.size();
+    }
+
+    synchronized int hits() {
+        return hits;
+    }
+
+    synchronized int misses() {
+        return misses;
+    }
+
+    private static final class Key {
+        private final long canonicalHash;
+        private final List<String> filters;
+
+        Key(long canonicalHash, String[] filters) {
+            this.canonicalHash = canonicalHash;
+            this.filters = Arrays.asList(filters.clone());
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key key = (Key) o;
+            return canonicalHash == key.canonicalHash && filters.equals(key.filters);
+        }
+
+        @Override public int hashCode() {
+            return 31 * (int) (canonicalHash ^ (canonicalHash >>> 32)) + filters.hashCode();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Number of games and score for each move played from a position in the database.
+ * <p/>
+ * Scores are from the point of view of the player making the move: 1 for a win, 0.5 for a draw, 0 for a loss.
+ */
+public class MoveSummary {
+    static final MoveSummary EMPTY = new MoveSummary();
+
+    private final int[] nPlayed = new int[64];
+    private final double[] totalScore = new double[64];
+
+    void add(int sq, double score) {
+        add(sq, 1, score);
+    }
+
+    void add(int sq, int nGames, double totalScore) {
+        nPlayed[sq] += nGames;
+        this.totalScore[sq] += totalScore;
+    }
+
+    /**
+     * @return the summary of the reflected position
+     */
+    MoveSummary reflect(int iReflection) {
+        final MoveSummary reflected = new MoveSummary();
+        for (int sq = 0; sq < 64; sq++) {
+            if (nPlayed[sq] != 0) {
+                reflected.add(Symmetry.reflectSquare(iReflection, sq), nPlayed[sq], totalScore[sq]);
+            }
+        }
+        return reflected;
+    }
+
+    /**
+     * @return squares of the moves that were played, in square order
+     */
+    public int[] keys() {
+        final int[] keys = new int[size()];
+        int n = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            if (nPlayed[sq] != 0) {
+                keys[n++] = sq;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return summary of the games that continued with the move at sq, or null if no game did.
+     */
+    public @Nullable Data get(int sq) {
+        return nPlayed[sq] == 0 ? null : new Data(nPlayed[sq], totalScore[sq]);
+    }
+
+    /**
+     * @return number of distinct moves played
+     */
+    public int size() {
+        int size = 0;
+        for (int n : nPlayed) {
+            if (n != 0) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    public static class Data {
+        private final int nPlayed;
+        private final double totalScore;
+
+        Data(int nPlayed, double totalScore) {
+            this.nPlayed = nPlayed;
+            this.totalScore = totalScore;
+        }
+
+        public int getNPlayed() {
+            return nPlayed;
+        }
+
+        /**
+         * @return average score of the games, 0..1
+         */
+        public double getScore() {
+            return totalScore / nPlayed;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+package com.welty.nboard.thor;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Locale;
+
+/**
+ * Writes the tree of moves played from a position, as tab-separated text: one line per line of play, with the
+ * number of games, their share of the games reaching the starting position, and black's score.
+ * <p/>
+ * The games reaching the starting position and passing the filters are held in one array. At each node the
+ * node's range of the array is sorted by the next move, so every child's games are a sub-range; the tree is
+ * written depth-first while it is walked. Memory use depends only on the number of matching games, not on the
+ * size of the report. Lines are written through a BufferedChannelWriter.
+ * <p/>
+ * Moves that are reflections of each other in a symmetric position are merged, as in the move grid.
+ */
+final class OpeningReport {
+    static final String HEADER = "moves\tgames\tfrequency\tblackScore\n";
+    /**
+     * No game has more moves than this, so deeper reports are the same as reports of this depth
+     */
+    static final int MAX_DEPTH = 60;
+    private static final int NO_MOVE = 64;
+
+    private final DatabaseIndex index;
+    private final int maxDepth;
+    private final int minGames;
+    private final BufferedChannelWriter out;
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * The games reaching the node being written are games[lo] ... games[hi-1], and reflecting game i by
+     * reflections[i] takes it onto the node's position.
+     */
+    private final int[] games;
+    private final int[] reflections;
+    private final int[] scratchGames;
+    private final int[] scratchReflections;
+    private final byte[] nextMoves;
+    private final int nRootGames;
+    /**
+     * Squares of the moves from the starting position to the node being written
+     */
+    private final int[] path;
+    private long nLines;
+
+    private OpeningReport(DatabaseIndex index, PositionMatches matches, int maxDepth, int minGames, WritableByteChannel channel) {
+        this.index = index;
+        this.maxDepth = maxDepth;
+        this.minGames = minGames;
+        this.out = new BufferedChannelWriter(channel);
+        games = matches.index.toArray();
+        reflections = matches.iReflections.toArray();
+        scratchGames = new int[games.length];
+        scratchReflections = new int[games.length];
+        nextMoves = new byte[games.length];
+        nRootGames = games.length;
+        path = new int[maxDepth];
+    }
+
+    /**
+     * Write the report
+     *
+     * @param position position the report starts from
+     * @param filters  text that each field must start with, as in the database window
+     * @param maxDepth number of moves to follow from the position; depths above MAX_DEPTH are treated as MAX_DEPTH
+     * @param minGames lines of play reached by fewer games are left out
+     * @return number of lines written, not counting the header
+     * @throws IllegalArgumentException if maxDepth is negative
+     */
+    static long write(DatabaseIndex index, BitPosition position, String[] filters, int maxDepth, int minGames
+            , WritableByteChannel channel) throws IOException {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("Report depth must not be negative, was " + maxDepth);
+        }
+        maxDepth = Math.min(maxDepth, MAX_DEPTH);
+        final PrefixFilter filter = index.filter(filters);
+        final PositionMatches found = index.positions.find(position);
+        final PositionMatches matches = new PositionMatches();
+        for (int i = 0; i < found.size(); i++) {
+            if (filter.matches(found.index.get(i))) {
+                matches.index.add(found.index.get(i));
+                matches.iReflections.add(found.iReflections.get(i));
+            }
+        }
+        final OpeningReport report = new OpeningReport(index, matches, maxDepth, minGames, channel);
+        report.out.ascii(HEADER);
+        report.writeNode(0, report.games.length, position, 0);
+        report.out.flush();
+        return report.nLines;
+    }
+
+    private void writeNode(int lo, int hi, BitPosition position, int depth) throws IOException {
+        writeLine(lo, hi, depth);
+        if (depth == maxDepth) {
+            return;
+        }
+
+        // sort the games by their next move, in the orientation of the position
+        final int iMove = 60 - position.nEmpty();
+        final int symmetries = position.symmetries();
+        final int[] counts = new int[NO_MOVE + 1];
+        for (int i = lo; i < hi; i++) {
+            final int game = games[i];
+            int key = NO_MOVE;
+            if (iMove < index.games.nMoves(game)) {
+                final int sq = Symmetry.reflectSquare(reflections[i], index.games.move(game, iMove));
+                int best = Symmetry.IDENTITY;
+                for (int s = 1; s < Symmetry.N_REFLECTIONS; s++) {
+                    if ((symmetries & (1 << s)) != 0 && Symmetry.reflectSquare(s, sq) < Symmetry.reflectSquare(best, sq)) {
+                        best = s;
+                    }
+                }
+                key = Symmetry.reflectSquare(best, sq);
+                reflections[i] = Symmetry.compose(best, reflections[i]);
+            }
+            nextMoves[i] = (byte) key;
+            counts[key]++;
+        }
+        final int[] starts = new int[NO_MOVE + 2];
+        starts[0] = lo;
+        for (int key = 0; key <= NO_MOVE; key++) {
+            starts[key + 1] = starts[key] + counts[key];
+        }
+        final int[] next = starts.clone();
+        for (int i = lo; i < hi; i++) {
+            final int j = next[nextMoves[i]]++;
+            scratchGames[j] = games[i];
+            scratchReflections[j] = reflections[i];
+        }
+        System.arraycopy(scratchGames, lo, games, lo, hi - lo);
+        System.arraycopy(scratchReflections, lo, reflections, lo, hi - lo);
+
+        // most popular moves first
+        for (int n = 0; n < NO_MOVE; n++) {
+            int sq = -1;
+            for (int key = 0; key < NO_MOVE; key++) {
+                if (counts[key] >= Math.max(minGames, 1) && (sq < 0 || counts[key] > counts[sq])) {
+                    sq = key;
+                }
+            }
+            if (sq < 0) {
+                break;
+            }
+            final BitPosition child = position.copy();
+            child.play(sq);
+            path[depth] = sq;
+            writeNode(starts[sq], starts[sq + 1], child, depth + 1);
+            counts[sq] = 0;
+        }
+    }
+
+    private void writeLine(int lo, int hi, int depth) throws IOException {
+        double blackScore = 0;
+        for (int i = lo; i < hi; i++) {
+            blackScore += index.score(games[i], true);
+        }
+        final int n = hi - lo;
+        line.setLength(0);
+        for (int d = 0; d < depth; d++) {
+            if (d > 0) {
+                line.append(' ');
+            }
+            line.append(BitBoards.squareName(path[d]));
+        }
+        line.append('\t').append(n);
+        line.append('\t').append(String.format(Locale.US, "%.2f", nRootGames == 0 ? 0 : 100.0 * n / nRootGames));
+        line.append('\t').append(n == 0 ? "" : String.format(Locale.US, "%.1f", 100 * blackScore / n));
+        line.append('\n');
+        out.ascii(line);
+        nLines++;
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Next-move statistics for the frequently reached positions in the database.
+ * <p/>
+ * Each node is a position, keyed by its canonical hash so that transpositions and reflections of a position share
+ * a node. A node holds, for each move played from the position, the number of games and the sum of their scores,
+ * so the move summary for the position is a single node fetch instead of a pass over all matching games.
+ * <p/>
+ * Moves are stored in the canonical orientation of the position and reflected onto the looked-up position.
+ * Only positions reached by at least MIN_GAMES games have nodes; summarizing the few games that reach any other
+ * position is cheap anyway.
+ */
+final class OpeningTree {
+    static final int MIN_GAMES = 16;
+
+    /**
+     * Canonical hash of each node, in increasing order
+     */
+    private final long[] nodeHashes;
+    /**
+     * The moves from node n are edges edgeStarts[n] ... edgeStarts[n+1]-1
+     */
+    private final int[] edgeStarts;
+    /**
+     * Square of each move, in the canonical orientation of the node's position
+     */
+    private final byte[] edgeSquares;
+    private final int[] edgeGames;
+    /**
+     * Twice the total score of the games, so that draws are integers
+     */
+    private final int[] edgeScores;
+
+    private OpeningTree(long[] nodeHashes, int[] edgeStarts, byte[] edgeSquares, int[] edgeGames, int[] edgeScores) {
+        this.nodeHashes = nodeHashes;
+        this.edgeStarts = edgeStarts;
+        this.edgeSquares = edgeSquares;
+        this.edgeGames = edgeGames;
+        this.edgeScores = edgeScores;
+    }
+
+    /**
+     * @param index    supplies the games, their positions and results
+     * @param minGames minimum number of games reaching a position for it to get a node
+     */
+    static OpeningTree of(DatabaseIndex index, int minGames) {
+        final GameStore games = index.games;
+        final long[] nodeHashes = index.positions.frequentHashes(minGames);
+
+        // one entry per move played from a node: key = node << 6 | canonical square, value = 2 * score
+        long[] keys = new long[1024];
+        int[] values = new int[1024];
+        int n = 0;
+        for (int g = 0; g < games.nGames(); g++) {
+            if (!games.isRegular(g)) {
+                continue;
+            }
+            final BitPosition position = BitPosition.start();
+            final int nMoves = games.nMoves(g);
+            for (int i = 0; i < nMoves; i++) {
+                final int node = Arrays.binarySearch(nodeHashes, position.canonicalHash());
+                final int canonicalReflection = position.canonicalReflection();
+                final boolean blackToMove = position.isBlackToMove();
+                final int sq = games.move(g, i);
+                if (!position.play(sq)) {
+                    break;
+                }
+                // If the side to move had to pass, the move was made from the position after the pass,
+                // which is a different node.
+                final boolean passed = position.isBlackToMove() == blackToMove;
+                if (node >= 0 && !passed) {
+                    if (n == keys.length) {
+                        keys = Arrays.copyOf(keys, n * 2);
+                        values = Arrays.copyOf(values, n * 2);
+                    }
+                    keys[n] = (long) node << 6 | Symmetry.reflectSquare(canonicalReflection, sq);
+                    values[n] = (int) (2 * index.score(g, blackToMove));
+                    n++;
+                }
+            }
+        }
+        PrimitiveSort.sort(keys, values, n);
+
+        // combine entries with the same key into edges
+        final int[] edgeStarts = new int[nodeHashes.length + 1];
+        final byte[] edgeSquares = new byte[n];
+        final int[] edgeGames = new int[n];
+        final int[] edgeScores = new int[n];
+        int nEdges = 0;
+        for (int i = 0; i < n; ) {
+            final long key = keys[i];
+            int nGames = 0;
+            int score = 0;
+            for (; i < n && keys[i] == key; i++) {
+                nGames++;
+                score += values[i];
+            }
+            edgeSquares[nEdges] = (byte) (key & 63);
+            edgeGames[nEdges] = nGames;
+            edgeScores[nEdges] = score;
+            nEdges++;
+            edgeStarts[(int) (key >>> 6) + 1] = nEdges;
+        }
+        // nodes without edges (e.g. final positions) start where the previous node ended
+        for (int node = 1; node <= nodeHashes.length; node++) {
+            edgeStarts[node] = Math.max(edgeStarts[node], edgeStarts[node - 1]);
+        }
+        return new OpeningTree(nodeHashes, edgeStarts, Arrays.copyOf(edgeSquares, nEdges)
+                , Arrays.copyOf(edgeGames, nEdges), Arrays.copyOf(edgeScores, nEdges));
+    }
+
+    int nNodes() {
+        return nodeHashes.length;
+    }
+
+    /**
+     * @return summary of the moves played from the position in all games, or null if the position has no node.
+     */
+    @Nullable MoveSummary summarize(BitPosition position) {
+        final int node = Arrays.binarySearch(nodeHashes, position.canonicalHash());
+        if (node < 0) {
+            return null;
+        }
+        final int fromCanonical = Symmetry.inverse(position.canonicalReflection());
+        final MoveSummary summary = new MoveSummary();
+        for (int e = edgeStarts[node]; e < edgeStarts[node + 1]; e++) {
+            summary.add(Symmetry.reflectSquare(fromCanonical, edgeSquares[e]), edgeGames[e], 0.5 * edgeScores[e]);
+        }
+        return summary;
+    }
+}
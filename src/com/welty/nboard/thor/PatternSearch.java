@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Finds the games that pass through a PositionPattern at any point.
+ * <p/>
+ * Each game is replayed on a pair of bitboards and tested against the pattern after every move. A game is
+ * abandoned as soon as every reflection of the pattern needs a square to be empty that has been played.
+ * Ranges of games are searched in parallel on a fork-join pool.
+ */
+final class PatternSearch extends RecursiveTask<PositionMatches> {
+    private static final int MIN_GAMES_PER_TASK = 4096;
+    private static final ForkJoinPool pool = new ForkJoinPool();
+
+    /**
+     * Tells a search to stop early because its result is no longer needed
+     */
+    interface Cancellation {
+        boolean isCancelled();
+    }
+
+    private final GameStore games;
+    private final PositionPattern pattern;
+    private final PrefixFilter filter;
+    private final Cancellation cancellation;
+    private final int from;
+    private final int to;
+
+    private PatternSearch(GameStore games, PositionPattern pattern, PrefixFilter filter, Cancellation cancellation, int from, int to) {
+        this.games = games;
+        this.pattern = pattern;
+        this.filter = filter;
+        this.cancellation = cancellation;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @param filter only games passing the filter are searched
+     * @return the matching games, in increasing order, with the reflection that takes each game onto the pattern;
+     * or null if the search was cancelled.
+     */
+    static @Nullable PositionMatches find(DatabaseIndex index, PositionPattern pattern, PrefixFilter filter, Cancellation cancellation) {
+        final PositionMatches matches = pool.invoke(new PatternSearch(index.games, pattern, filter, cancellation, 0, index.nGames()));
+        return cancellation.isCancelled() ? null : matches;
+    }
+
+    @Override protected PositionMatches compute() {
+        if (to - from > MIN_GAMES_PER_TASK) {
+            final int mid = (from + to) >>> 1;
+            final PatternSearch left = new PatternSearch(games, pattern, filter, cancellation, from, mid);
+            left.fork();
+            final PositionMatches right = new PatternSearch(games, pattern, filter, cancellation, mid, to).compute();
+            final PositionMatches matches = left.join();
+            for (int i = 0; i < right.size(); i++) {
+                matches.add(right.index.get(i), right.iReflections.get(i));
+            }
+            return matches;
+        }
+        final PositionMatches matches = new PositionMatches();
+        if (cancellation.isCancelled()) {
+            return matches;
+        }
+        final boolean filtered = !filter.matchesAll();
+        for (int game = from; game < to; game++) {
+            if (!filtered || filter.matches(game)) {
+                final int iReflection = search(game);
+                if (iReflection >= 0) {
+                    matches.add(game, iReflection);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @return the reflection that takes the game onto the pattern the first time it matches, or -1 if it never does
+     */
+    private int search(int game) {
+        if (!games.isRegular(game)) {
+            // lookups only cover games from the standard start position
+            return -1;
+        }
+        long mover = BitBoards.START_BLACK;
+        long enemy = BitBoards.START_WHITE;
+        boolean blackToMove = true;
+        int alive = pattern.stillAlive(mover | enemy, pattern.allReflections());
+        int nDiscs = 4;
+        final int nMoves = games.nMoves(game);
+        for (int i = 0; ; i++) {
+            if (nDiscs >= pattern.nDiscs()) {
+                final int iReflection = blackToMove ? pattern.match(mover, enemy, alive) : pattern.match(enemy, mover, alive);
+                if (iReflection >= 0) {
+                    return iReflection;
+                }
+            }
+            if (i == nMoves) {
+                return -1;
+            }
+            final int sq = games.move(game, i);
+            long flips = BitBoards.flips(mover, enemy, sq);
+            if (flips == 0) {
+                // stored games don't record passes
+                final long swap = mover;
+                mover = enemy;
+                enemy = swap;
+                blackToMove = !blackToMove;
+                flips = BitBoards.flips(mover, enemy, sq);
+                if (flips == 0) {
+                    return -1;
+                }
+            }
+            final long newMover = mover | flips | (1L << sq);
+            mover = enemy & ~flips;
+            enemy = newMover;
+            blackToMove = !blackToMove;
+            nDiscs++;
+            alive = pattern.stillAlive(mover | enemy, alive);
+            if (alive == 0) {
+                return -1;
+            }
+        }
+    }
+}
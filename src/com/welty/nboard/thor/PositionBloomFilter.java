@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import java.util.Arrays;
+
+/**
+ * Finds the games that reach a position using a Bloom filter for each block of games.
+ * <p/>
+ * Each block's filter holds the canonical hashes of every position reached in its games. A lookup tests the
+ * position's canonical hash against each block and replays only the games in blocks whose filter might contain
+ * it, so it finds the same games as a PositionIndex. With BITS_PER_POSITION bits per position this needs about
+ * a tenth of the memory of a PositionIndex, at the cost of a pass over the filters and some replays on each lookup.
+ */
+final class PositionBloomFilter implements PositionLookup {
+    static final int GAMES_PER_BLOCK = 64;
+    static final int BITS_PER_POSITION = 10;
+    private static final int N_PROBES = 7;
+
+    /**
+     * Frequent positions are counted only in the first OPENING_MOVES moves of each game
+     */
+    static final int OPENING_MOVES = 20;
+
+    /**
+     * The sketch that finds candidate frequent positions has SKETCH_ROWS rows of at most 1 << MAX_SKETCH_BITS
+     * counters
+     */
+    private static final int SKETCH_ROWS = 3;
+    private static final int MAX_SKETCH_BITS = 21;
+    private static final long[] SKETCH_MULTIPLIERS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L};
+
+    private final GameStore games;
+
+    /**
+     * The filter for block b is bits blockStarts[b]*64 ... blockStarts[b+1]*64-1 of words
+     */
+    private final int[] blockStarts;
+    private final long[] words;
+
+    private PositionBloomFilter(GameStore games, int[] blockStarts, long[] words) {
+        this.games = games;
+        this.blockStarts = blockStarts;
+        this.words = words;
+    }
+
+    static PositionBloomFilter of(GameStore games) {
+        final int nBlocks = (games.nGames() + GAMES_PER_BLOCK - 1) / GAMES_PER_BLOCK;
+        final int[] blockStarts = new int[nBlocks + 1];
+        for (int b = 0; b < nBlocks; b++) {
+            long nPositions = 0;
+            for (int g = b * GAMES_PER_BLOCK; g < Math.min(games.nGames(), (b + 1) * GAMES_PER_BLOCK); g++) {
+                if (games.isRegular(g)) {
+                    nPositions += games.nMoves(g) + 1;
+                }
+            }
+            blockStarts[b + 1] = blockStarts[b] + (int) Math.max(1, (nPositions * BITS_PER_POSITION + 63) / 64);
+        }
+
+        final long[] words = new long[blockStarts[nBlocks]];
+        for (int b = 0; b < nBlocks; b++) {
+            final int start = blockStarts[b];
+            final long nBits = (blockStarts[b + 1] - start) * 64L;
+            for (int g = b * GAMES_PER_BLOCK; g < Math.min(games.nGames(), (b + 1) * GAMES_PER_BLOCK); g++) {
+                if (games.isRegular(g)) {
+                    final BitPosition position = BitPosition.start();
+                    set(words, start, nBits, position.canonicalHash());
+                    final int nMoves = games.nMoves(g);
+                    for (int i = 0; i < nMoves && position.play(games.move(g, i)); i++) {
+                        set(words, start, nBits, position.canonicalHash());
+                    }
+                }
+            }
+        }
+        return new PositionBloomFilter(games, blockStarts, words);
+    }
+
+    /**
+     * @return size of the filters, in bytes
+     */
+    long sizeInBytes() {
+        return words.length * 8L;
+    }
+
+    private static void set(long[] words, int start, long nBits, long hash) {
+        for (int i = 0; i < N_PROBES; i++) {
+            final long bit = probe(hash, i, nBits);
+            words[start + (int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private boolean mightContain(int block, long hash) {
+        final int start = blockStarts[block];
+        final long nBits = (blockStarts[block + 1] - start) * 64L;
+        for (int i = 0; i < N_PROBES; i++) {
+            final long bit = probe(hash, i, nBits);
+            if ((words[start + (int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The hashes are random, so the probes are derived from the two halves of the hash by double hashing
+     */
+    private static long probe(long hash, int i, long nBits) {
+        final long h1 = hash & 0xFFFFFFFFL;
+        final long h2 = (hash >>> 32) | 1;
+        return (h1 + i * h2) % nBits;
+    }
+
+    @Override public PositionMatches find(BitPosition position) {
+        final long hash = position.canonicalHash();
+        final PositionMatches matches = new PositionMatches();
+        for (int b = 0; b + 1 < blockStarts.length; b++) {
+            if (!mightContain(b, hash)) {
+                continue;
+            }
+            for (int g = b * GAMES_PER_BLOCK; g < Math.min(games.nGames(), (b + 1) * GAMES_PER_BLOCK); g++) {
+                final int iReflection = reflection(position, g);
+                if (iReflection >= 0) {
+                    matches.add(g, iReflection);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * The filters can't count matches without replaying games, so this assumes every game matches.
+     */
+    @Override public int estimateMatches(BitPosition position) {
+        return games.nGames();
+    }
+
+    @Override public boolean countsExactly() {
+        return false;
+    }
+
+    /**
+     * Every move adds a disc, so the game reaches the position, if at all, after a known number of moves.
+     * The game is replayed to that point and compared.
+     */
+    @Override public int reflection(BitPosition position, int game) {
+        final int nMovesToPosition = 60 - position.nEmpty();
+        if (!games.isRegular(game) || games.nMoves(game) < nMovesToPosition) {
+            return -1;
+        }
+        final BitPosition replayed = BitPosition.start();
+        int i = 0;
+        while (i < nMovesToPosition && replayed.play(games.move(game, i))) {
+            i++;
+        }
+        if (i == nMovesToPosition && replayed.canonicalHash() == position.canonicalHash()) {
+            return Symmetry.compose(Symmetry.inverse(position.canonicalReflection()), replayed.canonicalReflection());
+        }
+        return -1;
+    }
+
+    /**
+     * The filters can't count positions, so the positions in the first OPENING_MOVES moves of each game are counted
+     * in two passes whose memory use is bounded; positions deeper in the games are rarely reached by many games.
+     * <p/>
+     * The first pass adds each position to a count-min sketch: a few rows of saturating counters, each row indexed
+     * by a different mix of the hash. A position's smallest counter is at least the number of games reaching it,
+     * so a position with a counter below minGames can't be frequent. The second pass counts only the remaining
+     * candidates, exactly.
+     */
+    @Override public long[] frequentHashes(int minGames) {
+        long nPositions = 0;
+        for (int g = 0; g < games.nGames(); g++) {
+            if (games.isRegular(g)) {
+                nPositions += Math.min(games.nMoves(g), OPENING_MOVES) + 1;
+            }
+        }
+        int bits = 10;
+        while (bits < MAX_SKETCH_BITS && (1L << bits) < 2 * nPositions / Math.max(minGames, 1)) {
+            bits++;
+        }
+        final char[] sketch = new char[SKETCH_ROWS << bits];
+        final int threshold = Math.min(minGames, Character.MAX_VALUE);
+        final long[] hashes = new long[OPENING_MOVES + 1];
+        for (int g = 0; g < games.nGames(); g++) {
+            final int n = openingHashes(g, hashes);
+            for (int i = 0; i < n; i++) {
+                for (int r = 0; r < SKETCH_ROWS; r++) {
+                    final int counter = sketchCounter(hashes[i], r, bits);
+                    if (sketch[counter] < Character.MAX_VALUE) {
+                        sketch[counter]++;
+                    }
+                }
+            }
+        }
+
+        final HashCounts candidates = new HashCounts();
+        for (int g = 0; g < games.nGames(); g++) {
+            final int n = openingHashes(g, hashes);
+            for (int i = 0; i < n; i++) {
+                boolean candidate = true;
+                for (int r = 0; r < SKETCH_ROWS && candidate; r++) {
+                    candidate = sketch[sketchCounter(hashes[i], r, bits)] >= threshold;
+                }
+                if (candidate) {
+                    candidates.increment(hashes[i]);
+                }
+            }
+        }
+        return candidates.keysWithCount(minGames);
+    }
+
+    private static int sketchCounter(long hash, int row, int bits) {
+        return row << bits | (int) ((hash * SKETCH_MULTIPLIERS[row]) >>> (64 - bits));
+    }
+
+    /**
+     * Store the canonical hashes of the positions in the first OPENING_MOVES moves of the game
+     *
+     * @return number of hashes stored; 0 for irregular games
+     */
+    private int openingHashes(int game, long[] hashes) {
+        if (!games.isRegular(game)) {
+            return 0;
+        }
+        final BitPosition position = BitPosition.start();
+        hashes[0] = position.canonicalHash();
+        int n = 1;
+        final int nMoves = Math.min(games.nMoves(game), OPENING_MOVES);
+        for (int i = 0; i < nMoves && position.play(games.move(game, i)); i++) {
+            hashes[n++] = position.canonicalHash();
+        }
+        return n;
+    }
+
+    /**
+     * Open-addressing map from hash to count
+     */
+    private static final class HashCounts {
+        private long[] keys = new long[1024];
+        /**
+         * 0 for an empty slot
+         */
+        private int[] counts = new int[1024];
+        private int size = 0;
+
+        void increment(long key) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+            }
+            final int slot = slot(keys, counts, key);
+            if (counts[slot] == 0) {
+                keys[slot] = key;
+                size++;
+            }
+            counts[slot]++;
+        }
+
+        private static int slot(long[] keys, int[] counts, long key) {
+            final int mask = keys.length - 1;
+            int slot = (int) ((key * SKETCH_MULTIPLIERS[0]) >>> 32) & mask;
+            while (counts[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            final long[] newKeys = new long[keys.length * 2];
+            final int[] newCounts = new int[counts.length * 2];
+            for (int i = 0; i < keys.length; i++) {
+                if (counts[i] != 0) {
+                    final int slot = slot(newKeys, newCounts, keys[i]);
+                    newKeys[slot] = keys[i];
+                    newCounts[slot] = counts[i];
+                }
+            }
+            keys = newKeys;
+            counts = newCounts;
+        }
+
+        /**
+         * @return the keys whose count is at least minCount, in increasing order
+         */
+        long[] keysWithCount(int minCount) {
+            final long[] result = new long[size];
+            int n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (counts[i] != 0 && counts[i] >= minCount) {
+                    result[n++] = keys[i];
+                }
+            }
+            final long[] sorted = Arrays.copyOf(result, n);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Index from positions to the games that reach them.
+ * <p/>
+ * Every position reached in every regular game, including the start and final positions, is keyed by its
+ * canonical hash. Because the canonical hash is the same for all 8 reflections of a position, a single probe
+ * finds the games that reach any reflection of the position. Each posting stores the game number and the
+ * canonical reflection of the game's position, which is enough to recover the reflection onto the
+ * looked-up position.
+ * <p/>
+ * The postings are stored in two parallel buffers sorted by hash, so a lookup costs a binary search plus
+ * the size of the result. This takes 12 bytes per position; PositionBloomFilter is a smaller alternative.
+ * The buffers can be memory-mapped from a GameStoreFile, so that an index read from a file is used in place.
+ */
+final class PositionIndex implements PositionLookup {
+    private final LongBuffer hashes;
+    /**
+     * game << 3 | canonical reflection of the game's position
+     */
+    private final IntBuffer postings;
+
+    PositionIndex(LongBuffer hashes, IntBuffer postings) {
+        this.hashes = hashes;
+        this.postings = postings;
+    }
+
+    static PositionIndex of(GameStore games) {
+        return of(games, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Index the positions that occur in the first maxMoves moves of each game
+     */
+    static PositionIndex of(GameStore games, int maxMoves) {
+        int capacity = 0;
+        for (int g = 0; g < games.nGames(); g++) {
+            if (games.isRegular(g)) {
+                capacity += Math.min(games.nMoves(g), maxMoves) + 1;
+            }
+        }
+
+        final long[] hashes = new long[capacity];
+        final int[] postings = new int[capacity];
+        int n = 0;
+        for (int g = 0; g < games.nGames(); g++) {
+            if (games.isRegular(g)) {
+                final BitPosition position = BitPosition.start();
+                hashes[n] = position.canonicalHash();
+                postings[n++] = posting(g, position.canonicalReflection());
+                final int nMoves = Math.min(games.nMoves(g), maxMoves);
+                for (int i = 0; i < nMoves && position.play(games.move(g, i)); i++) {
+                    hashes[n] = position.canonicalHash();
+                    postings[n++] = posting(g, position.canonicalReflection());
+                }
+            }
+        }
+        PrimitiveSort.sort(hashes, postings, n);
+        return new PositionIndex(LongBuffer.wrap(Arrays.copyOf(hashes, n)), IntBuffer.wrap(Arrays.copyOf(postings, n)));
+    }
+
+    private static int posting(int game, int iReflection) {
+        return game << 3 | iReflection;
+    }
+
+    /**
+     * @return number of (position, game) pairs in the index
+     */
+    int size() {
+        return hashes.limit();
+    }
+
+    /**
+     * The underlying buffers, for GameStoreFile.
+     */
+    LongBuffer hashes() {
+        return hashes.duplicate();
+    }
+
+    IntBuffer postings() {
+        return postings.duplicate();
+    }
+
+    @Override public long[] frequentHashes(int minGames) {
+        final int size = size();
+        final long[] frequent = new long[size / Math.max(minGames, 1)];
+        int n = 0;
+        for (int start = 0; start < size; ) {
+            int end = start + 1;
+            while (end < size && hashes.get(end) == hashes.get(start)) {
+                end++;
+            }
+            if (end - start >= minGames) {
+                frequent[n++] = hashes.get(start);
+            }
+            start = end;
+        }
+        return Arrays.copyOf(frequent, n);
+    }
+
+    @Override public int estimateMatches(BitPosition position) {
+        final long hash = position.canonicalHash();
+        final int start = PrimitiveSort.lowerBound(hashes, hash);
+        return hash == Long.MAX_VALUE ? size() - start : PrimitiveSort.lowerBound(hashes, hash + 1) - start;
+    }
+
+    @Override public boolean countsExactly() {
+        return true;
+    }
+
+    /**
+     * Postings with the same hash are sorted by game, so this is a binary search within the position's postings
+     */
+    @Override public int reflection(BitPosition position, int game) {
+        final long hash = position.canonicalHash();
+        int lo = PrimitiveSort.lowerBound(hashes, hash);
+        int hi = hash == Long.MAX_VALUE ? size() : PrimitiveSort.lowerBound(hashes, hash + 1);
+        final int target = posting(game, 0);
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (postings.get(mid) < target) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo < size() && hashes.get(lo) == hash && postings.get(lo) >>> 3 == game) {
+            return Symmetry.compose(Symmetry.inverse(position.canonicalReflection()), postings.get(lo) & 7);
+        }
+        return -1;
+    }
+
+    @Override public PositionMatches find(BitPosition position) {
+        final long hash = position.canonicalHash();
+        final int fromCanonical = Symmetry.inverse(position.canonicalReflection());
+        final PositionMatches matches = new PositionMatches();
+        final int size = size();
+        for (int i = PrimitiveSort.lowerBound(hashes, hash); i < size && hashes.get(i) == hash; i++) {
+            final int posting = postings.get(i);
+            matches.add(posting >>> 3, Symmetry.compose(fromCanonical, posting & 7));
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+/**
+ * Finds the games that reach a position
+ */
+interface PositionLookup {
+    /**
+     * Find all games that reach the position or one of its reflections
+     *
+     * @return matching games, in increasing order, with the reflection that takes each game onto the position
+     */
+    PositionMatches find(BitPosition position);
+
+    /**
+     * @return an estimate of the number of games that find() would return, for choosing how to search
+     */
+    int estimateMatches(BitPosition position);
+
+    /**
+     * @return true if estimateMatches() is the exact number of games that find() would return
+     */
+    boolean countsExactly();
+
+    /**
+     * @return the reflection that takes the game onto the position, or -1 if the game doesn't reach the position
+     */
+    int reflection(BitPosition position, int game);
+
+    /**
+     * @return the distinct canonical hashes that are reached in at least minGames games, in increasing order
+     */
+    long[] frequentHashes(int minGames);
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import gnu.trove.list.array.TIntArrayList;
+
+/**
+ * Games that reach a position.
+ * <p/>
+ * index contains game indices, in increasing order. iReflections contains, for each game, the reflection that
+ * takes the game's position onto the looked-up position: if the game is reflected by iReflections.get(i) it
+ * passes through the looked-up position.
+ */
+final class PositionMatches {
+    final TIntArrayList index = new TIntArrayList();
+    final TIntArrayList iReflections = new TIntArrayList();
+
+    void add(int game, int iReflection) {
+        index.add(game);
+        iReflections.add(iReflection);
+    }
+
+    int size() {
+        return index.size();
+    }
+}
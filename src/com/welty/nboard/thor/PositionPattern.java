@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+/**
+ * The contents of some squares of the board: each square in the pattern must be black, white or empty, and
+ * the other squares may be anything.
+ * <p/>
+ * As with exact position lookups, a position matches if any reflection of it matches. Each distinct reflection of
+ * the pattern is kept as a mask of the squares it covers plus the black and white discs it requires, so testing
+ * a position is a few long comparisons.
+ */
+final class PositionPattern {
+    private final int nReflections;
+    private final long[] squares = new long[Symmetry.N_REFLECTIONS];
+    private final long[] blacks = new long[Symmetry.N_REFLECTIONS];
+    private final long[] whites = new long[Symmetry.N_REFLECTIONS];
+
+    /**
+     * For each reflection of the pattern, the reflection that takes a matching position onto the pattern
+     */
+    private final int[] reflections = new int[Symmetry.N_REFLECTIONS];
+
+    /**
+     * Number of discs the pattern requires. Positions with fewer discs can't match.
+     */
+    private final int nDiscs;
+
+    /**
+     * @param position position supplying the contents of the squares
+     * @param squares  squares that must match the position
+     */
+    PositionPattern(BitPosition position, long squares) {
+        int n = 0;
+        for (int r = 0; r < Symmetry.N_REFLECTIONS; r++) {
+            final long reflectedSquares = reflect(r, squares);
+            final long black = reflect(r, position.black() & squares);
+            final long white = reflect(r, position.white() & squares);
+            if (!contains(n, reflectedSquares, black, white)) {
+                this.squares[n] = reflectedSquares;
+                this.blacks[n] = black;
+                this.whites[n] = white;
+                this.reflections[n] = Symmetry.inverse(r);
+                n++;
+            }
+        }
+        nReflections = n;
+        nDiscs = Long.bitCount((position.black() | position.white()) & squares);
+    }
+
+    private boolean contains(int n, long squares, long black, long white) {
+        for (int i = 0; i < n; i++) {
+            if (this.squares[i] == squares && blacks[i] == black && whites[i] == white) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long reflect(int iReflection, long bits) {
+        long reflected = 0;
+        for (long b = bits; b != 0; b &= b - 1) {
+            reflected |= 1L << Symmetry.reflectSquare(iReflection, Long.numberOfTrailingZeros(b));
+        }
+        return reflected;
+    }
+
+    /**
+     * @return a bitmask with one bit set for each distinct reflection of the pattern
+     */
+    int allReflections() {
+        return (1 << nReflections) - 1;
+    }
+
+    int nDiscs() {
+        return nDiscs;
+    }
+
+    /**
+     * Squares never become empty again once they are played, so a reflection of the pattern that requires an
+     * occupied square to be empty can't match later in the game.
+     *
+     * @param occupied discs on the board
+     * @param alive    reflections that could still match
+     * @return the reflections in alive that could still match
+     */
+    int stillAlive(long occupied, int alive) {
+        for (int a = alive; a != 0; a &= a - 1) {
+            final int i = Integer.numberOfTrailingZeros(a);
+            final long empty = squares[i] & ~(blacks[i] | whites[i]);
+            if ((occupied & empty) != 0) {
+                alive &= ~(1 << i);
+            }
+        }
+        return alive;
+    }
+
+    /**
+     * @param alive reflections of the pattern to test
+     * @return the reflection that takes the position onto the pattern, or -1 if no reflection in alive matches
+     */
+    int match(long black, long white, int alive) {
+        for (int a = alive; a != 0; a &= a - 1) {
+            final int i = Integer.numberOfTrailingZeros(a);
+            if ((black & squares[i]) == blacks[i] && (white & squares[i]) == whites[i]) {
+                return reflections[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse a list of squares, for instance "a1:h1 d4". Squares are separated by spaces or commas;
+     * "a1:c3" is the rectangle with corners a1 and c3.
+     *
+     * @return the squares, as a bitmask
+     * @throws IllegalArgumentException if the text isn't a list of squares
+     */
+    static long parseSquares(String text) {
+        long squares = 0;
+        for (String token : text.trim().toLowerCase().split("[\\s,]+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            final String[] corners = token.split(":", -1);
+            if (corners.length > 2) {
+                throw new IllegalArgumentException("Not a square or range of squares: " + token);
+            }
+            final int from = parseSquare(corners[0]);
+            final int to = parseSquare(corners[corners.length - 1]);
+            for (int row = Math.min(from >> 3, to >> 3); row <= Math.max(from >> 3, to >> 3); row++) {
+                for (int col = Math.min(from & 7, to & 7); col <= Math.max(from & 7, to & 7); col++) {
+                    squares |= BitBoards.bit(row, col);
+                }
+            }
+        }
+        return squares;
+    }
+
+    static int parseSquare(String text) {
+        if (text.length() != 2 || text.charAt(0) < 'a' || text.charAt(0) > 'h' || text.charAt(1) < '1' || text.charAt(1) > '8') {
+            throw new IllegalArgumentException("Not a square: " + text);
+        }
+        return BitBoards.square(text.charAt(1) - '1', text.charAt(0) - 'a');
+    }
+}
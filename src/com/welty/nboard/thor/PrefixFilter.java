@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The filters from the database window, resolved against dictionary-encoded columns.
+ * <p/>
+ * Each non-empty filter text is converted once into the range of dictionary ids that start with it;
+ * after that, testing a game costs one integer comparison per active filter. The matching games can also be
+ * listed directly from the posting lists of the most selective filter.
+ * <p/>
+ * On numeric fields a filter may instead be a range: "1995..2005", "1995-2005", "1995..", "..2005",
+ * "&gt;10", "&gt;=10", "&lt;0" or "&lt;=0". Ranges are converted to a range of ranks in the column's numeric order,
+ * found by binary search, so they cost the same as prefixes.
+ */
+final class PrefixFilter {
+    private static final String NUMBER = "[-+]?(?:\\d+(?:\\.\\d*)?|\\.\\d+)";
+    private static final Pattern RANGE = Pattern.compile("\\s*(" + NUMBER + ")?\\s*\\.\\.\\s*(" + NUMBER + ")?\\s*");
+    private static final Pattern DASH_RANGE = Pattern.compile("\\s*(\\d+(?:\\.\\d*)?)\\s*-\\s*(\\d+(?:\\.\\d*)?)\\s*");
+    private static final Pattern COMPARISON = Pattern.compile("\\s*([<>]=?)\\s*(" + NUMBER + ")\\s*");
+
+    private final DictionaryColumn[] columns;
+    private final int nActive;
+    private final int[] fields;
+    /**
+     * For each active filter, the rank of each id if the filter is a numeric range, or null if it is a prefix
+     */
+    private final int[][] ranks;
+    private final int[] starts;
+    private final int[] ends;
+
+    /**
+     * @param columns text columns, indexed by field
+     * @param filters text that each field must start with; empty strings match everything
+     */
+    PrefixFilter(DictionaryColumn[] columns, String[] filters) {
+        this(columns, filters, new boolean[filters.length]);
+    }
+
+    /**
+     * @param columns text columns, indexed by field
+     * @param filters text that each field must start with, or for numeric fields optionally a range;
+     *                empty strings match everything
+     * @param numeric for each field, true if its filter may be a range
+     */
+    PrefixFilter(DictionaryColumn[] columns, String[] filters, boolean[] numeric) {
+        int nActive = 0;
+        fields = new int[filters.length];
+        ranks = new int[filters.length][];
+        starts = new int[filters.length];
+        ends = new int[filters.length];
+        for (int field = 0; field < filters.length; field++) {
+            final String filter = filters[field];
+            if (!filter.isEmpty()) {
+                final DictionaryColumn column = columns[field];
+                final double[] range = numeric[field] ? parseRange(filter) : null;
+                fields[nActive] = field;
+                if (range != null) {
+                    ranks[nActive] = column.numericRanks();
+                    starts[nActive] = column.numericRankStart(range[0]);
+                    ends[nActive] = range[1] == Double.POSITIVE_INFINITY ? column.dictionarySize()
+                            : column.numericRankStart(Math.nextUp(range[1]));
+                } else {
+                    starts[nActive] = column.prefixStart(filter);
+                    ends[nActive] = column.prefixEnd(filter);
+                }
+                nActive++;
+            }
+        }
+        this.columns = columns;
+        this.nActive = nActive;
+    }
+
+    /**
+     * Parse a numeric range.
+     * <p/>
+     * Open ends of the range exclude text that is not a number.
+     *
+     * @return {lowest, highest} value in the range, both inclusive, or null if the text isn't a range.
+     */
+    static double[] parseRange(String text) {
+        Matcher m = RANGE.matcher(text);
+        if (m.matches() && (m.group(1) != null || m.group(2) != null)) {
+            return new double[]{
+                    m.group(1) == null ? -Double.MAX_VALUE : Double.parseDouble(m.group(1)),
+                    m.group(2) == null ? Double.POSITIVE_INFINITY : Double.parseDouble(m.group(2))
+            };
+        }
+        m = DASH_RANGE.matcher(text);
+        if (m.matches()) {
+            return new double[]{Double.parseDouble(m.group(1)), Double.parseDouble(m.group(2))};
+        }
+        m = COMPARISON.matcher(text);
+        if (m.matches()) {
+            final double value = Double.parseDouble(m.group(2));
+            switch (m.group(1)) {
+                case "<":
+                    return new double[]{-Double.MAX_VALUE, Math.nextAfter(value, Double.NEGATIVE_INFINITY)};
+                case "<=":
+                    return new double[]{-Double.MAX_VALUE, value};
+                case ">":
+                    return new double[]{Math.nextUp(value), Double.POSITIVE_INFINITY};
+                default:
+                    return new double[]{value, Double.POSITIVE_INFINITY};
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if no filters are set, so that every game matches
+     */
+    boolean matchesAll() {
+        return nActive == 0;
+    }
+
+    /**
+     * @return an upper bound on the number of matching games: the number of games matching the most selective
+     * filter, or nGames if no filter is set.
+     */
+    int maxMatches(int nGames) {
+        int max = nGames;
+        for (int i = 0; i < nActive; i++) {
+            max = Math.min(max, nGames(i));
+        }
+        return max;
+    }
+
+    /**
+     * List the games that match all filters, starting from the posting lists of the most selective one.
+     * <p/>
+     * Only call this if a filter is set.
+     *
+     * @return the matching games, in increasing order
+     */
+    int[] matchingGames() {
+        int best = 0;
+        for (int i = 1; i < nActive; i++) {
+            if (nGames(i) < nGames(best)) {
+                best = i;
+            }
+        }
+        final TIntArrayList candidates = new TIntArrayList();
+        addGames(best, candidates);
+        final int[] games = new int[candidates.size()];
+        int n = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            final int game = candidates.get(i);
+            if (matches(game)) {
+                games[n++] = game;
+            }
+        }
+        final int[] matching = Arrays.copyOf(games, n);
+        Arrays.sort(matching);
+        return matching;
+    }
+
+    /**
+     * @return number of games matching active filter i
+     */
+    private int nGames(int i) {
+        final DictionaryColumn column = columns[fields[i]];
+        if (ranks[i] == null) {
+            return column.nGames(starts[i], ends[i]);
+        }
+        int n = 0;
+        for (int rank = starts[i]; rank < ends[i]; rank++) {
+            final int id = column.idByNumericRank(rank);
+            n += column.nGames(id, id + 1);
+        }
+        return n;
+    }
+
+    /**
+     * Append the games matching active filter i to games, unordered.
+     */
+    private void addGames(int i, TIntArrayList games) {
+        final DictionaryColumn column = columns[fields[i]];
+        if (ranks[i] == null) {
+            column.addGames(starts[i], ends[i], games);
+        } else {
+            for (int rank = starts[i]; rank < ends[i]; rank++) {
+                final int id = column.idByNumericRank(rank);
+                column.addGames(id, id + 1, games);
+            }
+        }
+    }
+
+    /**
+     * @return true if the game matches all filters
+     */
+    boolean matches(int game) {
+        for (int i = 0; i < nActive; i++) {
+            final int id = columns[fields[i]].id(game);
+            final int key = ranks[i] == null ? id : ranks[i][id];
+            if (key < starts[i] || key >= ends[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
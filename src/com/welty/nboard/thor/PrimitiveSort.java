@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import java.nio.LongBuffer;
+
+/**
+ * Sorting of parallel primitive arrays, for index structures that are too large to hold as objects.
+ */
+final class PrimitiveSort {
+    private static final int INSERTION_SORT_SIZE = 16;
+
+    private PrimitiveSort() {
+    }
+
+    /**
+     * Sort the first n elements of the parallel arrays keys and values, by key and then by value.
+     */
+    static void sort(long[] keys, int[] values, int n) {
+        sort(keys, values, 0, n - 1);
+    }
+
+    private static void sort(long[] keys, int[] values, int lo, int hi) {
+        while (hi - lo >= INSERTION_SORT_SIZE) {
+            final int mid = (lo + hi) >>> 1;
+            // median of three, moved to mid
+            if (less(keys, values, mid, lo)) swap(keys, values, mid, lo);
+            if (less(keys, values, hi, lo)) swap(keys, values, hi, lo);
+            if (less(keys, values, hi, mid)) swap(keys, values, hi, mid);
+            final long pivotKey = keys[mid];
+            final int pivotValue = values[mid];
+
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (compare(keys[i], values[i], pivotKey, pivotValue) < 0) i++;
+                while (compare(keys[j], values[j], pivotKey, pivotValue) > 0) j--;
+                if (i <= j) {
+                    swap(keys, values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // recurse into the smaller part, loop on the larger one, so the stack stays shallow
+            if (j - lo < hi - i) {
+                sort(keys, values, lo, j);
+                lo = i;
+            } else {
+                sort(keys, values, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && less(keys, values, j, j - 1); j--) {
+                swap(keys, values, j, j - 1);
+            }
+        }
+    }
+
+    private static boolean less(long[] keys, int[] values, int a, int b) {
+        return compare(keys[a], values[a], keys[b], values[b]) < 0;
+    }
+
+    private static int compare(long keyA, int valueA, long keyB, int valueB) {
+        if (keyA != keyB) {
+            return keyA < keyB ? -1 : 1;
+        }
+        return valueA < valueB ? -1 : (valueA == valueB ? 0 : 1);
+    }
+
+    private static void swap(long[] keys, int[] values, int a, int b) {
+        final long key = keys[a];
+        keys[a] = keys[b];
+        keys[b] = key;
+        final int value = values[a];
+        values[a] = values[b];
+        values[b] = value;
+    }
+
+    /**
+     * @return the index of the first of the first n keys that is >= key, or n if there is none.
+     */
+    static int lowerBound(long[] keys, int n, long key) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the index of the first key in the buffer that is >= key, or the buffer's limit if there is none.
+     */
+    static int lowerBound(LongBuffer keys, long key) {
+        int lo = 0;
+        int hi = keys.limit();
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (keys.get(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
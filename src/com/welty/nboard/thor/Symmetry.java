@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.welty.othello.core.CMove;
+import com.welty.othello.gdk.OsMove;
+
+/**
+ * Square mappings for the 8 board reflections.
+ * <p/>
+ * Reflection numbers are the same as those used by OsMove.reflect() and COsGame.reflect(), and the square tables
+ * are generated from OsMove.reflect() so the two can never disagree.
+ */
+final class Symmetry {
+    static final int N_REFLECTIONS = 8;
+
+    /**
+     * Reflection number that leaves the board unchanged
+     */
+    static final int IDENTITY = 0;
+
+    /**
+     * squares[iReflection][sq] is the square that sq maps to under the reflection
+     */
+    private static final int[][] squares = new int[N_REFLECTIONS][64];
+    private static final int[][] compositions = new int[N_REFLECTIONS][N_REFLECTIONS];
+    private static final int[] inverses = new int[N_REFLECTIONS];
+
+    static {
+        for (int r = 0; r < N_REFLECTIONS; r++) {
+            for (int sq = 0; sq < 64; sq++) {
+                final OsMove reflected = new CMove(sq >> 3, sq & 7).toOsMove().reflect(r);
+                squares[r][sq] = BitBoards.square(reflected.row(), reflected.col());
+            }
+        }
+        for (int a = 0; a < N_REFLECTIONS; a++) {
+            for (int b = 0; b < N_REFLECTIONS; b++) {
+                compositions[a][b] = find(a, b);
+                if (compositions[a][b] == IDENTITY) {
+                    inverses[b] = a;
+                }
+            }
+        }
+    }
+
+    private Symmetry() {
+    }
+
+    /**
+     * @return the square that sq maps to under the reflection
+     */
+    static int reflectSquare(int iReflection, int sq) {
+        return squares[iReflection][sq];
+    }
+
+    /**
+     * @return the reflection that is equivalent to applying b and then a.
+     */
+    static int compose(int a, int b) {
+        return compositions[a][b];
+    }
+
+    /**
+     * @return the reflection that undoes iReflection
+     */
+    static int inverse(int iReflection) {
+        return inverses[iReflection];
+    }
+
+    private static int find(int a, int b) {
+        for (int c = 0; c < N_REFLECTIONS; c++) {
+            boolean matches = true;
+            for (int sq = 0; sq < 64 && matches; sq++) {
+                matches = squares[c][sq] == squares[a][squares[b][sq]];
+            }
+            if (matches) {
+                return c;
+            }
+        }
+        throw new IllegalStateException("reflections " + a + " and " + b + " don't compose to a reflection");
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.welty.othello.thor.IndeterminateProgressTracker;
+
+/**
+ * Progress tracker that can be shared by several loader threads.
+ * <p/>
+ * Calls are serialized and passed on to a single underlying tracker, so the user sees one combined count.
+ */
+class SynchronizedProgressTracker implements IndeterminateProgressTracker {
+    private final IndeterminateProgressTracker tracker;
+
+    SynchronizedProgressTracker(IndeterminateProgressTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    @Override public synchronized void increment() {
+        tracker.increment();
+    }
+
+    @Override public synchronized void update() {
+        tracker.update();
+    }
+
+    @Override public synchronized void complete() {
+        tracker.complete();
+    }
+}
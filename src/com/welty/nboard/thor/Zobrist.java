@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import java.util.Random;
+
+/**
+ * Zobrist hash keys, with a copy of the key table for each board reflection.
+ * <p/>
+ * The keys are generated from a fixed seed so that hashes are the same from run to run.
+ */
+final class Zobrist {
+    static final int BLACK = 0;
+    static final int WHITE = 1;
+
+    /**
+     * Key that is xor'ed into the hash when white is to move
+     */
+    static final long WHITE_TO_MOVE;
+
+    /**
+     * keys[iReflection][color][sq] is the key for a disc of the given color on square sq
+     * of the board after it has been reflected.
+     */
+    private static final long[][][] keys = new long[Symmetry.N_REFLECTIONS][2][64];
+
+    static {
+        final Random random = new Random(0x4e426f617264L);
+        final long[][] base = new long[2][64];
+        for (int color = 0; color < 2; color++) {
+            for (int sq = 0; sq < 64; sq++) {
+                base[color][sq] = random.nextLong();
+            }
+        }
+        WHITE_TO_MOVE = random.nextLong();
+        for (int r = 0; r < Symmetry.N_REFLECTIONS; r++) {
+            for (int color = 0; color < 2; color++) {
+                for (int sq = 0; sq < 64; sq++) {
+                    keys[r][color][sq] = base[color][Symmetry.reflectSquare(r, sq)];
+                }
+            }
+        }
+    }
+
+    private Zobrist() {
+    }
+
+    /**
+     * @return key for a disc of the given color on square sq, as seen after reflecting the board by iReflection
+     */
+    static long key(int iReflection, int color, int sq) {
+        return keys[iReflection][color][sq];
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.welty.othello.thor.IndeterminateProgressTracker;
+import junit.framework.TestCase;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class DatabaseCacheTest extends TestCase {
+    public void testCache() throws IOException {
+        final File directory = Files.createTempDirectory("nboard-cache-test").toFile();
+        try {
+            copyResource("test.ggf", new File(directory, "a.ggf"));
+
+            // cold load parses the file and writes the cache
+            final DatabaseIndex cold = load(directory, Mockito.mock(IndeterminateProgressTracker.class));
+            assertEquals(1, cold.nGames());
+            assertEquals("Saio1200", cold.text(0, DatabaseIndex.BLACK));
+            assertTrue(new File(directory, DatabaseCache.MANIFEST_FILE_NAME).exists());
+            final String[] stores = storeFiles(directory);
+            assertEquals(1, stores.length);
+
+            // warm load reads the cache without parsing anything, and deletes stores left over from earlier loads
+            final File staleStore = new File(directory, "nboard-games-1.nbg");
+            assertTrue(staleStore.createNewFile());
+            final IndeterminateProgressTracker warmTracker = Mockito.mock(IndeterminateProgressTracker.class);
+            final DatabaseIndex warm = load(directory, warmTracker);
+            Mockito.verifyZeroInteractions(warmTracker);
+            assertEquals(1, warm.nGames());
+            assertEquals("Saio1200", warm.text(0, DatabaseIndex.BLACK));
+            assertEquals(cold.games.nMoves(0), warm.games.nMoves(0));
+            assertEquals(stores[0], storeFiles(directory)[0]);
+            assertFalse(staleStore.exists());
+
+            // games read from the cache keep their GGF text, including the date, ratings and clocks
+            final String text = warm.ggfText(0);
+            assertTrue(text, text.startsWith("(;GM[Othello]PC[GGS/os]DT[2003.12.15_12:33:18.MST]PB[Saio1200]"));
+            assertTrue(text, text.contains("RB[2196.37]") && text.contains("W[d2/2.39/0.01]") && text.endsWith(";)"));
+            assertEquals(text, cold.ggfText(0));
+
+            // adding a file parses only that file and rewrites the cache.
+            // Its game is already in a.ggf, so it is left out and the user is told.
+            copyResource("test.ggf", new File(directory, "b.ggf"));
+            final List<String> errors = new ArrayList<>();
+            final DatabaseIndex updated = DatabaseCache.load(directory, new ErrorDisplayer() {
+                @Override public void notify(String operation, String error) {
+                    errors.add(error);
+                }
+            }, Mockito.mock(IndeterminateProgressTracker.class));
+            assertEquals(1, errors.size());
+            assertTrue(errors.get(0).endsWith(": 1"));
+            assertEquals(1, updated.nGames());
+            assertEquals(3, updated.sources(0));
+            assertEquals(1, storeFiles(directory).length);
+            final DatabaseIndex reloaded = load(directory, Mockito.mock(IndeterminateProgressTracker.class));
+            assertEquals(1, reloaded.nGames());
+            assertEquals(3, reloaded.sources(0));
+
+            // a new file's games are appended even if its name sorts first
+            copyResource("test2.ggf", new File(directory, "0.ggf"));
+            final DatabaseIndex appended = load(directory, Mockito.mock(IndeterminateProgressTracker.class));
+            assertEquals(3, appended.nGames());
+            assertEquals("Saio1200", appended.text(0, DatabaseIndex.BLACK));
+            assertEquals("james", appended.text(1, DatabaseIndex.BLACK));
+            assertTrue(new File(directory, "0.ggf").delete());
+
+            // removing a file drops its games, but not the games it shares with other files
+            assertTrue(new File(directory, "a.ggf").delete());
+            final DatabaseIndex removed = load(directory, Mockito.mock(IndeterminateProgressTracker.class));
+            assertEquals(1, removed.nGames());
+            assertEquals("Saio1200", removed.text(0, DatabaseIndex.BLACK));
+            assertEquals(text, removed.ggfText(0));
+        } finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    public void testConcurrentLoads() throws IOException, InterruptedException, ExecutionException {
+        final File directory = Files.createTempDirectory("nboard-cache-test").toFile();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            copyResource("test.ggf", new File(directory, "a.ggf"));
+            copyResource("test2.ggf", new File(directory, "b.ggf"));
+            final List<Future<DatabaseIndex>> loads = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                loads.add(executor.submit(new Callable<DatabaseIndex>() {
+                    @Override public DatabaseIndex call() throws IOException {
+                        return load(directory, Mockito.mock(IndeterminateProgressTracker.class));
+                    }
+                }));
+            }
+            for (Future<DatabaseIndex> load : loads) {
+                assertEquals(3, load.get().nGames());
+            }
+
+            // the loads took turns, so only the first wrote a store and the others used it
+            assertEquals(1, storeFiles(directory).length);
+            final IndeterminateProgressTracker warmTracker = Mockito.mock(IndeterminateProgressTracker.class);
+            assertEquals(3, load(directory, warmTracker).nGames());
+            Mockito.verifyZeroInteractions(warmTracker);
+        } finally {
+            executor.shutdown();
+            deleteDirectory(directory);
+        }
+    }
+
+    private static void deleteDirectory(File directory) {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static DatabaseIndex load(File directory, IndeterminateProgressTracker tracker) throws IOException {
+        return DatabaseCache.load(directory, Mockito.mock(ErrorDisplayer.class), tracker);
+    }
+
+    private static String[] storeFiles(File directory) {
+        return directory.list(new FilenameFilter() {
+            @Override public boolean accept(File dir, String name) {
+                return name.endsWith(".nbg");
+            }
+        });
+    }
+
+    private void copyResource(String resource, File file) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(resource)) {
+            Files.copy(in, file.toPath());
+        }
+    }
+}
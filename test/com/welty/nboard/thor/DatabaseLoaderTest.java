@@ -16,8 +16,17 @@
 package com.welty.nboard.thor;
 
 import com.welty.othello.thor.DatabaseData;
+import com.welty.othello.thor.IndeterminateProgressTracker;
 import junit.framework.TestCase;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class DatabaseLoaderTest extends TestCase {
 
     public static void testIsWtbFilename() {
@@ -27,4 +36,36 @@ public class DatabaseLoaderTest extends TestCase {
         assertTrue(DatabaseData.isThorGamesFile("foo.WTB"));
         assertTrue(DatabaseData.isThorGamesFile("c:/devl/othello/foo.wtB"));
     }
+
+    public void testTrackerCompletedOnce() throws IOException {
+        final File a = copyResource("test.ggf");
+        final File b = copyResource("test2.ggf");
+        final AtomicInteger nIncrements = new AtomicInteger();
+        final AtomicInteger nCompletes = new AtomicInteger();
+        final IndeterminateProgressTracker tracker = new IndeterminateProgressTracker() {
+            @Override public void increment() {
+                nIncrements.incrementAndGet();
+            }
+
+            @Override public void update() {
+            }
+
+            @Override public void complete() {
+                // all files must have been loaded
+                assertEquals(4, nIncrements.get());
+                nCompletes.incrementAndGet();
+            }
+        };
+        DatabaseLoader.loadFiles(Arrays.asList(a.getPath(), b.getPath()), tracker, true);
+        assertEquals(1, nCompletes.get());
+    }
+
+    private File copyResource(String resource) throws IOException {
+        final File file = File.createTempFile("test", ".ggf");
+        file.deleteOnExit();
+        try (InputStream in = getClass().getResourceAsStream(resource)) {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file;
+    }
 }
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+package com.welty.nboard.thor;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static com.welty.nboard.thor.PositionIndexTest.positionAfter;
+import static com.welty.nboard.thor.PositionIndexTest.sq;
+
+public class DatabaseQueryTest extends TestCase {
+    public void testParse() {
+        assertEquals(positionAfter("f5", "d6").canonicalHash(), DatabaseQuery.parse("F5d6").canonicalHash());
+        assertEquals(positionAfter("f5", "d6").canonicalHash(), DatabaseQuery.parse(" f5 d6 ").canonicalHash());
+        final String start = "-------- -------- -------- ---O*--- ---*O--- -------- -------- -------- *";
+        assertEquals(BitPosition.start().canonicalHash(), DatabaseQuery.parse(start).canonicalHash());
+        try {
+            DatabaseQuery.parse("f5f5");
+            fail("should throw");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testRun() throws Exception {
+        final GameStore games = new GameStore.Builder()
+                .add(sq("f5"), sq("d6"), sq("c3"))
+                .add(sq("d3"), sq("c5"))
+                .add(sq("f5"), sq("f4"))
+                .build();
+        final DictionaryColumn[] columns = new DictionaryColumn[DatabaseIndex.N_FIELDS];
+        for (int field = 0; field < columns.length; field++) {
+            columns[field] = DictionaryColumn.of(new String[]{"10", "-4", "0"});
+        }
+        final DatabaseIndex index = new DatabaseIndex(games, columns, null);
+
+        final StringWriter out = new StringWriter();
+        final DatabaseQuery.Stats stats = DatabaseQuery.run(index, new BufferedReader(new StringReader("# comment\nf5d6\nf5\nzz\n"))
+                , new PrintWriter(out), 2);
+        assertEquals(3, stats.size());
+        final String[] lines = out.toString().split("\r?\n");
+        assertEquals("query\tgames\tblackScore\tnextMoves", lines[0]);
+        assertEquals("f5d6\t2\t50.0\tc3:1:100.0", lines[1]);
+        assertEquals("f5\t3\t50.0\tf4:1:50.0 d6:2:50.0", lines[2]);
+        assertTrue(lines[3].startsWith("zz\tERROR"));
+    }
+}
@@ -27,9 +27,15 @@ import junit.framework.TestCase;
 import org.easymock.EasyMock;
 import org.mockito.Mockito;
 
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
+
+import static com.welty.nboard.thor.PositionIndexTest.sq;
 
 /**
  * <PRE>
@@ -83,6 +89,61 @@ public class DatabaseTableModelTest extends TestCase {
         assertEquals(dtm.summary.size(), 1);
     }
 
+    public void testSorting() throws IOException {
+        final String ggfFile = createTempFile(".ggf", "test.ggf");
+        final String wtbFile = createTempFile(".WTB", "test.WTB");
+        DatabaseTableModel dtm = createDtm(Arrays.asList(ggfFile, wtbFile));
+
+        dtm.sortBy(4);
+        assertEquals("-2", dtm.getValueAt(0, 4));
+        assertEquals("0", dtm.getValueAt(1, 4));
+        assertEquals("Parallel", dtm.getValueAt(0, 5));
+
+        dtm.sortBy(4);
+        assertEquals("0", dtm.getValueAt(0, 4));
+        assertEquals("Saio1200", dtm.getValueAt(0, 0));
+
+        // the sort is kept for new lookups
+        dtm.lookUpPosition();
+        assertEquals("0", dtm.getValueAt(0, 4));
+
+        dtm.sortBy(2);
+        assertEquals("1980", dtm.getValueAt(0, 2));
+        assertEquals("2003", dtm.getValueAt(1, 2));
+    }
+
+    public void testParallelReload() throws IOException {
+        final String ggfFile = createTempFile(".ggf", "test.ggf");
+        final String wtbFile = createTempFile(".WTB", "test.WTB");
+        final List<String> fns = Arrays.asList(ggfFile, wtbFile, ggfFile);
+
+        final OptionSource optionSource = EasyMock.createNiceMock(OptionSource.class);
+        final DatabaseData databaseData = new DatabaseData();
+        DatabaseTableModel dtm = new DatabaseTableModel(optionSource, new BoardSourceStub(), databaseData);
+        reloadGames(databaseData, fns, true);
+
+        // games are in the same order as a sequential load, no matter which file finished parsing first
+        assertEquals(3, dtm.getRowCount());
+        testGameItemText(dtm);
+        assertEquals("Saio1200", dtm.getValueAt(2, 0));
+    }
+
+    public void testEndgameLookup() throws IOException {
+        DatabaseTableModel dtm = createDtm(Arrays.asList(createTempFile(".ggf", "test.ggf")));
+
+        final String[] moves = ("d3 c5 f6 f5 e6 e3 c3 d2 c4 b5 f4 d6 f3 b4 c7 d7 c6 e7 b6 f7 a5 a4 e8 f8 d8 e2 a3 c8 b3 a6 " +
+                "c1 a2 f1 g6 g5 h5 g4 h3 h4 c2 b7 d1 h6 g3 e1 f2 g2 h7 b1 h2 g1 b8 a8 a7 a1 b2 g8 h1 g7 h8").split(" ");
+        COsGame osg = new COsGame();
+        osg.setToDefaultStartPosition(OsClock.DEFAULT, OsClock.DEFAULT);
+        for (String move : moves) {
+            osg.append(new OsMoveListItem(new OsMove(move.toUpperCase())));
+            dtm.lookUpPosition(osg.pos.board);
+            assertEquals("games matching after " + move, 1, dtm.getRowCount());
+        }
+        assertEquals(0, osg.pos.board.nEmpty());
+        assertEquals(0, dtm.summary.size());
+    }
+
     public void testFiltering() throws IOException {
         final String ggfFile = createTempFile(".ggf", "test.ggf");
         final List<String> fns = Arrays.asList(ggfFile);
@@ -120,9 +181,12 @@ public class DatabaseTableModelTest extends TestCase {
     }
 
     private static DatabaseTableModel createDtm(List<String> fns) {
+        return createDtm(fns, new BoardSourceStub());
+    }
+
+    private static DatabaseTableModel createDtm(List<String> fns, BoardSource boardSource) {
         // set up a sample database
         final OptionSource optionSource = EasyMock.createNiceMock(OptionSource.class);
-        final BoardSource boardSource = new BoardSourceStub();
 
         final DatabaseData databaseData = new DatabaseData();
         DatabaseTableModel dtm = new DatabaseTableModel(optionSource, boardSource, databaseData);
@@ -132,6 +196,28 @@ public class DatabaseTableModelTest extends TestCase {
         return dtm;
     }
 
+    /**
+     * Create a table model over two games that reach the position after f5 d6 c3 d3 c4 by different move orders.
+     * Lookups run on the calling thread.
+     */
+    private static DatabaseTableModel createTranspositionDtm(BoardSource boardSource) {
+        final GameStore games = new GameStore.Builder()
+                .add(sq("f5"), sq("d6"), sq("c3"), sq("d3"), sq("c4"))
+                .add(sq("f5"), sq("d6"), sq("c4"), sq("d3"), sq("c3"))
+                .build();
+        final DictionaryColumn[] columns = new DictionaryColumn[DatabaseIndex.N_FIELDS];
+        for (int field = 0; field < columns.length; field++) {
+            columns[field] = DictionaryColumn.of(new String[]{"0", "0"});
+        }
+        final GameDatabase database = new GameDatabase();
+        database.setIndex(new DatabaseIndex(games, columns, null));
+        GameDatabaseTest.awaitListeners();
+        final DatabaseTableModel dtm = new DatabaseTableModel(EasyMock.createNiceMock(OptionSource.class), boardSource
+                , database, DatabaseTableModel.DIRECT, DatabaseTableModel.DIRECT);
+        dtm.lookUpPosition();
+        return dtm;
+    }
+
     /**
      * Call databaseData.reloadGames() with mock progress tracker and error displayer
      *
@@ -139,9 +225,21 @@ public class DatabaseTableModelTest extends TestCase {
      * @param fns          files to load
      */
     private static void reloadGames(DatabaseData databaseData, List<String> fns) {
+        reloadGames(databaseData, fns, false);
+    }
+
+    /**
+     * Call databaseData.reloadGames() with mock progress tracker and error displayer
+     *
+     * @param databaseData database data to do the loading
+     * @param fns          files to load
+     * @param parallel     if true, parse the files in parallel
+     */
+    private static void reloadGames(DatabaseData databaseData, List<String> fns, boolean parallel) {
         final IndeterminateProgressTracker tracker = Mockito.mock(IndeterminateProgressTracker.class);
         final ErrorDisplayer errorDisplayer = Mockito.mock(ErrorDisplayer.class);
-        new DatabaseLoader(null, databaseData).reloadGames(fns, errorDisplayer, tracker);
+        new DatabaseLoader(null, databaseData).reloadGames(fns, errorDisplayer, tracker, parallel);
+        GameDatabaseTest.awaitListeners();
     }
 
     public void testInitialLookup() throws IOException {
@@ -168,6 +266,165 @@ public class DatabaseTableModelTest extends TestCase {
         assertEquals(0, dd.getRowCount());
     }
 
+    public void testGameStoreFile() throws IOException {
+        final DatabaseData databaseData = new DatabaseData();
+        reloadGames(databaseData, Arrays.asList(createTempFile(".ggf", "test.ggf"), createTempFile(".WTB", "test.WTB")));
+        final DatabaseIndex original = DatabaseIndex.of(databaseData);
+        final File file = File.createTempFile("test", ".nbg");
+        file.deleteOnExit();
+        GameStoreFile.write(file, original.gamesWithSideColumns(), original.columns);
+
+        // a table model that gets its games from the file alone
+        final OptionSource optionSource = EasyMock.createNiceMock(OptionSource.class);
+        final GameDatabase gameDatabase = new GameDatabase();
+        final DatabaseTableModel dtm = new DatabaseTableModel(optionSource, new BoardSourceStub(), gameDatabase
+                , DatabaseTableModel.DIRECT, DatabaseTableModel.DIRECT);
+        gameDatabase.setIndex(GameStoreFile.read(file));
+        GameDatabaseTest.awaitListeners();
+
+        assertEquals(2, dtm.nGamesInDatabase());
+        assertEquals(2, dtm.getRowCount());
+        testGameItemText(dtm);
+        assertEquals(2, dtm.summary.size());
+
+        final COsGame ggfGame = databaseData.GameFromIndex(1);
+        final COsGame storedGame = dtm.gameFromRow(1);
+        assertEquals(ggfGame.nMoves(), storedGame.nMoves());
+        for (int i = 0; i < ggfGame.nMoves(); i++) {
+            assertEquals(ggfGame.getMli(i).move.toString(), storedGame.getMli(i).move.toString());
+            assertEquals(ggfGame.getMli(i).hasEval(), storedGame.getMli(i).hasEval());
+            if (ggfGame.getMli(i).hasEval()) {
+                assertEquals(ggfGame.getMli(i).getEval(), storedGame.getMli(i).getEval(), 0.01);
+            }
+            assertEquals(ggfGame.getMli(i).getElapsedTime(), storedGame.getMli(i).getElapsedTime(), 0.01);
+        }
+    }
+
+    public void testNarrowing() throws IOException {
+        final List<String> fns = Arrays.asList(createTempFile(".ggf", "test.ggf"), createTempFile(".WTB", "test.WTB"));
+        final BoardSourceStub boardSource = new BoardSourceStub();
+        final DatabaseTableModel dd = createDtm(fns, boardSource);
+        final DatabaseTableModel full = createDtm(fns);
+        assertEquals(2, dd.getRowCount());
+
+        // each single-move update narrows the previous matches; it should agree with a full lookup.
+        final int[] expectedRowCounts = {2, 1, 1, 1};
+        final String[] moves = {"D3", "C5", "F6", "F5"};
+        for (int i = 0; i < moves.length; i++) {
+            boardSource.append(new OsMoveListItem(moves[i]));
+            assertEquals(expectedRowCounts[i], dd.getRowCount());
+            full.lookUpPosition(boardSource.DisplayedPosition().board);
+            assertEquals(expectedRowCounts[i], full.getRowCount());
+            assertEquals(Arrays.toString(full.summary.keys()), Arrays.toString(dd.summary.keys()));
+        }
+    }
+
+    public void testNarrowingWithTransposition() {
+        final BoardSourceStub boardSource = new BoardSourceStub();
+        final DatabaseTableModel dd = createTranspositionDtm(boardSource);
+
+        // after c3 only the first game matches, but the second game reaches the position after d3 c4 by c4 d3 c3.
+        final String[] moves = {"F5", "D6", "C3", "D3", "C4"};
+        final int[] expectedRowCounts = {2, 2, 1, 1, 2};
+        for (int i = 0; i < moves.length; i++) {
+            boardSource.append(new OsMoveListItem(moves[i]));
+            assertEquals(moves[i], expectedRowCounts[i], dd.getRowCount());
+        }
+    }
+
+    public void testTranspositionIsCachedWithAllGames() {
+        final BoardSourceStub boardSource = new BoardSourceStub();
+        final DatabaseTableModel dd = createTranspositionDtm(boardSource);
+        for (String move : new String[]{"F5", "D6", "C3", "D3", "C4"}) {
+            boardSource.append(new OsMoveListItem(move));
+        }
+
+        // narrowing after c4 would miss the second game, so the cached lookup comes from a full lookup
+        final int hits = dd.getLookupCacheHits();
+        dd.lookUpPosition(boardSource.DisplayedPosition().board);
+        assertEquals(hits + 1, dd.getLookupCacheHits());
+        assertEquals(2, dd.getRowCount());
+    }
+
+    public void testLookupCache() throws IOException {
+        final OptionSource optionSource = EasyMock.createNiceMock(OptionSource.class);
+        final BoardSourceStub boardSource = new BoardSourceStub();
+        final DatabaseData databaseData = new DatabaseData();
+        DatabaseTableModel dd = new DatabaseTableModel(optionSource, boardSource, databaseData);
+        reloadGames(databaseData, Arrays.asList(createTempFile(".ggf", "test.ggf"), createTempFile(".WTB", "test.WTB")));
+
+        final COsGame f5 = new COsGame();
+        f5.setToDefaultStartPosition(OsClock.DEFAULT, OsClock.DEFAULT);
+        f5.append(new OsMoveListItem(new OsMove("F5")));
+        final COsGame d3 = new COsGame();
+        d3.setToDefaultStartPosition(OsClock.DEFAULT, OsClock.DEFAULT);
+        d3.append(new OsMoveListItem(new OsMove("D3")));
+
+        dd.lookUpPosition(f5.pos.board);
+        final int hits = dd.getLookupCacheHits();
+        final int nRows = dd.getRowCount();
+        final String f5Keys = Arrays.toString(dd.summary.keys());
+
+        // D3 is a reflection of F5, so its lookup comes from the cache, reflected.
+        dd.lookUpPosition(d3.pos.board);
+        assertEquals(hits + 1, dd.getLookupCacheHits());
+        assertEquals(nRows, dd.getRowCount());
+        final DatabaseTableModel full = new DatabaseTableModel(optionSource, new BoardSourceStub(), databaseData);
+        full.lookUpPosition(d3.pos.board);
+        assertEquals(Arrays.toString(full.summary.keys()), Arrays.toString(dd.summary.keys()));
+        assertFalse(f5Keys.equals(Arrays.toString(dd.summary.keys())));
+
+        // reloading the database clears the cache
+        reloadGames(databaseData, Arrays.asList(createTempFile(".ggf", "test.ggf")));
+        final int misses = dd.getLookupCacheMisses();
+        dd.lookUpPosition(f5.pos.board);
+        assertEquals(misses + 1, dd.getLookupCacheMisses());
+        assertEquals(1, dd.getRowCount());
+    }
+
+    public void testSupersededLookupsAreNotPublished() throws IOException {
+        final OptionSource optionSource = EasyMock.createNiceMock(OptionSource.class);
+        final BoardSourceStub boardSource = new BoardSourceStub();
+        final DatabaseData databaseData = new DatabaseData();
+        final QueueExecutor lookups = new QueueExecutor();
+        DatabaseTableModel dd = new DatabaseTableModel(optionSource, boardSource, GameDatabase.following(databaseData), lookups, DatabaseTableModel.DIRECT);
+        final int[] nPublished = {0};
+        dd.addTableModelListener(new TableModelListener() {
+            @Override public void tableChanged(TableModelEvent e) {
+                nPublished[0]++;
+            }
+        });
+
+        reloadGames(databaseData, Arrays.asList(createTempFile(".ggf", "test.ggf")));
+        lookups.runAll();
+        assertEquals(1, dd.getRowCount());
+
+        nPublished[0] = 0;
+        boardSource.append(new OsMoveListItem("F5"));
+        boardSource.append(new OsMoveListItem("F6"));
+        assertEquals("lookups don't run on the requesting thread", 1, dd.getRowCount());
+        lookups.runAll();
+        assertEquals(0, dd.getRowCount());
+        assertEquals("only the latest lookup is published", 1, nPublished[0]);
+    }
+
+    /**
+     * Executor that holds tasks until runAll() is called
+     */
+    private static class QueueExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
     /**
      * Create a temp file on disk
      *
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.welty.othello.thor.DatabaseData;
+import com.welty.othello.thor.IndeterminateProgressTracker;
+import junit.framework.TestCase;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+public class DatabaseWatcherTest extends TestCase {
+    public void testReloadOnNewFile() throws IOException, InterruptedException {
+        final File directory = Files.createTempDirectory("nboard-watcher-test").toFile();
+        try {
+            copyResource("test.ggf", new File(directory, "a.ggf"));
+            final GameDatabase database = new GameDatabase();
+            final ErrorDisplayer errorDisplayer = Mockito.mock(ErrorDisplayer.class);
+            database.setIndex(DatabaseCache.load(directory, errorDisplayer, Mockito.mock(IndeterminateProgressTracker.class)));
+            GameDatabaseTest.awaitListeners();
+            assertEquals(1, database.getIndex().nGames());
+
+            final Semaphore changes = new Semaphore(0);
+            database.addListener(new DatabaseData.Listener() {
+                @Override public void databaseChanged() {
+                    changes.release();
+                }
+            });
+            try (DatabaseWatcher ignored = new DatabaseWatcher(directory, database, errorDisplayer, 200)) {
+                copyResource("test2.ggf", new File(directory, "b.ggf"));
+                copyResource("test.ggf", new File(directory, "c.ggf"));
+                assertTrue(changes.tryAcquire(30, TimeUnit.SECONDS));
+                // the last game of test2.ggf and the game in c.ggf are the game in a.ggf
+                assertEquals(3, database.getIndex().nGames());
+                assertEquals("Saio1200", database.getIndex().text(0, DatabaseIndex.BLACK));
+
+                // the two files were reloaded as one batch, and writing the cache didn't trigger another reload
+                assertFalse(changes.tryAcquire(1, TimeUnit.SECONDS));
+            }
+        } finally {
+            final File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+
+    private void copyResource(String resource, File file) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(resource)) {
+            Files.copy(in, file.toPath());
+        }
+    }
+}
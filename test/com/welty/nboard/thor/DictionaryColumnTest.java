@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import gnu.trove.list.array.TIntArrayList;
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class DictionaryColumnTest extends TestCase {
+    public void testDictionary() {
+        final DictionaryColumn column = DictionaryColumn.of(new String[]{"Tamenori", "Murakami", "Tastet", "Murakami"});
+        assertEquals(3, column.dictionarySize());
+        assertEquals(column.id(1), column.id(3));
+        assertEquals("Tamenori", column.text(0));
+        assertEquals("Murakami", column.text(3));
+        assertTrue("ids are in sorted order", column.id(1) < column.id(0) && column.id(0) < column.id(2));
+    }
+
+    public void testPrefixRange() {
+        final DictionaryColumn column = DictionaryColumn.of(new String[]{"Tamenori", "Murakami", "Tastet", "Ta", "Shaman"});
+        assertEquals(3, column.prefixEnd("Ta") - column.prefixStart("Ta"));
+        assertEquals(1, column.prefixEnd("Tas") - column.prefixStart("Tas"));
+        assertEquals(0, column.prefixEnd("Tz") - column.prefixStart("Tz"));
+        assertEquals(0, column.prefixEnd("A") - column.prefixStart("A"));
+        assertEquals(0, column.prefixEnd("Zebra") - column.prefixStart("Zebra"));
+        assertEquals(5, column.prefixEnd("") - column.prefixStart(""));
+    }
+
+    public void testNumericRanks() {
+        final DictionaryColumn column = DictionaryColumn.of(new String[]{"10", "9", "-2", "???", "9.5", "-10"});
+        final int[] ranks = column.numericRanks();
+        final String[] expected = {"???", "-10", "-2", "9", "9.5", "10"};
+        for (int game = 0; game < column.nGames(); game++) {
+            assertEquals(column.text(game), expected[ranks[column.id(game)]]);
+        }
+    }
+
+    public void testPostings() {
+        final DictionaryColumn column = DictionaryColumn.of(new String[]{"Tamenori", "Murakami", "Tastet", "Murakami", "Shaman"});
+        final int start = column.prefixStart("M");
+        final int end = column.prefixEnd("Sh");
+        assertEquals(3, column.nGames(start, end));
+        final TIntArrayList games = new TIntArrayList();
+        column.addGames(start, end, games);
+        assertEquals("[1, 3, 4]", Arrays.toString(games.toArray()));
+    }
+
+    public void testMatchingGames() {
+        final DictionaryColumn black = DictionaryColumn.of(new String[]{"Tamenori", "Murakami", "Tastet", "Tamenori"});
+        final DictionaryColumn white = DictionaryColumn.of(new String[]{"Shaman", "Tamenori", "Murakami", "Murakami"});
+        final DictionaryColumn[] columns = {black, white};
+
+        final PrefixFilter filter = new PrefixFilter(columns, new String[]{"Ta", "M"});
+        assertEquals(2, filter.maxMatches(4));
+        assertEquals("[2, 3]", Arrays.toString(filter.matchingGames()));
+        assertEquals(4, new PrefixFilter(columns, new String[]{"", ""}).maxMatches(4));
+    }
+
+    public void testPrefixFilter() {
+        final DictionaryColumn black = DictionaryColumn.of(new String[]{"Tamenori", "Murakami", "Tastet"});
+        final DictionaryColumn white = DictionaryColumn.of(new String[]{"Shaman", "Tamenori", "Murakami"});
+        final DictionaryColumn[] columns = {black, white};
+
+        final PrefixFilter none = new PrefixFilter(columns, new String[]{"", ""});
+        assertTrue(none.matchesAll());
+
+        final PrefixFilter filter = new PrefixFilter(columns, new String[]{"Ta", "M"});
+        assertFalse(filter.matchesAll());
+        assertFalse(filter.matches(0));
+        assertFalse(filter.matches(1));
+        assertTrue(filter.matches(2));
+    }
+
+    public void testParseRange() {
+        assertEquals("[1995.0, 2005.0]", Arrays.toString(PrefixFilter.parseRange("1995..2005")));
+        assertEquals("[1995.0, 2005.0]", Arrays.toString(PrefixFilter.parseRange("1995-2005")));
+        assertEquals("[-10.0, Infinity]", Arrays.toString(PrefixFilter.parseRange(">=-10")));
+        assertEquals("[-1.7976931348623157E308, 0.0]", Arrays.toString(PrefixFilter.parseRange("..0")));
+        assertNull(PrefixFilter.parseRange("199"));
+        assertNull(PrefixFilter.parseRange("-4"));
+        assertNull(PrefixFilter.parseRange(".."));
+    }
+
+    public void testRangeFilter() {
+        final DictionaryColumn year = DictionaryColumn.of(new String[]{"1994", "1995", "2005", "2006", "", "2000"});
+        final DictionaryColumn result = DictionaryColumn.of(new String[]{"12", "-4", "0", "30", "10", "9"});
+        final DictionaryColumn[] columns = {year, result};
+        final boolean[] numeric = {true, true};
+
+        final PrefixFilter years = new PrefixFilter(columns, new String[]{"1995..2005", ""}, numeric);
+        assertEquals(3, years.maxMatches(6));
+        assertEquals("[1, 2, 5]", Arrays.toString(years.matchingGames()));
+
+        final PrefixFilter both = new PrefixFilter(columns, new String[]{">=1995", ">=10"}, numeric);
+        assertEquals("[3]", Arrays.toString(both.matchingGames()));
+        assertTrue(both.matches(3));
+        assertFalse(both.matches(0));
+        assertFalse(both.matches(4));
+
+        final PrefixFilter negative = new PrefixFilter(columns, new String[]{"", "<0"}, numeric);
+        assertEquals("[1]", Arrays.toString(negative.matchingGames()));
+
+        final PrefixFilter prefix = new PrefixFilter(columns, new String[]{"", "1"}, numeric);
+        assertEquals("[0, 4]", Arrays.toString(prefix.matchingGames()));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.welty.othello.thor.DatabaseData;
+import com.welty.othello.thor.IndeterminateProgressTracker;
+import com.welty.othello.thor.ThorGameInternal;
+import junit.framework.TestCase;
+import org.mockito.Mockito;
+
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class GameDatabaseTest extends TestCase {
+    public void testFollowingIsShared() {
+        final DatabaseData databaseData = new DatabaseData();
+        assertSame(GameDatabase.following(databaseData), GameDatabase.following(databaseData));
+        assertNotSame(GameDatabase.following(databaseData), GameDatabase.following(new DatabaseData()));
+    }
+
+    public void testReloadIsPublishedOnce() throws IOException {
+        final DatabaseData databaseData = new DatabaseData();
+        final GameDatabase database = GameDatabase.following(databaseData);
+        final List<Integer> published = new ArrayList<>();
+        database.addListener(new DatabaseData.Listener() {
+            @Override public void databaseChanged() {
+                published.add(database.getIndex().nGames());
+            }
+        });
+
+        final List<String> fns = Arrays.asList(createTempFile("test.ggf"), createTempFile("test2.ggf"));
+        // the last game of test2.ggf is the game in test.ggf, so it is loaded only once
+        reloadGames(databaseData, fns);
+        awaitListeners();
+        assertEquals(Arrays.asList(3), published);
+        assertEquals(3, database.getIndex().sources(0));
+        assertEquals(2, database.getIndex().sources(1));
+
+        reloadGames(databaseData, fns.subList(1, 2));
+        awaitListeners();
+        assertEquals(Arrays.asList(3, 3), published);
+    }
+
+    public void testOldIndexIsServedDuringUpdate() {
+        final DatabaseData databaseData = new DatabaseData();
+        final GameDatabase database = GameDatabase.following(databaseData);
+        final DatabaseIndex before = database.getIndex();
+        final int[] nChanges = {0};
+        database.addListener(new DatabaseData.Listener() {
+            @Override public void databaseChanged() {
+                nChanges[0]++;
+            }
+        });
+        database.update(new Runnable() {
+            @Override public void run() {
+                databaseData.clearGames();
+                databaseData.setThorGames(new ArrayList<ThorGameInternal>());
+                assertSame(before, database.getIndex());
+                assertEquals(0, nChanges[0]);
+            }
+        });
+        assertNotSame(before, database.getIndex());
+        awaitListeners();
+        assertEquals(1, nChanges[0]);
+    }
+
+    public void testListenersRunOnEventDispatchThread() {
+        final GameDatabase database = new GameDatabase();
+        final List<Boolean> onEdt = new ArrayList<>();
+        database.addListener(new DatabaseData.Listener() {
+            @Override public void databaseChanged() {
+                onEdt.add(SwingUtilities.isEventDispatchThread());
+            }
+        });
+        database.setIndex(DatabaseIndex.EMPTY);
+        awaitListeners();
+        assertEquals(Arrays.asList(true), onEdt);
+    }
+
+    /**
+     * Wait until the listeners notified by setIndex() have run on the event dispatch thread
+     */
+    static void awaitListeners() {
+        try {
+            SwingUtilities.invokeAndWait(new Runnable() {
+                @Override public void run() {
+                }
+            });
+        } catch (InterruptedException | InvocationTargetException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void reloadGames(DatabaseData databaseData, List<String> fns) {
+        new DatabaseLoader(null, databaseData).reloadGames(fns, Mockito.mock(ErrorDisplayer.class)
+                , Mockito.mock(IndeterminateProgressTracker.class));
+    }
+
+    private String createTempFile(String resource) throws IOException {
+        final File file = File.createTempFile("nboard-test", ".ggf");
+        file.deleteOnExit();
+        Files.delete(file.toPath());
+        try (InputStream in = getClass().getResourceAsStream(resource)) {
+            Files.copy(in, file.toPath());
+        }
+        return file.getPath();
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+package com.welty.nboard.thor;
+
+import com.welty.othello.thor.DatabaseData;
+import com.welty.othello.thor.IndeterminateProgressTracker;
+import junit.framework.TestCase;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.welty.nboard.thor.PositionIndexTest.sq;
+
+public class GameExportTest extends TestCase {
+    private static DatabaseIndex index() {
+        final GameStore games = new GameStore.Builder()
+                .add(sq("f5"), sq("d6"))
+                .add(sq("d3"))
+                .build();
+        final DictionaryColumn[] columns = new DictionaryColumn[DatabaseIndex.N_FIELDS];
+        columns[DatabaseIndex.BLACK] = DictionaryColumn.of(new String[]{"Alice", "Bob"});
+        columns[DatabaseIndex.WHITE] = DictionaryColumn.of(new String[]{"Bob", "Carol"});
+        columns[DatabaseIndex.YEAR] = DictionaryColumn.of(new String[]{"2013", ""});
+        columns[DatabaseIndex.PLACE] = DictionaryColumn.of(new String[]{"Paris]", "Paris]"});
+        columns[DatabaseIndex.RESULT] = DictionaryColumn.of(new String[]{"10", "-64"});
+        columns[DatabaseIndex.OPENING] = DictionaryColumn.of(new String[]{"", ""});
+        return new DatabaseIndex(games, columns, null);
+    }
+
+    public void testGgf() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(2, new GameExport(index(), new int[]{1, 0}).writeGgf(Channels.newChannel(out)));
+        final String start = "TY[8]BO[8 -------- -------- -------- ---O*--- ---*O--- -------- -------- -------- *]";
+        assertEquals("(;GM[Othello]PC[Paris]PB[Bob]PW[Carol]RE[-64.000]" + start + "B[d3];)\n"
+                + "(;GM[Othello]PC[Paris]DT[2013.01.01_00:00:00.GMT]PB[Alice]PW[Bob]RE[+10.000]" + start + "B[f5]W[d6];)\n"
+                , out.toString("UTF-8"));
+    }
+
+    public void testIrregularGame() throws IOException {
+        final BitPosition start = new BitPosition(BitBoards.START_BLACK, BitBoards.START_WHITE, false);
+        final GameStore games = new GameStore.Builder()
+                .add(start, sq("f4"))
+                .build();
+        final DictionaryColumn[] columns = new DictionaryColumn[DatabaseIndex.N_FIELDS];
+        for (int field = 0; field < columns.length; field++) {
+            columns[field] = DictionaryColumn.of(new String[]{"0"});
+        }
+        final GameExport export = new GameExport(new DatabaseIndex(games, columns, null), new int[]{0});
+
+        final ByteArrayOutputStream ggf = new ByteArrayOutputStream();
+        assertEquals(1, export.writeGgf(Channels.newChannel(ggf)));
+        assertEquals("(;GM[Othello]PC[0]PB[0]PW[0]RE[+0.000]"
+                + "TY[8]BO[8 -------- -------- -------- ---O*--- ---*O--- -------- -------- -------- O]W[f4];)\n"
+                , ggf.toString("UTF-8"));
+
+        // Thor files can only hold games from the standard start position
+        final ByteArrayOutputStream wtb = new ByteArrayOutputStream();
+        assertEquals(0, export.writeThor(Channels.newChannel(wtb), Channels.newChannel(new ByteArrayOutputStream())
+                , Channels.newChannel(new ByteArrayOutputStream())));
+        assertEquals(GameExport.THOR_HEADER_SIZE, wtb.size());
+    }
+
+    public void testThor() throws IOException {
+        final ByteArrayOutputStream wtbOut = new ByteArrayOutputStream();
+        final ByteArrayOutputStream jouOut = new ByteArrayOutputStream();
+        final ByteArrayOutputStream trnOut = new ByteArrayOutputStream();
+        assertEquals(2, new GameExport(index(), new int[]{0, 1})
+                .writeThor(Channels.newChannel(wtbOut), Channels.newChannel(jouOut), Channels.newChannel(trnOut)));
+
+        final ByteBuffer wtb = ByteBuffer.wrap(wtbOut.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(GameExport.THOR_HEADER_SIZE + 2 * GameExport.THOR_GAME_SIZE, wtb.limit());
+        assertEquals(2, wtb.getInt(4));
+        assertEquals(2013, wtb.getShort(10));
+        assertEquals(8, wtb.get(12));
+
+        wtb.position(GameExport.THOR_HEADER_SIZE);
+        assertEquals(0, wtb.getShort()); // tournament
+        assertEquals(0, wtb.getShort()); // Alice
+        assertEquals(1, wtb.getShort()); // Bob
+        assertEquals(37, wtb.get());
+        assertEquals(37, wtb.get());
+        assertEquals(56, wtb.get()); // f5
+        assertEquals(64, wtb.get()); // d6
+        assertEquals(0, wtb.get());
+
+        wtb.position(GameExport.THOR_HEADER_SIZE + GameExport.THOR_GAME_SIZE);
+        assertEquals(0, wtb.getShort());
+        assertEquals(1, wtb.getShort()); // Bob
+        assertEquals(2, wtb.getShort()); // Carol
+        assertEquals(0, wtb.get());
+        assertEquals(0, wtb.get());
+        assertEquals(34, wtb.get()); // d3
+
+        final ByteBuffer jou = ByteBuffer.wrap(jouOut.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(GameExport.THOR_HEADER_SIZE + 3 * GameExport.THOR_PLAYER_SIZE, jou.limit());
+        assertEquals(3, jou.getShort(8));
+        assertEquals("Carol", name(jou, 2, GameExport.THOR_PLAYER_SIZE));
+
+        final ByteBuffer trn = ByteBuffer.wrap(trnOut.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(GameExport.THOR_HEADER_SIZE + GameExport.THOR_TOURNAMENT_SIZE, trn.limit());
+        assertEquals("Paris]", name(trn, 0, GameExport.THOR_TOURNAMENT_SIZE));
+    }
+
+    /**
+     * Exported games, read back with the existing loaders, have the same moves, players and results
+     */
+    public void testRoundTrip() throws IOException {
+        final File directory = Files.createTempDirectory("nboard-export-test").toFile();
+        final File thorDirectory = new File(directory, "thor");
+        try {
+            assertTrue(thorDirectory.mkdir());
+            final File wtbIn = copyResource("test.WTB", new File(directory, "in.wtb"));
+            final File ggfIn = copyResource("test.ggf", new File(directory, "in.ggf"));
+            final DatabaseIndex index = DatabaseIndex.of(load(Arrays.asList(wtbIn.getPath(), ggfIn.getPath())));
+            assertEquals(2, index.nGames());
+            final int[] games = {0, 1};
+
+            final File ggfOut = new File(directory, "out.ggf");
+            try (FileChannel ggf = openForWrite(ggfOut)) {
+                assertEquals(2, new GameExport(index, games).writeGgf(ggf));
+            }
+            assertSameGames(index, DatabaseIndex.of(load(Collections.singletonList(ggfOut.getPath()))));
+
+            try (FileChannel wtb = openForWrite(new File(thorDirectory, "out.wtb"));
+                 FileChannel jou = openForWrite(new File(thorDirectory, "out.jou"));
+                 FileChannel trn = openForWrite(new File(thorDirectory, "out.trn"))) {
+                assertEquals(2, new GameExport(index, games).writeThor(wtb, jou, trn));
+            }
+            final DatabaseData thor = new DatabaseData();
+            thor.loadFromThorDirectory(thorDirectory);
+            assertSameGames(index, DatabaseIndex.of(thor));
+        } finally {
+            for (File dir : new File[]{thorDirectory, directory}) {
+                final File[] files = dir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+                dir.delete();
+            }
+        }
+    }
+
+    private static void assertSameGames(DatabaseIndex expected, DatabaseIndex actual) {
+        assertEquals(expected.nGames(), actual.nGames());
+        for (int game = 0; game < expected.nGames(); game++) {
+            assertEquals(expected.text(game, DatabaseIndex.BLACK), actual.text(game, DatabaseIndex.BLACK));
+            assertEquals(expected.text(game, DatabaseIndex.WHITE), actual.text(game, DatabaseIndex.WHITE));
+            assertEquals(expected.result(game), actual.result(game));
+            final int nMoves = expected.games.nMoves(game);
+            assertEquals(nMoves, actual.games.nMoves(game));
+            for (int i = 0; i < nMoves; i++) {
+                assertEquals(expected.games.move(game, i), actual.games.move(game, i));
+            }
+        }
+    }
+
+    /**
+     * Load game files into a new DatabaseData, failing on any error
+     */
+    private static DatabaseData load(List<String> fns) {
+        final DatabaseData databaseData = new DatabaseData();
+        final ErrorDisplayer errorDisplayer = new ErrorDisplayer() {
+            @Override public void notify(String operation, String error) {
+                fail(operation + ": " + error);
+            }
+        };
+        final IndeterminateProgressTracker tracker = Mockito.mock(IndeterminateProgressTracker.class);
+        DatabaseLoader.replaceGames(databaseData, DatabaseLoader.loadFiles(fns, tracker, false), errorDisplayer);
+        return databaseData;
+    }
+
+    private static FileChannel openForWrite(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+    }
+
+    private File copyResource(String resource, File file) throws IOException {
+        try (InputStream in = getClass().getResourceAsStream(resource)) {
+            Files.copy(in, file.toPath());
+        }
+        return file;
+    }
+
+    private static String name(ByteBuffer buffer, int number, int recordSize) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = GameExport.THOR_HEADER_SIZE + number * recordSize; buffer.get(i) != 0; i++) {
+            sb.append((char) buffer.get(i));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+package com.welty.nboard.thor;
+
+import com.welty.othello.thor.DatabaseData;
+import com.welty.othello.thor.GgfGameText;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static com.welty.nboard.thor.PositionIndexTest.sq;
+
+public class GameSourcesTest extends TestCase {
+    public void testKey() {
+        final GameStore games = new GameStore.Builder()
+                .add(sq("f5"), sq("d6"), sq("c3"))
+                .add(sq("d3"), sq("c5"), sq("f6"))
+                .add(sq("f5"), sq("f6"))
+                .build();
+        final String f5d6c3 = GameSources.key(games, 0, 4);
+        assertNotNull(f5d6c3);
+        // the same game, reflected
+        assertEquals(f5d6c3, GameSources.key(games, 1, 4));
+        assertFalse(f5d6c3.equals(GameSources.key(games, 1, -4)));
+        assertFalse(f5d6c3.equals(GameSources.key(games, 2, 4)));
+    }
+
+    public void testRemoveDuplicates() {
+        final String game = "(;GM[Othello]PC[GGS/os]PB[a]PW[b]RE[+2.000]BO[8 -------- -------- -------- ---O*--- ---*O--- -------- -------- -------- *]B[f5]W[d6]B[c3];)";
+        final String reflected = "(;GM[Othello]PC[GGS/os]PB[a]PW[b]RE[+2.000]BO[8 -------- -------- -------- ---O*--- ---*O--- -------- -------- -------- *]B[d3]W[c5]B[f6];)";
+        final String other = "(;GM[Othello]PC[GGS/os]PB[a]PW[b]RE[+2.000]BO[8 -------- -------- -------- ---O*--- ---*O--- -------- -------- -------- *]B[f5]W[f6];)";
+
+        final GameSources sources = new GameSources();
+        final ArrayList<GgfGameText> first = sources.removeDuplicateGgfGames(texts(game, other, game), 0);
+        assertEquals(2, first.size());
+        final ArrayList<GgfGameText> second = sources.removeDuplicateGgfGames(texts(reflected), 1);
+        assertEquals(0, second.size());
+        assertEquals(2, sources.nDuplicates());
+
+        final GameStore games = new GameStore.Builder()
+                .add(sq("f5"), sq("d6"), sq("c3"))
+                .add(sq("f5"), sq("f6"))
+                .build();
+        final DatabaseData databaseData = new DatabaseData();
+        databaseData.addGgfGames(texts(game));
+        final String result = databaseData.GameItemText(0, DatabaseIndex.RESULT);
+        final DictionaryColumn results = DictionaryColumn.of(new String[]{result, result});
+        assertEquals("[3, 1]", Arrays.toString(sources.sources(games, results)));
+    }
+
+    private static ArrayList<GgfGameText> texts(String... texts) {
+        final ArrayList<GgfGameText> gameTexts = new ArrayList<>();
+        for (String text : texts) {
+            gameTexts.add(new GgfGameText(text));
+        }
+        return gameTexts;
+    }
+}
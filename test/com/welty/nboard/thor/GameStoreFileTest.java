@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.welty.othello.gdk.COsGame;
+import com.welty.othello.gdk.OsClock;
+import com.welty.othello.gdk.OsMoveListItem;
+import com.welty.othello.thor.DatabaseData;
+import com.welty.othello.thor.GgfGameText;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class GameStoreFileTest extends TestCase {
+    public void testRoundTrip() throws IOException {
+        final COsGame game = new COsGame();
+        game.Initialize("8", OsClock.DEFAULT, OsClock.DEFAULT);
+        game.append(new OsMoveListItem("F5/1.5/2"));
+        game.append(new OsMoveListItem("D6"));
+        final GameStore games = new GameStore.Builder(true)
+                .add(game)
+                .add(PositionIndexTest.sq("f5"), PositionIndexTest.sq("f6"))
+                .build();
+        final DictionaryColumn[] columns = new DictionaryColumn[DatabaseIndex.N_FIELDS];
+        for (int field = 0; field < columns.length; field++) {
+            columns[field] = DictionaryColumn.of(new String[]{"Black \u00e9" + field, "" + (field - 2)});
+        }
+
+        final File file = File.createTempFile("test", ".nbg");
+        file.deleteOnExit();
+        GameStoreFile.write(file, games, columns);
+        final DatabaseIndex index = GameStoreFile.read(file);
+
+        assertEquals(2, index.nGames());
+        assertEquals(2, index.games.nMoves(0));
+        assertEquals(PositionIndexTest.sq("d6"), index.games.move(0, 1));
+        assertEquals(PositionIndexTest.sq("f6"), index.games.move(1, 1));
+        assertTrue(index.games.hasSideColumns());
+        for (int field = 0; field < columns.length; field++) {
+            assertEquals("Black \u00e9" + field, index.text(0, field));
+            assertEquals("" + (field - 2), index.text(1, field));
+        }
+        assertEquals(2, index.result(1));
+
+        final COsGame stored = index.gameFromIndex(0);
+        assertEquals(2, stored.nMoves());
+        assertEquals(1.5, stored.getMli(0).getEval(), 1e-6);
+        assertEquals(2, stored.getMli(0).getElapsedTime(), 1e-6);
+        assertFalse(stored.getMli(1).hasEval());
+
+        // both games reach the position after F5; black won game 1 by 2 and the result of game 0 is "Black \u00e94".
+        final BitPosition position = PositionIndexTest.positionAfter("f5");
+        final PositionMatches matches = index.positions.find(position);
+        final MoveSummary summary = index.summarize(position, matches.index, matches.iReflections);
+        assertEquals(2, summary.size());
+        assertEquals(1, summary.get(PositionIndexTest.sq("d6")).getNPlayed());
+        assertEquals(0.5, summary.get(PositionIndexTest.sq("d6")).getScore(), 1e-9);
+        assertEquals(0.0, summary.get(PositionIndexTest.sq("f6")).getScore(), 1e-9);
+    }
+
+    public void testIrregularGame() throws IOException {
+        // the standard discs with white to move
+        final BitPosition start = new BitPosition(BitBoards.START_BLACK, BitBoards.START_WHITE, false);
+        final GameStore games = new GameStore.Builder()
+                .add(PositionIndexTest.sq("f5"))
+                .add(start, PositionIndexTest.sq("f4"), PositionIndexTest.sq("d3"))
+                .build();
+        assertTrue(games.isRegular(0));
+        assertFalse(games.isRegular(1));
+        assertEquals(1, games.nIrregular());
+        final DictionaryColumn[] columns = new DictionaryColumn[DatabaseIndex.N_FIELDS];
+        for (int field = 0; field < columns.length; field++) {
+            columns[field] = DictionaryColumn.of(new String[]{"a", "b"});
+        }
+
+        final File file = File.createTempFile("test", ".nbg");
+        file.deleteOnExit();
+        GameStoreFile.write(file, games, columns);
+        final DatabaseIndex index = GameStoreFile.read(file);
+        assertFalse(index.games.isRegular(1));
+        assertEquals(start, index.games.start(1));
+        assertEquals(BitPosition.start(), index.games.start(0));
+        assertEquals(2, index.games.nMoves(1));
+        assertEquals(PositionIndexTest.sq("d3"), index.games.move(1, 1));
+
+        // irregular games are kept but not indexed
+        assertEquals(1, index.positions.find(BitPosition.start()).index.size());
+
+        final COsGame stored = index.gameFromIndex(1);
+        assertEquals(start, BitPosition.of(stored.getStartPosition().board));
+        assertEquals(2, stored.nMoves());
+    }
+
+    public void testSources() throws IOException {
+        final GameStore games = new GameStore.Builder()
+                .add(PositionIndexTest.sq("f5"))
+                .add(PositionIndexTest.sq("d3"))
+                .build();
+        final DictionaryColumn[] columns = new DictionaryColumn[DatabaseIndex.N_FIELDS];
+        for (int field = 0; field < columns.length; field++) {
+            columns[field] = DictionaryColumn.of(new String[]{"a", "b"});
+        }
+        final File file = File.createTempFile("test", ".nbg");
+        file.deleteOnExit();
+
+        GameStoreFile.write(file, games, columns);
+        assertNull(GameStoreFile.read(file).sources());
+
+        GameStoreFile.write(file, games, columns, new long[]{3, Long.MIN_VALUE});
+        final DatabaseIndex index = GameStoreFile.read(file);
+        assertEquals(3, index.sources(0));
+        assertEquals(Long.MIN_VALUE, index.sources(1));
+        assertEquals("b", index.text(1, DatabaseIndex.BLACK));
+    }
+
+    public void testTexts() throws IOException {
+        final GameStore games = new GameStore.Builder(true)
+                .add(PositionIndexTest.sq("f5"))
+                .add(PositionIndexTest.sq("d3"))
+                .build();
+        final DictionaryColumn[] columns = new DictionaryColumn[DatabaseIndex.N_FIELDS];
+        for (int field = 0; field < columns.length; field++) {
+            columns[field] = DictionaryColumn.of(new String[]{"a", "b"});
+        }
+        columns[DatabaseIndex.YEAR] = DictionaryColumn.of(new String[]{"2001", "2002"});
+        columns[DatabaseIndex.RESULT] = DictionaryColumn.of(new String[]{"12", "-4"});
+        final String text = "(;GM[Othello]PC[GGS/os]DT[2003.12.15_12:33:18.MST]PB[a]PW[a]RE[+12.000]TY[8]B[f5//1.5];)";
+        final GameTexts texts = new GameTexts.Builder().add(text).add("").build();
+        final File file = File.createTempFile("test", ".nbg");
+        file.deleteOnExit();
+
+        GameStoreFile.write(file, games, columns, null, texts);
+        final DatabaseIndex index = GameStoreFile.read(file);
+        assertEquals(text, index.texts().text(0));
+        assertEquals(text, index.ggfText(0));
+
+        // a game without text gets one generated from the index
+        final String generated = index.ggfText(1);
+        assertEquals("", index.texts().text(1));
+        assertTrue(generated, generated.startsWith("(;GM[Othello]PC[b]DT[2002.01.01_00:00:00.GMT]PB[b]PW[b]RE[-4.000]"));
+        assertTrue(generated, generated.endsWith("B[d3//0];)"));
+        assertEquals(1, index.gameFromIndex(1).nMoves());
+    }
+
+    public void testSpill() throws IOException {
+        final String text = "(;GM[Othello]PC[Place]PB[Black]PW[White]RE[+2.000]TY[8]B[f5]W[d6];)";
+        final ArrayList<GgfGameText> gameTexts = new ArrayList<>();
+        gameTexts.add(new GgfGameText(text));
+        final DatabaseData databaseData = new DatabaseData();
+        databaseData.addGgfGames(gameTexts);
+
+        final DatabaseIndex index = GameStoreFile.spill(databaseData);
+        assertTrue(index.games.moves().isDirect());
+        assertEquals(1, index.nGames());
+        assertEquals(PositionIndexTest.sq("d6"), index.games.move(0, 1));
+        assertEquals("Black", index.text(0, DatabaseIndex.BLACK));
+        assertEquals(1, index.positions.find(PositionIndexTest.positionAfter("f5", "d6")).index.size());
+    }
+
+    public void testPositionIndex() throws IOException {
+        final GameStore games = new GameStore.Builder()
+                .add(PositionIndexTest.sq("f5"), PositionIndexTest.sq("d6"), PositionIndexTest.sq("c3"))
+                .add(PositionIndexTest.sq("f5"), PositionIndexTest.sq("d6"), PositionIndexTest.sq("c5"))
+                .build();
+        final DictionaryColumn[] columns = new DictionaryColumn[DatabaseIndex.N_FIELDS];
+        for (int field = 0; field < columns.length; field++) {
+            columns[field] = DictionaryColumn.of(new String[]{"a", "b"});
+        }
+        final File file = File.createTempFile("test", ".nbg");
+        file.deleteOnExit();
+
+        // the position index is stored with the games and used in place
+        GameStoreFile.write(file, games, columns);
+        final DatabaseIndex index = GameStoreFile.read(file);
+        assertTrue(index.positions instanceof PositionIndex);
+        final PositionIndex positions = (PositionIndex) index.positions;
+        assertTrue(positions.hashes().isDirect());
+        assertEquals(PositionIndex.of(games).size(), positions.size());
+        assertEquals(2, positions.find(PositionIndexTest.positionAfter("f5", "d6")).index.size());
+        assertEquals(1, positions.find(PositionIndexTest.positionAfter("f5", "d6", "c3")).index.size());
+    }
+
+    public void testTooLarge() throws IOException {
+        final GameStore games = new GameStore.Builder()
+                .add(PositionIndexTest.sq("f5"), PositionIndexTest.sq("d6"), PositionIndexTest.sq("c3"))
+                .build();
+        final String[] values = new String[DatabaseIndex.N_FIELDS];
+        Arrays.fill(values, "a");
+        final File file = File.createTempFile("test", ".nbg");
+        try (GameStoreFile.Writer writer = new GameStoreFile.Writer(file, false, true, 1000)) {
+            for (int i = 0; i < 100; i++) {
+                writer.add(games, 0, values, "(;GM[Othello]PB[a]PW[a]TY[8]B[f5]W[d6]B[c3];)");
+            }
+            fail("should throw");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse("an unfinished store is deleted", file.exists());
+    }
+
+    public void testNotAGameStore() throws IOException {
+        final File file = File.createTempFile("test", ".nbg");
+        file.deleteOnExit();
+        try {
+            GameStoreFile.read(file);
+            fail("should throw");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.welty.othello.thor.IndeterminateProgressTracker;
+import junit.framework.TestCase;
+import org.mockito.Mockito;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+public class GgfIndexTest extends TestCase {
+    public void testIndex() throws IOException {
+        final File file = File.createTempFile("test", ".ggf");
+        file.deleteOnExit();
+        try (InputStream in = getClass().getResourceAsStream("test.ggf")) {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        final GgfIndex index = GgfIndex.of(file, Mockito.mock(IndeterminateProgressTracker.class));
+        assertEquals(1, index.nGames());
+        assertEquals("Saio1200", index.field(0, GgfIndex.BLACK));
+        assertEquals("Saio3000", index.field(0, GgfIndex.WHITE));
+
+        final String text = index.text(0);
+        assertTrue(text.startsWith("(;GM[Othello]"));
+        assertTrue(text.endsWith(";)"));
+    }
+
+    public void testScanTags() {
+        // tags are found anywhere in the game, escaped brackets are part of the value, and later copies are ignored
+        final String text = "(;GM[Othello]PC[x]C[PB\\[no\\]]PB[a\\]b]DT[2014.01.02]B[F5]PB[c]RE[+2.000];)";
+        assertEquals(Arrays.asList("a]b", "", "2014.01.02", "+2.000"), Arrays.asList(GgfIndex.scanTags(text)));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import com.orbanova.common.feed.Handler;
+import com.welty.othello.thor.GgfGameText;
+import com.welty.othello.thor.IndeterminateProgressTracker;
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class GgfReaderTest extends TestCase {
+    private static final String GAME1 = "(;GM[Othello]PB[a]B[F5];)";
+    private static final String GAME2 = "(;GM[Othello]PB[b;)]C[x\\];)]B[F5];)";
+    private static final String GAME3 = "(;GM[Othello]PB[c]B[D3];)";
+
+    public void testRead() throws IOException {
+        final File file = File.createTempFile("test", ".ggf");
+        file.deleteOnExit();
+        Files.write(file.toPath(), (GAME1 + "\n" + GAME2 + "\r\n junk " + GAME3 + "\n").getBytes(Charset.forName("US-ASCII")));
+
+        // small windows and chunks so that games cross window boundaries and chunks fill up
+        for (int windowSize = 1; windowSize <= 64; windowSize *= 4) {
+            final List<String> games = new ArrayList<>();
+            final List<Integer> chunkSizes = new ArrayList<>();
+            final long[] lastProgress = new long[2];
+            GgfReader.read(file, new Handler<List<GgfReader.GameText>>() {
+                @Override public void handle(@NotNull List<GgfReader.GameText> chunk) {
+                    chunkSizes.add(chunk.size());
+                    for (GgfReader.GameText gameText : chunk) {
+                        games.add(gameText.text);
+                        try {
+                            assertEquals(gameText.text, GgfReader.readText(file, gameText.offset, gameText.length));
+                        } catch (IOException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                }
+            }, new GgfReader.Progress() {
+                @Override public void update(long bytesRead, long totalBytes, int nGames) {
+                    assertTrue(bytesRead >= lastProgress[0]);
+                    assertEquals(file.length(), totalBytes);
+                    lastProgress[0] = bytesRead;
+                    lastProgress[1] = nGames;
+                }
+            }, windowSize, 2);
+
+            assertEquals(3, games.size());
+            assertEquals(GAME1, games.get(0));
+            assertEquals(GAME2, games.get(1));
+            assertEquals(GAME3, games.get(2));
+            assertEquals(2, chunkSizes.get(0).intValue());
+            assertEquals(1, chunkSizes.get(1).intValue());
+            assertEquals(file.length(), lastProgress[0]);
+            assertEquals(3, lastProgress[1]);
+        }
+    }
+
+    public void testLoad() throws IOException {
+        final File file = File.createTempFile("test", ".ggf");
+        file.deleteOnExit();
+        Files.write(file.toPath(), (GAME1 + "\n" + GAME3 + "\n").getBytes(Charset.forName("US-ASCII")));
+
+        final List<Integer> chunkSizes = new ArrayList<>();
+        final List<Long> offsets = new ArrayList<>();
+        final long[] bytesRead = new long[1];
+        GgfReader.load(file, new Handler<List<GgfReader.ParsedGame>>() {
+            @Override public void handle(@NotNull List<GgfReader.ParsedGame> chunk) {
+                chunkSizes.add(chunk.size());
+                for (GgfReader.ParsedGame game : chunk) {
+                    offsets.add(game.location.offset);
+                    assertSame(game.location.text, game.gameText.m_text);
+                }
+            }
+        }, new GgfReader.Progress() {
+            @Override public void update(long read, long totalBytes, int nGames) {
+                bytesRead[0] = read;
+            }
+        });
+        assertEquals(Arrays.asList(2), chunkSizes);
+        assertEquals(Arrays.asList(0L, (long) GAME1.length() + 1), offsets);
+        assertEquals(file.length(), bytesRead[0]);
+    }
+
+    public void testTrackerProgress() {
+        final int[] nUpdates = {0};
+        final GgfReader.Progress progress = GgfReader.progress(new IndeterminateProgressTracker() {
+            @Override public void increment() {
+            }
+
+            @Override public void update() {
+                nUpdates[0]++;
+            }
+
+            @Override public void complete() {
+            }
+        });
+        for (long bytesRead = 0; bytesRead <= 10000; bytesRead += 10) {
+            progress.update(bytesRead, 10000, 0);
+        }
+        // once per percent of the file
+        assertEquals(101, nUpdates[0]);
+    }
+}
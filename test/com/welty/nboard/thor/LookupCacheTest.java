@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import junit.framework.TestCase;
+
+public class LookupCacheTest extends TestCase {
+    public void testFiltersAreComparedByContents() {
+        final LookupCache<String> cache = new LookupCache<>(4);
+        cache.put(1, new String[]{"a", ""}, "x");
+        assertEquals("x", cache.get(1, new String[]{"a", ""}));
+        assertNull(cache.get(1, new String[]{"b", ""}));
+        assertNull(cache.get(2, new String[]{"a", ""}));
+        assertEquals(1, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+
+    public void testFiltersAreCopied() {
+        final LookupCache<String> cache = new LookupCache<>(4);
+        final String[] filters = {"a"};
+        cache.put(1, filters, "x");
+        filters[0] = "b";
+        assertNull(cache.get(1, filters));
+        assertEquals("x", cache.get(1, new String[]{"a"}));
+    }
+
+    public void testLeastRecentlyUsedIsEvicted() {
+        final LookupCache<String> cache = new LookupCache<>(2);
+        final String[] filters = {""};
+        cache.put(1, filters, "one");
+        cache.put(2, filters, "two");
+        assertEquals("one", cache.get(1, filters));
+        cache.put(3, filters, "three");
+        assertEquals(2, cache.size());
+        assertEquals("one", cache.get(1, filters));
+        assertNull(cache.get(2, filters));
+        assertEquals("three", cache.get(3, filters));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get(1, filters));
+    }
+}
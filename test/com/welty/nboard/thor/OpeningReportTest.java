@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+package com.welty.nboard.thor;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.welty.nboard.thor.PositionIndexTest.positionAfter;
+import static com.welty.nboard.thor.PositionIndexTest.sq;
+
+public class OpeningReportTest extends TestCase {
+    public void testReport() throws IOException {
+        final GameStore games = new GameStore.Builder()
+                .add(sq("f5"), sq("d6"), sq("c3"))
+                .add(sq("d3"), sq("c5"), sq("f6"))
+                .add(sq("f5"), sq("f4"))
+                .add(sq("f5"), sq("d6"), sq("c5"))
+                .build();
+        final DictionaryColumn[] columns = new DictionaryColumn[DatabaseIndex.N_FIELDS];
+        for (int field = 0; field < columns.length; field++) {
+            columns[field] = DictionaryColumn.of(new String[]{"10", "-4", "0", "2"});
+        }
+        final DatabaseIndex index = new DatabaseIndex(games, columns, null);
+        final String[] noFilters = new String[DatabaseIndex.N_FIELDS];
+        Arrays.fill(noFilters, "");
+
+        assertEquals(Arrays.asList(OpeningReport.HEADER.trim()
+                , "\t4\t100.00\t62.5"
+                , "d6\t3\t75.00\t66.7"
+                , "d6 c3\t2\t50.00\t50.0"
+                , "d6 c5\t1\t25.00\t100.0"
+                , "f4\t1\t25.00\t50.0"
+        ), report(index, positionAfter("f5"), noFilters, 2));
+
+        // the filters select games, and the frequencies are relative to the games that pass them
+        final String[] filters = noFilters.clone();
+        filters[DatabaseIndex.RESULT] = ">=0";
+        assertEquals(Arrays.asList(OpeningReport.HEADER.trim()
+                , "\t3\t100.00\t83.3"
+                , "d6\t2\t66.67\t100.0"
+                , "f4\t1\t33.33\t50.0"
+        ), report(index, positionAfter("f5"), filters, 1));
+    }
+
+    public void testDepth() throws IOException {
+        final GameStore games = new GameStore.Builder().add(sq("f5"), sq("d6"), sq("c3")).build();
+        final DictionaryColumn[] columns = new DictionaryColumn[DatabaseIndex.N_FIELDS];
+        for (int field = 0; field < columns.length; field++) {
+            columns[field] = DictionaryColumn.of(new String[]{"0"});
+        }
+        final DatabaseIndex index = new DatabaseIndex(games, columns, null);
+        final String[] noFilters = new String[DatabaseIndex.N_FIELDS];
+        Arrays.fill(noFilters, "");
+
+        assertEquals(Arrays.asList(OpeningReport.HEADER.trim(), "\t1\t100.00\t50.0")
+                , report(index, BitPosition.start(), noFilters, 0));
+        assertEquals(report(index, BitPosition.start(), noFilters, OpeningReport.MAX_DEPTH)
+                , report(index, BitPosition.start(), noFilters, Integer.MAX_VALUE));
+        try {
+            report(index, BitPosition.start(), noFilters, -1);
+            fail("negative depth should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static List<String> report(DatabaseIndex index, BitPosition position, String[] filters, int depth) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OpeningReport.write(index, position, filters, depth, 1, Channels.newChannel(out));
+        return Arrays.asList(out.toString("US-ASCII").split("\n"));
+    }
+}
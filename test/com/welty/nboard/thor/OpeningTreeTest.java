@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class OpeningTreeTest extends TestCase {
+    private static final String[][] GAMES = {
+            {"f5", "d6", "c3", "d3", "c4"},
+            {"f5", "d6", "c3", "d3", "c4", "f4"},
+            {"f5", "f6", "e6", "f4"},
+            {"d3", "c5", "f6", "f5"},
+            {"e6", "f4", "c3", "c4", "d3"},
+            {"f5", "d6", "c5", "f4", "e3"},
+            {"f5", "d6", "c5", "f4", "e3"},
+    };
+
+    public void testTreeMatchesScan() {
+        final GameStore.Builder builder = new GameStore.Builder();
+        final String[] results = new String[GAMES.length];
+        for (int g = 0; g < GAMES.length; g++) {
+            final int[] squares = new int[GAMES[g].length];
+            for (int i = 0; i < squares.length; i++) {
+                squares[i] = PositionIndexTest.sq(GAMES[g][i]);
+            }
+            builder.add(squares);
+            results[g] = "" + (g % 3 - 1) * 10;
+        }
+        final DatabaseIndex index = new DatabaseIndex(builder.build(), columns(results), null);
+        final OpeningTree tree = OpeningTree.of(index, 1);
+
+        for (String[] game : GAMES) {
+            for (int ply = 0; ply <= game.length; ply++) {
+                final BitPosition position = PositionIndexTest.positionAfter(Arrays.copyOf(game, ply));
+                final PositionMatches matches = index.positions.find(position);
+                final MoveSummary expected = index.summarize(position, matches.index, matches.iReflections);
+                final MoveSummary actual = tree.summarize(position);
+                assertNotNull(actual);
+                assertTrue(Arrays.equals(expected.keys(), actual.keys()));
+                for (int sq : expected.keys()) {
+                    assertEquals(expected.get(sq).getNPlayed(), actual.get(sq).getNPlayed());
+                    assertEquals(expected.get(sq).getScore(), actual.get(sq).getScore(), 1e-9);
+                }
+            }
+        }
+    }
+
+    public void testMinGames() {
+        final GameStore games = new GameStore.Builder()
+                .add(PositionIndexTest.sq("f5"), PositionIndexTest.sq("d6"))
+                .add(PositionIndexTest.sq("f5"), PositionIndexTest.sq("f6"))
+                .build();
+        final DatabaseIndex index = new DatabaseIndex(games, columns(new String[]{"0", "0"}), null);
+        final OpeningTree tree = OpeningTree.of(index, 2);
+
+        // the start position and the position after F5 are reached by both games; the others by only one
+        assertEquals(2, tree.nNodes());
+        assertEquals(2, tree.summarize(PositionIndexTest.positionAfter("f5")).size());
+        assertNull(tree.summarize(PositionIndexTest.positionAfter("f5", "d6")));
+    }
+
+    private static DictionaryColumn[] columns(String[] results) {
+        final String[] empty = new String[results.length];
+        Arrays.fill(empty, "");
+        final DictionaryColumn[] columns = new DictionaryColumn[DatabaseIndex.N_FIELDS];
+        for (int field = 0; field < columns.length; field++) {
+            columns[field] = DictionaryColumn.of(field == DatabaseIndex.RESULT ? results : empty);
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class PatternSearchTest extends TestCase {
+    private static final String[][] GAMES = {
+            {"f5", "d6", "c3", "d3", "c4"},
+            {"f5", "f6", "e6", "f4"},
+            {"d3", "c5", "f6", "f5"},
+            {"e6", "f4", "c3", "c4", "d3"},
+            {"f5", "d6", "c5", "f4", "e3"},
+    };
+
+    private static final PatternSearch.Cancellation NEVER = new PatternSearch.Cancellation() {
+        @Override public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    public void testSearchMatchesReplay() {
+        final DatabaseIndex index = index();
+        final String[] patterns = {"c3:f6", "d3:f5", "a1:h8", "c4 f4", "e3 e6"};
+        for (String[] game : GAMES) {
+            for (int ply = 0; ply <= game.length; ply++) {
+                final BitPosition position = PositionIndexTest.positionAfter(Arrays.copyOf(game, ply));
+                for (String squares : patterns) {
+                    final PositionPattern pattern = new PositionPattern(position, PositionPattern.parseSquares(squares));
+                    final PositionMatches matches = PatternSearch.find(index, pattern, noFilter(index), NEVER);
+                    assertNotNull(matches);
+                    for (int g = 0; g < GAMES.length; g++) {
+                        assertEquals(squares + " " + g, replayMatches(GAMES[g], pattern), matches.index.contains(g));
+                    }
+                    for (int i = 0; i < matches.size(); i++) {
+                        assertTrue(matches.index.get(i) > (i == 0 ? -1 : matches.index.get(i - 1)));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testWholeBoardIsAPositionLookup() {
+        final DatabaseIndex index = index();
+        final BitPosition position = PositionIndexTest.positionAfter("f5", "f6");
+        final PositionMatches expected = index.positions.find(position);
+        final PositionMatches actual = PatternSearch.find(index, new PositionPattern(position, -1L)
+                , noFilter(index), NEVER);
+        assertNotNull(actual);
+        assertEquals(Arrays.toString(expected.index.toArray()), Arrays.toString(actual.index.toArray()));
+        assertEquals(Arrays.toString(expected.iReflections.toArray()), Arrays.toString(actual.iReflections.toArray()));
+    }
+
+    public void testIrregularGamesDontMatch() {
+        final GameStore games = new GameStore.Builder()
+                .add(PositionIndexTest.sq("f5"))
+                .add(new BitPosition(BitBoards.START_BLACK, BitBoards.START_WHITE, false), PositionIndexTest.sq("f4"))
+                .build();
+        final DictionaryColumn[] columns = new DictionaryColumn[DatabaseIndex.N_FIELDS];
+        for (int field = 0; field < columns.length; field++) {
+            columns[field] = DictionaryColumn.of(new String[]{"", ""});
+        }
+        final DatabaseIndex index = new DatabaseIndex(games, columns, null);
+
+        // the start position satisfies the pattern, but only the regular game starts there
+        final PositionPattern pattern = new PositionPattern(BitPosition.start(), PositionPattern.parseSquares("d4:e5"));
+        final PositionMatches matches = PatternSearch.find(index, pattern, noFilter(index), NEVER);
+        assertNotNull(matches);
+        assertEquals("[0]", Arrays.toString(matches.index.toArray()));
+    }
+
+    public void testCancellation() {
+        final DatabaseIndex index = index();
+        final PositionPattern pattern = new PositionPattern(BitPosition.start(), PositionPattern.parseSquares("d4:e5"));
+        assertNull(PatternSearch.find(index, pattern, noFilter(index), new PatternSearch.Cancellation() {
+            @Override public boolean isCancelled() {
+                return true;
+            }
+        }));
+    }
+
+    private static boolean replayMatches(String[] game, PositionPattern pattern) {
+        for (int ply = 0; ply <= game.length; ply++) {
+            final BitPosition position = PositionIndexTest.positionAfter(Arrays.copyOf(game, ply));
+            if (pattern.match(position.black(), position.white(), pattern.allReflections()) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static PrefixFilter noFilter(DatabaseIndex index) {
+        final String[] filters = new String[DatabaseIndex.N_FIELDS];
+        Arrays.fill(filters, "");
+        return index.filter(filters);
+    }
+
+    private static DatabaseIndex index() {
+        final GameStore.Builder builder = new GameStore.Builder();
+        for (String[] game : GAMES) {
+            final int[] squares = new int[game.length];
+            for (int i = 0; i < squares.length; i++) {
+                squares[i] = PositionIndexTest.sq(game[i]);
+            }
+            builder.add(squares);
+        }
+        final String[] empty = new String[GAMES.length];
+        Arrays.fill(empty, "");
+        final DictionaryColumn[] columns = new DictionaryColumn[DatabaseIndex.N_FIELDS];
+        for (int field = 0; field < columns.length; field++) {
+            columns[field] = DictionaryColumn.of(empty);
+        }
+        return new DatabaseIndex(builder.build(), columns, null);
+    }
+}
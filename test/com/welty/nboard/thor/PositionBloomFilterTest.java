@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class PositionBloomFilterTest extends TestCase {
+    public void testFindMatchesPositionIndex() {
+        final Random random = new Random(1337);
+        final GameStore.Builder builder = new GameStore.Builder();
+        final List<int[]> moveLists = new ArrayList<>();
+        for (int g = 0; g < 3 * PositionBloomFilter.GAMES_PER_BLOCK + 5; g++) {
+            final int[] moves = randomGame(random);
+            moveLists.add(moves);
+            builder.add(moves);
+        }
+        final GameStore games = builder.build();
+        final PositionIndex index = PositionIndex.of(games);
+        final PositionBloomFilter filter = PositionBloomFilter.of(games);
+        assertTrue(filter.sizeInBytes() * 5 < index.size() * 12L);
+
+        for (int g = 0; g < moveLists.size(); g += 7) {
+            final int[] moves = moveLists.get(g);
+            final BitPosition position = BitPosition.start();
+            for (int i = 0; i <= moves.length; i++) {
+                final PositionMatches expected = index.find(position);
+                final PositionMatches actual = filter.find(position);
+                assertEquals(Arrays.toString(expected.index.toArray()), Arrays.toString(actual.index.toArray()));
+                assertEquals(Arrays.toString(expected.iReflections.toArray()), Arrays.toString(actual.iReflections.toArray()));
+                if (i < moves.length) {
+                    position.play(moves[i]);
+                }
+            }
+        }
+        assertEquals(0, filter.find(PositionIndexTest.positionAfter("f5", "f6", "e6", "f4", "e3", "c5", "c4")).size());
+        assertTrue(Arrays.equals(index.frequentHashes(10), filter.frequentHashes(10)));
+        final PositionIndex openings = PositionIndex.of(games, PositionBloomFilter.OPENING_MOVES);
+        for (int minGames = 1; minGames <= 3; minGames++) {
+            assertTrue(Arrays.equals(openings.frequentHashes(minGames), filter.frequentHashes(minGames)));
+        }
+    }
+
+    /**
+     * @return the moves of a game played randomly to the end
+     */
+    private static int[] randomGame(Random random) {
+        final BitPosition position = BitPosition.start();
+        final int[] moves = new int[60];
+        int n = 0;
+        while (true) {
+            final List<Integer> legal = new ArrayList<>();
+            for (int sq = 0; sq < 64; sq++) {
+                if (position.copy().play(sq)) {
+                    legal.add(sq);
+                }
+            }
+            if (legal.isEmpty()) {
+                return Arrays.copyOf(moves, n);
+            }
+            final int sq = legal.get(random.nextInt(legal.size()));
+            position.play(sq);
+            moves[n++] = sq;
+        }
+    }
+}
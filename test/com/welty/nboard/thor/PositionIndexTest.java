@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import junit.framework.TestCase;
+
+public class PositionIndexTest extends TestCase {
+    public void testPlay() {
+        final BitPosition position = BitPosition.start();
+        assertEquals(60, position.nEmpty());
+        assertFalse("not adjacent to an enemy disc", position.play(sq("a1")));
+        assertTrue(position.isBlackToMove());
+
+        assertTrue(position.play(sq("f5")));
+        assertFalse(position.isBlackToMove());
+        assertEquals(59, position.nEmpty());
+        assertTrue("e5 was flipped", (position.black() & (1L << sq("e5"))) != 0);
+    }
+
+    public void testCanonicalHash() {
+        final BitPosition f5 = BitPosition.start();
+        f5.play(sq("f5"));
+        final BitPosition d3 = BitPosition.start();
+        d3.play(sq("d3"));
+        final BitPosition c4 = BitPosition.start();
+        c4.play(sq("c4"));
+        assertEquals(f5.canonicalHash(), d3.canonicalHash());
+        assertEquals(f5.canonicalHash(), c4.canonicalHash());
+
+        final BitPosition diagonal = positionAfter("f5", "d6");
+        final BitPosition perpendicular = positionAfter("f5", "f4");
+        assertTrue(diagonal.canonicalHash() != perpendicular.canonicalHash());
+    }
+
+    public void testFind() {
+        final GameStore games = new GameStore.Builder()
+                .add(sq("f5"), sq("d6"), sq("c3"))
+                .add(sq("d3"), sq("c5"))
+                .add(sq("f5"), sq("f4"))
+                .build();
+        final PositionIndex index = PositionIndex.of(games);
+        assertEquals(4 + 3 + 3, index.size());
+
+        assertEquals(3, index.find(BitPosition.start()).size());
+        assertEquals(3, index.find(positionAfter("f5")).size());
+
+        final PositionMatches diagonal = index.find(positionAfter("f5", "d6"));
+        assertEquals(2, diagonal.size());
+        assertEquals(0, diagonal.index.get(0));
+        assertEquals(Symmetry.IDENTITY, diagonal.iReflections.get(0));
+
+        // the second game is the diagonal opening played in a different orientation
+        assertEquals(1, diagonal.index.get(1));
+        final int iReflection = diagonal.iReflections.get(1);
+        assertEquals(sq("f5"), Symmetry.reflectSquare(iReflection, sq("d3")));
+        assertEquals(sq("d6"), Symmetry.reflectSquare(iReflection, sq("c5")));
+
+        assertEquals(1, index.find(positionAfter("f5", "f4")).size());
+        assertEquals(0, index.find(positionAfter("f5", "f6")).size());
+    }
+
+    public void testSingleGame() {
+        final GameStore games = new GameStore.Builder()
+                .add(sq("f5"), sq("d6"), sq("c3"))
+                .add(sq("d3"), sq("c5"))
+                .add(sq("f5"), sq("f4"))
+                .build();
+        final PositionIndex index = PositionIndex.of(games);
+        final BitPosition diagonal = positionAfter("f5", "d6");
+        assertEquals(2, index.estimateMatches(diagonal));
+        assertEquals(3, index.estimateMatches(BitPosition.start()));
+        assertEquals(0, index.estimateMatches(positionAfter("f5", "f6")));
+
+        final PositionMatches matches = index.find(diagonal);
+        assertEquals(matches.iReflections.get(0), index.reflection(diagonal, 0));
+        assertEquals(matches.iReflections.get(1), index.reflection(diagonal, 1));
+        assertEquals(-1, index.reflection(diagonal, 2));
+    }
+
+    static BitPosition positionAfter(String... moves) {
+        final BitPosition position = BitPosition.start();
+        for (String move : moves) {
+            assertTrue(move, position.play(sq(move)));
+        }
+        return position;
+    }
+
+    static int sq(String move) {
+        return BitBoards.square(move.charAt(1) - '1', move.charAt(0) - 'a');
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2014 Chris Welty.
+ *
+ * This is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This file is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * For the license, see <http://www.gnu.org/licenses/gpl.html>.
+ */
+
+package com.welty.nboard.thor;
+
+import junit.framework.TestCase;
+
+public class PositionPatternTest extends TestCase {
+    public void testParseSquares() {
+        assertEquals(0xFFL, PositionPattern.parseSquares("a1:h1"));
+        assertEquals(0xFFL, PositionPattern.parseSquares("H1:A1"));
+        assertEquals(0x0303L | (1L << 63), PositionPattern.parseSquares("a1:b2, h8"));
+        assertEquals(0L, PositionPattern.parseSquares("  "));
+        for (String bad : new String[]{"a9", "i1", "a1:", "a1:b2:c3", "a"}) {
+            try {
+                PositionPattern.parseSquares(bad);
+                fail(bad);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testMatch() {
+        final BitPosition f5 = PositionIndexTest.positionAfter("f5");
+        // e4 (black), f5 (black) and f4 (empty)
+        final PositionPattern pattern = new PositionPattern(f5, PositionPattern.parseSquares("e4:f5"));
+        assertEquals(3, pattern.nDiscs());
+
+        final BitPosition d3 = PositionIndexTest.positionAfter("d3");
+        final int iReflection = pattern.match(d3.black(), d3.white(), pattern.allReflections());
+        assertTrue(iReflection >= 0);
+        assertEquals(PositionIndexTest.sq("f5"), Symmetry.reflectSquare(iReflection, PositionIndexTest.sq("d3")));
+
+        final BitPosition start = BitPosition.start();
+        assertEquals(-1, pattern.match(start.black(), start.white(), pattern.allReflections()));
+
+        // after f5 f4, f4 is no longer empty in the pattern's orientation, but other reflections could still match
+        final BitPosition f5f4 = PositionIndexTest.positionAfter("f5", "f4");
+        final int alive = pattern.stillAlive(f5f4.black() | f5f4.white(), pattern.allReflections());
+        assertTrue(alive != 0 && alive != pattern.allReflections());
+    }
+}